@@ -38,4 +38,10 @@ public abstract class AbstractionReplicationService
     public String getDescription() {
         return description;
     }
+
+    /** @return Null as by default the replication target is outside of this repository **/
+    @Override
+    public String getLocalTargetPath(String path) {
+        return null;
+    }
 }
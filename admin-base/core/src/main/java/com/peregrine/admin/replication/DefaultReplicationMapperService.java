@@ -166,6 +166,19 @@ public class DefaultReplicationMapperService
         return null;
     }
 
+    @Override
+    public String getLocalTargetPath(String path) {
+        DefaultReplicationConfig mapping = defaultMapping;
+        for(DefaultReplicationConfig config: pathMapping) {
+            if(config.isHandled(path)) {
+                mapping = config;
+                break;
+            }
+        }
+        Replication replication = mapping == null ? null : replications.get(mapping.getServiceName());
+        return replication == null ? null : replication.getLocalTargetPath(path);
+    }
+
     @Override
     public List<Resource> replicate(List<Resource> resourceList) throws ReplicationException {
         List<Resource> answer = new ArrayList<>();
@@ -232,7 +245,16 @@ public class DefaultReplicationMapperService
          * @return True if this resource should be handled with the given replication
          */
         public boolean isHandled(Resource resource) {
-            return path == null || resource.getPath().startsWith(path);
+            return isHandled(resource.getPath());
+        }
+
+        /**
+         * Checks if this configuration applies to the given Path
+         * @param resourcePath Path of the Resource to be checked
+         * @return True if this path should be handled with the given replication
+         */
+        public boolean isHandled(String resourcePath) {
+            return path == null || resourcePath.startsWith(path);
         }
 
         /** @return the Replication Service Name **/
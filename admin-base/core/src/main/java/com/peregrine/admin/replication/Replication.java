@@ -79,6 +79,15 @@ public interface Replication {
     List<Resource> replicate(List<Resource> resourceList)
         throws ReplicationException;
 
+    /**
+     * Provides the path in this repository that the given path is replicated to
+     * so that the permissions on the target can be checked before replicating
+     *
+     * @param path Path of the Source Resource
+     * @return Path of the Replication Target or null if it is not replicated into this repository
+     */
+    String getLocalTargetPath(String path);
+
     class ReplicationException
         extends Exception
     {
@@ -0,0 +1,78 @@
+package com.peregrine.admin.replication;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import org.apache.sling.event.jobs.Job;
+
+import java.util.Collection;
+
+/**
+ * Queues replications as persisted Sling Jobs so that they are executed
+ * in the background and are resumed after a restart.
+ *
+ * Each Replication Service has its own job topic and therefore its own
+ * job queue with its own number of workers.
+ */
+public interface ReplicationQueue {
+
+    /** Job Topic of a Replication Service is this prefix followed by its name **/
+    String TOPIC_PREFIX = "com/peregrine/admin/replication/";
+
+    String PROPERTY_NAME = "peregrine.replication.name";
+    String PROPERTY_PATH = "peregrine.replication.path";
+    String PROPERTY_DEEP = "peregrine.replication.deep";
+    String PROPERTY_DEACTIVATE = "peregrine.replication.deactivate";
+    String PROPERTY_USER_ID = "peregrine.replication.userId";
+
+    /**
+     * Queues a replication unless the same replication of the same user is
+     * already waiting for the given path in which case that job is returned
+     *
+     * @param replicationName Name of the Replication Service
+     * @param path Path of the resource to be replicated
+     * @param deep If true the entire sub tree of the resource is replicated
+     * @param deactivate If true the resource is removed from the target instead
+     * @param userId Id of the user that requested the replication
+     * @return The queued job or null if it could not be queued
+     */
+    Job enqueue(String replicationName, String path, boolean deep, boolean deactivate, String userId);
+
+    /**
+     * @param id Id of the job
+     * @return The replication job with the given id or null if not found
+     */
+    Job getJob(String id);
+
+    /**
+     * Finds the queued, running and finished replication jobs of a user
+     *
+     * @param userId Id of the user that requested the replications
+     * @param path If not null only the jobs of this path are returned
+     * @param limit Maximum number of jobs per Replication Service
+     * @return Jobs which might be empty
+     */
+    Collection<Job> findJobs(String userId, String path, int limit);
+}
@@ -152,6 +152,14 @@ public class LocalReplicationService
     @SuppressWarnings("unused")
     private ReferenceLister referenceLister;
 
+    @Override
+    public String getLocalTargetPath(String path) {
+        if(path != null && (path.equals(localSource) || path.startsWith(localSource + '/'))) {
+            return localTarget + path.substring(localSource.length());
+        }
+        return null;
+    }
+
     @Override
     public List<Resource> replicate(Resource startingResource, boolean deep)
         throws ReplicationException
@@ -0,0 +1,183 @@
+package com.peregrine.admin.replication.impl;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In Memory Reverse Reference Index that maps a referenced path to the
+ * resources and properties that contain it.
+ *
+ * The links are also kept by the path of the resource that contains them
+ * so that a changed or removed resource (and its children) can be updated
+ * without looking at any other resource.
+ */
+class ReferenceIndex {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Links by referenced path ordered by the path of the resource that contains them **/
+    private final Map<String, Set<Link>> byTarget = new HashMap<>();
+    /** Links by the path of the resource that contains them **/
+    private final TreeMap<String, List<Link>> bySource = new TreeMap<>();
+
+    /**
+     * Replaces the links of a resource
+     * @param sourcePath Path of the resource
+     * @param references Referenced Paths by property name. If empty the resource's links are removed
+     */
+    void put(String sourcePath, Map<String, ? extends Collection<String>> references) {
+        List<Link> links = new ArrayList<>(references.size());
+        for(Map.Entry<String, ? extends Collection<String>> reference: references.entrySet()) {
+            for(String target: reference.getValue()) {
+                links.add(new Link(sourcePath, reference.getKey(), target));
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            removeSource(sourcePath);
+            if(!links.isEmpty()) {
+                bySource.put(sourcePath, links);
+                for(Link link: links) {
+                    Set<Link> targetLinks = byTarget.get(link.target);
+                    if(targetLinks == null) {
+                        targetLinks = new TreeSet<>();
+                        byTarget.put(link.target, targetLinks);
+                    }
+                    targetLinks.add(link);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Removes the links of the resource with the given path and of all the resources below it **/
+    void remove(String path) {
+        lock.writeLock().lock();
+        try {
+            removeSource(path);
+            List<String> children = new ArrayList<>(bySource.subMap(path + "/", path + "/\uffff").keySet());
+            for(String child: children) {
+                removeSource(child);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            byTarget.clear();
+            bySource.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeSource(String sourcePath) {
+        List<Link> links = bySource.remove(sourcePath);
+        if(links != null) {
+            for(Link link: links) {
+                Set<Link> targetLinks = byTarget.get(link.target);
+                if(targetLinks != null && targetLinks.remove(link) && targetLinks.isEmpty()) {
+                    byTarget.remove(link.target);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param target Referenced Path
+     * @return Links to the given path ordered by the path of the resource that contains them
+     */
+    List<Link> get(String target) {
+        lock.readLock().lock();
+        try {
+            Set<Link> links = byTarget.get(target);
+            return links == null ? Collections.<Link>emptyList() : new ArrayList<>(links);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return Number of resources with links **/
+    int size() {
+        lock.readLock().lock();
+        try {
+            return bySource.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static class Link
+        implements Comparable<Link>
+    {
+        private final String sourcePath;
+        private final String propertyName;
+        private final String target;
+
+        private Link(String sourcePath, String propertyName, String target) {
+            this.sourcePath = sourcePath;
+            this.propertyName = propertyName;
+            this.target = target;
+        }
+
+        /** @return Path of the resource that contains the reference **/
+        String getSourcePath() { return sourcePath; }
+
+        String getPropertyName() { return propertyName; }
+
+        String getTarget() { return target; }
+
+        @Override
+        public int compareTo(Link other) {
+            int answer = sourcePath.compareTo(other.sourcePath);
+            return answer != 0 ? answer : propertyName.compareTo(other.propertyName);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Link && compareTo((Link) other) == 0 && target.equals(((Link) other).target);
+        }
+
+        @Override
+        public int hashCode() {
+            return sourcePath.hashCode() * 31 + propertyName.hashCode();
+        }
+    }
+}
@@ -27,13 +27,21 @@ package com.peregrine.admin.replication.impl;
 
 import com.peregrine.admin.replication.Reference;
 import com.peregrine.admin.replication.ReferenceLister;
+import com.peregrine.admin.replication.impl.ReferenceIndex.Link;
 import com.peregrine.commons.util.PerUtil;
 import com.peregrine.commons.util.PerUtil.MissingOrOutdatedResourceChecker;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
@@ -42,23 +50,58 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.peregrine.commons.util.PerConstants.JCR_CONTENT;
+import static com.peregrine.commons.util.PerConstants.SEARCH_SUB_SERVICE;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.loginService;
+import static org.apache.sling.api.resource.observation.ResourceChangeListener.PATHS;
 
 /**
+ * The Referenced By List of the resources below /content is served from a
+ * Reverse Reference Index. It is built in the background when the service
+ * starts or is reconfigured and then updated with the resource changes.
+ * Until it is built and for roots outside of /content the tree is traversed.
+ *
  * Created by Andreas Schaefer on 5/25/17.
  */
 @Component(
     configurationPolicy = ConfigurationPolicy.OPTIONAL,
-    service = ReferenceLister.class,
-    immediate = true
+    service = { ReferenceLister.class, ResourceChangeListener.class },
+    immediate = true,
+    property = {
+        PATHS + EQUALS + ReferenceListerService.INDEX_ROOT
+    }
 )
 @Designate(ocd = ReferenceListerService.Configuration.class)
 public class ReferenceListerService
-    implements ReferenceLister
+    implements ReferenceLister, ResourceChangeListener
 {
+    public static final String INDEX_ROOT = "/content";
+    private static final int MAX_INDEX_DEPTH = 50;
+    private static final String DEEP_KEY_SUFFIX = "|deep";
+
     @ObjectClassDefinition(
         name = "Peregrine: Reference List Provider",
         description = "Provides a list of referenced resources for a given resource"
@@ -76,11 +119,56 @@ public class ReferenceListerService
             required = true
         )
         String[] referencedByRoot() default "/content";
+        @AttributeDefinition(
+            name = "ReferenceIndex",
+            description = "If enabled the Referenced By List is served from an index instead of traversing the roots"
+        )
+        boolean referenceIndex() default true;
+        @AttributeDefinition(
+            name = "MaxReferenceDepth",
+            description = "Maximum number of references followed from the starting resource when the references are traversed deep"
+        )
+        int maxReferenceDepth() default 20;
+        @AttributeDefinition(
+            name = "ReferenceCacheSize",
+            description = "Maximum number of resources whose references are cached. 0 disables the cache"
+        )
+        int referenceCacheSize() default 10000;
+        @AttributeDefinition(
+            name = "TraversalParallelism",
+            description = "Number of threads that collect the references for a deep traversal in parallel. 0 or 1 traverses on the calling thread"
+        )
+        int traversalParallelism() default 0;
     }
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private List<String> referencePrefixList = new ArrayList<>();
+    @org.osgi.service.component.annotations.Reference
+    @SuppressWarnings("unused")
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private final ReferenceIndex referenceIndex = new ReferenceIndex();
+    /** Changed Paths and if they were added **/
+    private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean indexEnabled = true;
+    private volatile boolean indexReady = false;
+    private ExecutorService executor;
+    /**
+     * References found in a resource by its path (and the deep flag) in the order of their last use and then by the
+     * user that found them as a user must not see the references in the parts of a resource only others can read
+     **/
+    private final Map<String, Map<String, CachedReferences>> referenceCache = new LinkedHashMap<String, Map<String, CachedReferences>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, CachedReferences>> eldest) {
+            return size() > maxCacheSize;
+        }
+    };
+    private volatile int maxCacheSize = 10000;
+    private volatile int maxReferenceDepth = 20;
+    private volatile ForkJoinPool traversalPool;
+
+    private volatile ReferenceMatcher referenceMatcher = new ReferenceMatcher(Collections.<String>emptyList());
     private List<String> referencedByRootList = new ArrayList<>();
 
     @Override
@@ -91,76 +179,210 @@ public class ReferenceListerService
     @Override
     public List<Resource> getReferenceList(boolean traverseDeep, Resource resource, boolean deep, Resource source, Resource target) {
         List<Resource> answer = new ArrayList<>();
-        traverse(traverseDeep, resource, answer, deep, source, target);
+        Set<String> visited = new HashSet<>();
+        if(resource != null) {
+            visited.add(resource.getPath());
+        }
+        Map<String, List<String>> graph = null;
+        ForkJoinPool pool = traversalPool;
+        if(traverseDeep && resource != null && pool != null) {
+            graph = collectGraph(pool, resource, deep);
+        }
+        traverse(traverseDeep, resource, answer, visited, graph, deep, source, target, 0);
         return answer;
     }
 
+    /**
+     * Collects the references of all reachable resources in parallel with a clone of the caller's resource resolver
+     * per worker so that only what the caller can read is collected. The response is then built from these references
+     * in the same order as a traversal on the calling thread.
+     * @return References by resource path or null if they could not be collected
+     */
+    private Map<String, List<String>> collectGraph(ForkJoinPool pool, Resource resource, boolean deep) {
+        long start = System.currentTimeMillis();
+        String path = resource.getPath();
+        GraphCollector collector = new GraphCollector(resource.getResourceResolver(), deep);
+        try {
+            pool.invoke(collector.new CollectTask(path, 0));
+            log.debug("Collected the references of {} resources below: '{}' in {}ms", collector.graph.size(), path, System.currentTimeMillis() - start);
+            return collector.graph;
+        } catch(RuntimeException e) {
+            log.warn("Could not collect the references in parallel, traverse: '{}' on the calling thread", path, e);
+            return null;
+        } finally {
+            collector.close();
+        }
+    }
+
+    private class GraphCollector {
+        private final ResourceResolver callerResourceResolver;
+        private final boolean deep;
+        private final Map<String, List<String>> graph = new ConcurrentHashMap<>();
+        private final Set<String> visited = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        /** Resource Resolvers are not thread safe so each worker uses its own **/
+        private final ConcurrentMap<Thread, ResourceResolver> resourceResolvers = new ConcurrentHashMap<>();
+
+        private GraphCollector(ResourceResolver callerResourceResolver, boolean deep) {
+            this.callerResourceResolver = callerResourceResolver;
+            this.deep = deep;
+        }
+
+        private ResourceResolver getResourceResolver() {
+            ResourceResolver answer = resourceResolvers.get(Thread.currentThread());
+            if(answer == null) {
+                try {
+                    answer = callerResourceResolver.clone(null);
+                } catch(LoginException e) {
+                    throw new IllegalStateException("Could not clone the caller's Resource Resolver for the Reference Traversal", e);
+                }
+                resourceResolvers.put(Thread.currentThread(), answer);
+            }
+            return answer;
+        }
+
+        private void close() {
+            for(ResourceResolver resourceResolver: resourceResolvers.values()) {
+                resourceResolver.close();
+            }
+        }
+
+        private class CollectTask
+            extends RecursiveAction
+        {
+            private final String path;
+            private final int depth;
+
+            private CollectTask(String path, int depth) {
+                this.path = path;
+                this.depth = depth;
+            }
+
+            @Override
+            protected void compute() {
+                if(!visited.add(path)) {
+                    return;
+                }
+                // Resources that cannot be resolved are not collected and are traversed by the caller
+                Resource resource = resolveReference(getResourceResolver(), path);
+                if(resource == null) {
+                    return;
+                }
+                List<String> references = getReferences(resource, deep);
+                graph.put(resource.getPath(), references);
+                if(depth < maxReferenceDepth) {
+                    List<CollectTask> tasks = new ArrayList<>();
+                    for(String reference: references) {
+                        if(!visited.contains(reference)) {
+                            tasks.add(new CollectTask(reference, depth + 1));
+                        }
+                    }
+                    invokeAll(tasks);
+                }
+            }
+        }
+    }
+
     public List<Reference> getReferencedByList(Resource resource) {
         List<Reference> answer = new ArrayList<>();
+        boolean useIndex = indexEnabled && indexReady;
+        // Changes not yet applied by the index worker are checked directly so that references that were just saved are found
+        Map<String, Boolean> changes = useIndex ? new HashMap<>(pending) : Collections.<String, Boolean>emptyMap();
         for(String root: referencedByRootList) {
             Resource rootResource = resource != null ? resource.getResourceResolver().getResource(root) : null;
             if(rootResource != null) {
-                traverseTreeReverse(rootResource, resource.getPath(), answer);
+                if(useIndex && (root.equals(INDEX_ROOT) || root.startsWith(INDEX_ROOT + "/"))) {
+                    findInIndex(rootResource, resource.getPath(), changes, answer);
+                } else {
+                    traverseTreeReverse(rootResource, resource.getPath(), answer);
+                }
             }
         }
         return answer;
     }
 
-    private void traverse(boolean traverseDeep, Resource resource, List<Resource> response, boolean deep, Resource source, Resource target) {
-        if(resource != null) {
-            parseProperties(traverseDeep, resource, response, false, source, target);
-            Resource jcrContent = resource.getChild(JCR_CONTENT);
-            if(!deep) {
-                if(jcrContent != null) {
-                    parseProperties(traverseDeep, jcrContent, response, deep, source, target);
-                    // Loop of all its children
-                    traverseTree(traverseDeep, jcrContent, response, deep, source, target);
-                }
-            } else {
-                Iterable<Resource> children = resource.getChildren();
-                for(Resource child : children) {
-                    parseProperties(traverseDeep, child, response, deep, source, target);
-                    // Loop of all its children
-                    traverseTree(traverseDeep, child, response, deep, source, target);
+    /**
+     * Looks up the references below the root and checks them with the caller's resource resolver.
+     * The changed resources that are not applied to the index yet are checked directly instead.
+     * @param changes Pending Changes by path and if they were added
+     */
+    private void findInIndex(Resource root, String referencePath, Map<String, Boolean> changes, List<Reference> response) {
+        ResourceResolver resourceResolver = root.getResourceResolver();
+        String rootPrefix = root.getPath() + "/";
+        for(Link link: referenceIndex.get(referencePath)) {
+            if(!link.getSourcePath().startsWith(rootPrefix) || isChanged(link.getSourcePath(), changes)) {
+                continue;
+            }
+            Resource resource = resourceResolver.getResource(link.getSourcePath());
+            if(resource != null && isReferenced(resource, resource.getValueMap().get(link.getPropertyName()), referencePath)) {
+                addReference(resource, link.getPropertyName(), response);
+            }
+        }
+        for(Map.Entry<String, Boolean> change: changes.entrySet()) {
+            if(!change.getKey().startsWith(rootPrefix)) {
+                continue;
+            }
+            Resource resource = resourceResolver.getResource(change.getKey());
+            if(resource != null) {
+                parsePropertiesReverse(resource, referencePath, response);
+                if(change.getValue()) {
+                    // An added resource can be the root of a moved or copied tree
+                    traverseTreeReverse(resource, referencePath, response);
                 }
             }
         }
     }
 
-    private void traverseTree(boolean traverseDeep, Resource resource, List<Resource> response, boolean deep, Resource source, Resource target) {
-        for(Resource child: resource.getChildren()) {
-            parseProperties(traverseDeep, child, response, deep, source, target);
-            traverseTree(traverseDeep, child, response, deep, source, target);
+    /** @return True if the resource or the tree it was added with is checked directly **/
+    private boolean isChanged(String path, Map<String, Boolean> changes) {
+        if(changes.isEmpty()) {
+            return false;
+        }
+        if(changes.containsKey(path)) {
+            return true;
+        }
+        for(String current = path.substring(0, path.lastIndexOf('/')); current.length() > 0; current = current.substring(0, current.lastIndexOf('/'))) {
+            if(Boolean.TRUE.equals(changes.get(current))) {
+                return true;
+            }
         }
+        return false;
     }
 
-    private void parseProperties(boolean traverseDeep, Resource resource, List<Resource> response, boolean deep, Resource source, Resource target) {
-        ValueMap properties = resource.getValueMap();
-        for(Object item: properties.values()) {
-            String value = item + "";
-            for(String prefix: referencePrefixList) {
-                if(value.startsWith(prefix)) {
-                    String resourcePath = value;
-                    log.trace("Found Reference Resource Path: '{}'", resourcePath);
-                    Resource child = null;
-                    if(resourcePath.startsWith("/")) {
-                        child = resource.getResourceResolver().getResource(value);
-                    } else {
-                        child = resource.getChild(resourcePath);
+    /**
+     * Adds the resources referenced by the given resource and, if traverseDeep is set, the ones they reference.
+     * The visited set contains the paths in the response and the starting resource so that every resource is
+     * added and traversed only once even if the references form a cycle.
+     */
+    private void traverse(boolean traverseDeep, Resource resource, List<Resource> response, Set<String> visited, Map<String, List<String>> graph, boolean deep, Resource source, Resource target, int depth) {
+        if(resource != null) {
+            ResourceResolver resourceResolver = resource.getResourceResolver();
+            List<String> references = graph != null ? graph.get(resource.getPath()) : null;
+            if(references == null) {
+                references = getReferences(resource, deep);
+            }
+            for(String resourcePath: references) {
+                if(visited.contains(resourcePath)) {
+                    log.trace("Resource is already in the list: '{}'", resourcePath);
+                    continue;
+                }
+                Resource child = resolveReference(resourceResolver, resourcePath);
+                if(child != null && !visited.contains(child.getPath())) {
+                    if(source != null && target != null) {
+                        int size = response.size();
+                        PerUtil.listMissingParents(child, response, source, new MissingOrOutdatedResourceChecker(source, target));
+                        for(Resource parent: response.subList(size, response.size())) {
+                            visited.add(parent.getPath());
+                        }
                     }
-                    if(child != null) {
-                        // Check if the resource is not already listed in there
-                        if(containsResource(response, child)) {
-                            log.info("Resource is already in the list: '{}'", child);
+                    log.trace("Found Reference Resource: '{}'", child);
+                    response.add(child);
+                    visited.add(resourcePath);
+                    visited.add(child.getPath());
+                    if(traverseDeep) {
+                        if(depth < maxReferenceDepth) {
+                            traverse(traverseDeep, child, response, visited, graph, deep, source, target, depth + 1);
                         } else {
-                            if(source  != null && target != null) {
-                                PerUtil.listMissingParents(child, response, source, new MissingOrOutdatedResourceChecker(source, target));
-                            }
-                            log.trace("Found Reference Resource: '{}'", child);
-                            response.add(child);
-                            if(traverseDeep) {
-                                traverse(traverseDeep, child, response, deep, source, target);
-                            }
+                            log.warn("Maximum Reference Depth: {} reached at: '{}', its references are ignored", maxReferenceDepth, resourcePath);
                         }
                     }
                 }
@@ -168,18 +390,144 @@ public class ReferenceListerService
         }
     }
 
-    private boolean containsResource(List<Resource> resources, Resource check) {
-        boolean answer = false;
-        String checkPath = check.getPath();
-        for(Resource item: resources) {
-            if(item.getPath().equals(checkPath)) {
-                answer = true;
-                break;
+    /**
+     * Provides the paths of the references in the resource and its JCR Content or its children if deep.
+     * They are cached by the resource's path, the user of its resource resolver and the last modification
+     * date and dropped when the resource or anything below it changes.
+     */
+    private List<String> getReferences(Resource resource, boolean deep) {
+        String key = deep ? resource.getPath() + DEEP_KEY_SUFFIX : resource.getPath();
+        String userId = String.valueOf(resource.getResourceResolver().getUserID());
+        long lastModified = PerUtil.getLastModified(resource);
+        CachedReferences cached;
+        synchronized(referenceCache) {
+            Map<String, CachedReferences> byUser = referenceCache.get(key);
+            cached = byUser == null ? null : byUser.get(userId);
+        }
+        if(cached != null && lastModified > 0 && cached.lastModified == lastModified) {
+            return cached.paths;
+        }
+        Set<String> paths = new LinkedHashSet<>();
+        parseProperties(resource, paths);
+        if(!deep) {
+            Resource jcrContent = resource.getChild(JCR_CONTENT);
+            if(jcrContent != null) {
+                parseProperties(jcrContent, paths);
+                // Loop of all its children
+                parseTree(jcrContent, paths, 0);
+            }
+        } else {
+            parseTree(resource, paths, 0);
+        }
+        List<String> answer = Collections.unmodifiableList(new ArrayList<>(paths));
+        // Resources without a modification date cannot be validated and are not cached
+        if(lastModified > 0 && maxCacheSize > 0) {
+            synchronized(referenceCache) {
+                Map<String, CachedReferences> byUser = referenceCache.get(key);
+                if(byUser == null) {
+                    byUser = new HashMap<>();
+                    referenceCache.put(key, byUser);
+                }
+                byUser.put(userId, new CachedReferences(lastModified, answer));
             }
         }
         return answer;
     }
 
+    private void parseTree(Resource resource, Set<String> paths, int depth) {
+        if(depth >= MAX_INDEX_DEPTH) {
+            log.warn("Maximum Depth reached when looking for references below: '{}'", resource.getPath());
+            return;
+        }
+        for(Resource child: resource.getChildren()) {
+            parseProperties(child, paths);
+            parseTree(child, paths, depth + 1);
+        }
+    }
+
+    private void parseProperties(Resource resource, Set<String> paths) {
+        ValueMap properties = resource.getValueMap();
+        List<String> found = new ArrayList<>();
+        for(Object item: properties.values()) {
+            referenceMatcher.find(item, found);
+        }
+        for(String value: found) {
+            log.trace("Found Reference Resource Path: '{}'", value);
+            paths.add(toReferencePath(resource, value));
+        }
+    }
+
+    private String toReferencePath(Resource resource, String reference) {
+        return reference.startsWith("/") ? reference : resource.getPath() + "/" + reference;
+    }
+
+    /** @return Path without the extension of its last segment like the rendered page of a rich text link or the path itself **/
+    private String dropExtension(String path) {
+        int dot = path.indexOf('.', path.lastIndexOf('/') + 1);
+        return dot > 0 ? path.substring(0, dot) : path;
+    }
+
+    /**
+     * Finds the references in a property value the same way as the Reference List does
+     * @return True if one of them is the given path or a link to it with an extension
+     */
+    private boolean isReferenced(Resource resource, Object value, String referencePath) {
+        List<String> found = new ArrayList<>();
+        referenceMatcher.find(value, found);
+        for(String reference: found) {
+            String path = toReferencePath(resource, reference);
+            if(referencePath.equals(path) || referencePath.equals(dropExtension(path))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Links in rich text point to the rendered page like '/content/site/page.html' so the extension is dropped if needed **/
+    private Resource resolveReference(ResourceResolver resourceResolver, String path) {
+        Resource answer = resourceResolver.getResource(path);
+        if(answer == null) {
+            String withoutExtension = dropExtension(path);
+            if(!withoutExtension.equals(path)) {
+                answer = resourceResolver.getResource(withoutExtension);
+            }
+        }
+        return answer;
+    }
+
+    /** Drops the cached references of the changed resource and its ancestors as they contain its references **/
+    private void invalidateReferences(String path) {
+        synchronized(referenceCache) {
+            for(String current = path; current.length() > 0; current = current.substring(0, Math.max(0, current.lastIndexOf('/')))) {
+                referenceCache.remove(current);
+                referenceCache.remove(current + DEEP_KEY_SUFFIX);
+            }
+        }
+    }
+
+    private static class TraversalThreadFactory
+        implements ForkJoinWorkerThreadFactory
+    {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread answer = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            answer.setName("peregrine-reference-traversal-" + counter.incrementAndGet());
+            return answer;
+        }
+    }
+
+    private static class CachedReferences {
+        private final long lastModified;
+        private final List<String> paths;
+
+        private CachedReferences(long lastModified, List<String> paths) {
+            this.lastModified = lastModified;
+            this.paths = paths;
+        }
+    }
+
     private void traverseTreeReverse(Resource resource, String referencePath, List<Reference> response) {
         for(Resource child: resource.getChildren()) {
             parsePropertiesReverse(child, referencePath, response);
@@ -190,58 +538,206 @@ public class ReferenceListerService
     private void parsePropertiesReverse(Resource resource, String referencePath, List<Reference> response) {
         ValueMap properties = resource.getValueMap();
         for(Map.Entry<String, Object> entry: properties.entrySet()) {
-//        for(Object item: properties.values()) {
-            String name = entry.getKey();
-            String value = entry.getValue() + "";
-            if(referencePath.equals(value)) {
-                // Find the node
-                boolean found = false;
-                Resource temp = resource;
-                while(true) {
-                    if(temp.getName().equals(JCR_CONTENT)) {
-                        Resource parent = temp.getParent();
-                        if(parent != null) {
-                            if(!response.contains(parent)) {
-                                response.add(new Reference(parent, name, resource));
-                            }
-                            found = true;
-                        } else {
-                            log.warn("JCR Content Node: '{}' found but no parent", temp.getPath());
-                        }
-                        break;
-                    } else {
-                        temp = temp.getParent();
-                        if(temp == null) {
-                            break;
-                        }
+            if(isReferenced(resource, entry.getValue(), referencePath)) {
+                addReference(resource, entry.getKey(), response);
+            }
+        }
+    }
+
+    /** Adds the reference with the resource that owns the JCR Content the property is in or the property's resource **/
+    private void addReference(Resource resource, String name, List<Reference> response) {
+        // Find the node
+        boolean found = false;
+        Resource temp = resource;
+        while(true) {
+            if(temp.getName().equals(JCR_CONTENT)) {
+                Resource parent = temp.getParent();
+                if(parent != null) {
+                    if(!response.contains(parent)) {
+                        response.add(new Reference(parent, name, resource));
                     }
+                    found = true;
+                } else {
+                    log.warn("JCR Content Node: '{}' found but no parent", temp.getPath());
                 }
-                if(!found) {
-                    // No JCR Content node found so just use this one
-                    if(!response.contains(resource)) {
-                        response.add(new Reference(resource, name, resource));
-                    }
+                break;
+            } else {
+                temp = temp.getParent();
+                if(temp == null) {
+                    break;
                 }
             }
         }
+        if(!found) {
+            // No JCR Content node found so just use this one
+            if(!response.contains(resource)) {
+                response.add(new Reference(resource, name, resource));
+            }
+        }
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        for(ResourceChange change: changes) {
+            invalidateReferences(change.getPath());
+        }
+        if(!indexEnabled) {
+            return;
+        }
+        for(ResourceChange change: changes) {
+            boolean added = change.getType() == ChangeType.ADDED;
+            // A path that is changed after it was added must still be handled as added
+            if(pending.putIfAbsent(change.getPath(), added) != null && added) {
+                pending.put(change.getPath(), true);
+            }
+        }
+        if(scheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    scheduled.set(false);
+                    updateIndex();
+                }
+            });
+        }
+    }
+
+    private synchronized void rebuildIndex() {
+        indexReady = false;
+        referenceIndex.clear();
+        ResourceResolver resourceResolver = null;
+        try {
+            long start = System.currentTimeMillis();
+            resourceResolver = loginService(resourceResolverFactory, SEARCH_SUB_SERVICE);
+            Resource root = resourceResolver.getResource(INDEX_ROOT);
+            if(root != null) {
+                indexTree(root, 0);
+            }
+            indexReady = !Thread.currentThread().isInterrupted();
+            log.info("Reference Index built for {} resources in {}ms", referenceIndex.size(), System.currentTimeMillis() - start);
+        } catch(LoginException e) {
+            log.warn("Reference Index could not login and the references are found by traversal", e);
+        } catch(RuntimeException e) {
+            log.warn("Reference Index could not be built and the references are found by traversal", e);
+        } finally {
+            if(resourceResolver != null) {
+                resourceResolver.close();
+            }
+        }
+    }
+
+    /** Applies the pending changes to the index. Changes before the index is built are covered by the build **/
+    private synchronized void updateIndex() {
+        List<String> paths = new ArrayList<>(pending.keySet());
+        if(paths.isEmpty()) {
+            return;
+        }
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = loginService(resourceResolverFactory, SEARCH_SUB_SERVICE);
+            for(String path: paths) {
+                Boolean added = pending.remove(path);
+                Resource resource = resourceResolver.getResource(path);
+                if(resource == null) {
+                    referenceIndex.remove(path);
+                } else if(added != null && added) {
+                    // An added resource can be the root of a moved or copied tree
+                    referenceIndex.remove(path);
+                    indexTree(resource, 0);
+                } else {
+                    indexResource(resource);
+                }
+            }
+        } catch(LoginException e) {
+            log.warn("Reference Index could not login and is not used until it is rebuilt", e);
+            indexReady = false;
+        } catch(RuntimeException e) {
+            log.warn("Reference Index could not be updated and is not used until it is rebuilt", e);
+            indexReady = false;
+        } finally {
+            if(resourceResolver != null) {
+                resourceResolver.close();
+            }
+        }
+    }
+
+    private void indexTree(Resource resource, int depth) {
+        if(Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        indexResource(resource);
+        if(depth < MAX_INDEX_DEPTH) {
+            for(Resource child: resource.getChildren()) {
+                indexTree(child, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Indexes the references the Reference Matcher finds in the properties. Links with an extension
+     * are also indexed without it as they can point to the rendered page
+     */
+    private void indexResource(Resource resource) {
+        Map<String, Set<String>> references = new LinkedHashMap<>();
+        for(Map.Entry<String, Object> entry: resource.getValueMap().entrySet()) {
+            List<String> found = new ArrayList<>();
+            referenceMatcher.find(entry.getValue(), found);
+            if(!found.isEmpty()) {
+                Set<String> targets = new LinkedHashSet<>();
+                for(String reference: found) {
+                    String path = toReferencePath(resource, reference);
+                    targets.add(path);
+                    targets.add(dropExtension(path));
+                }
+                references.put(entry.getKey(), targets);
+            }
+        }
+        referenceIndex.put(resource.getPath(), references);
     }
 
     @Activate
     @SuppressWarnings("unused")
-    void activate(Configuration configuration) { setup(configuration); }
+    void activate(Configuration configuration) {
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread answer = new Thread(runnable, "peregrine-reference-index");
+                    answer.setDaemon(true);
+                    return answer;
+                }
+            }
+        );
+        setup(configuration);
+    }
+
+    /** A configuration change rebuilds the Reference Index **/
     @Modified
     @SuppressWarnings("unused")
     void modified(Configuration configuration) { setup(configuration); }
 
+    @Deactivate
+    @SuppressWarnings("unused")
+    void deactivate() {
+        executor.shutdownNow();
+        if(traversalPool != null) {
+            traversalPool.shutdownNow();
+            traversalPool = null;
+        }
+        indexReady = false;
+        referenceIndex.clear();
+    }
+
     private void setup(Configuration configuration) {
         String[] prefixes = configuration.referencePrefix();
-        referencePrefixList = new ArrayList<>();
+        List<String> referencePrefixList = new ArrayList<>();
         for(String prefix: prefixes) {
             if(prefix != null && !prefix.isEmpty()) {
                 log.debug("Add Reference Prefix: '{}'", prefix);
                 referencePrefixList.add(prefix);
             }
         }
+        referenceMatcher = new ReferenceMatcher(referencePrefixList);
         String[] roots = configuration.referencedByRoot();
         referencedByRootList = new ArrayList<>();
         for(String root: roots) {
@@ -250,5 +746,29 @@ public class ReferenceListerService
                 referencedByRootList.add(root);
             }
         }
+        maxReferenceDepth = Math.max(1, configuration.maxReferenceDepth());
+        maxCacheSize = Math.max(0, configuration.referenceCacheSize());
+        ForkJoinPool previousPool = traversalPool;
+        traversalPool = configuration.traversalParallelism() > 1 ?
+            new ForkJoinPool(configuration.traversalParallelism(), new TraversalThreadFactory(), null, false) :
+            null;
+        if(previousPool != null) {
+            previousPool.shutdown();
+        }
+        synchronized(referenceCache) {
+            referenceCache.clear();
+        }
+        indexEnabled = configuration.referenceIndex();
+        indexReady = false;
+        pending.clear();
+        referenceIndex.clear();
+        if(indexEnabled) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    rebuildIndex();
+                }
+            });
+        }
     }
 }
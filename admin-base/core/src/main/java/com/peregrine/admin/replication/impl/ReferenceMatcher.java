@@ -0,0 +1,212 @@
+package com.peregrine.admin.replication.impl;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * Finds the references in property values with an Aho-Corasick automaton
+ * that is built once over all the Reference Prefixes.
+ *
+ * A value that starts with a prefix is a reference as a whole. Otherwise the
+ * value is scanned once for absolute paths embedded in rich text like
+ * href="/content/..." or markdown links. Values that are not Strings or
+ * String Arrays are skipped.
+ */
+class ReferenceMatcher {
+
+    private final Node root = new Node(0);
+
+    ReferenceMatcher(Collection<String> prefixes) {
+        for(String prefix: prefixes) {
+            if(prefix != null && !prefix.isEmpty()) {
+                Node node = root;
+                for(int i = 0; i < prefix.length(); i++) {
+                    node = node.add(prefix.charAt(i));
+                }
+                node.prefix = true;
+                node.absolute = prefix.charAt(0) == '/';
+            }
+        }
+        link();
+    }
+
+    /** Sets the failure links breadth first and the longest absolute prefix that ends on each node **/
+    private void link() {
+        Deque<Node> queue = new ArrayDeque<>();
+        for(Node child: root.children) {
+            child.fail = root;
+            child.output = child.absolute ? child.depth : 0;
+            queue.add(child);
+        }
+        while(!queue.isEmpty()) {
+            Node node = queue.poll();
+            for(int i = 0; i < node.size; i++) {
+                Node child = node.children[i];
+                Node fail = node.fail;
+                while(fail != root && fail.get(node.keys[i]) == null) {
+                    fail = fail.fail;
+                }
+                Node next = fail.get(node.keys[i]);
+                child.fail = next != null && next != child ? next : root;
+                child.output = child.absolute ? child.depth : child.fail.output;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Adds the references found in the given property value
+     * @param value Property Value
+     * @param references Found References. Relative references are added as they are
+     */
+    void find(Object value, Collection<String> references) {
+        if(value instanceof String) {
+            find((String) value, references);
+        } else if(value instanceof String[]) {
+            for(String item: (String[]) value) {
+                find(item, references);
+            }
+        }
+    }
+
+    private void find(String value, Collection<String> references) {
+        if(value == null || value.isEmpty()) {
+            return;
+        }
+        if(startsWithPrefix(value)) {
+            references.add(value);
+            return;
+        }
+        int length = value.length();
+        Node state = root;
+        for(int i = 0; i < length; i++) {
+            if(state == root && root.size == 1) {
+                // With a single first character (usually the slash) the scan jumps to its next occurrence
+                i = value.indexOf(root.keys[0], i);
+                if(i < 0) {
+                    break;
+                }
+            }
+            char c = value.charAt(i);
+            Node next = state.get(c);
+            while(next == null && state != root) {
+                state = state.fail;
+                next = state.get(c);
+            }
+            state = next == null ? root : next;
+            if(state.output > 0) {
+                int start = i - state.output + 1;
+                if(start == 0 || !isPathCharacter(value.charAt(start - 1))) {
+                    int end = i + 1;
+                    while(end < length && !isTerminator(value.charAt(end))) {
+                        end++;
+                    }
+                    // Punctuation at the end of a sentence is not part of the path
+                    while(end > i + 1 && isTrailing(value.charAt(end - 1))) {
+                        end--;
+                    }
+                    references.add(value.substring(start, end));
+                    i = end - 1;
+                    state = root;
+                }
+            }
+        }
+    }
+
+    private boolean startsWithPrefix(String value) {
+        Node node = root;
+        for(int i = 0; i < value.length(); i++) {
+            node = node.get(value.charAt(i));
+            if(node == null) {
+                return false;
+            } else if(node.prefix) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Characters that make an embedded prefix part of a longer path or URL **/
+    private static boolean isPathCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '/' || c == '.' || c == '-' || c == '_' || c == ':';
+    }
+
+    private static boolean isTerminator(char c) {
+        switch(c) {
+            case '"': case '\'': case '<': case '>': case '(': case ')': case '[': case ']':
+            case '{': case '}': case '?': case '#': case '&': case '`': case '|': case '\\':
+                return true;
+            default:
+                return Character.isWhitespace(c);
+        }
+    }
+
+    private static boolean isTrailing(char c) {
+        return c == '.' || c == ',' || c == ';' || c == ':' || c == '!';
+    }
+
+    private static class Node {
+        private final int depth;
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private int size;
+        private Node fail;
+        /** Length of the longest absolute prefix ending on this node or 0 **/
+        private int output;
+        private boolean prefix;
+        private boolean absolute;
+
+        private Node(int depth) {
+            this.depth = depth;
+        }
+
+        private Node get(char key) {
+            for(int i = 0; i < size; i++) {
+                if(keys[i] == key) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node add(char key) {
+            Node answer = get(key);
+            if(answer == null) {
+                answer = new Node(depth + 1);
+                keys = Arrays.copyOf(keys, size + 1);
+                children = Arrays.copyOf(children, size + 1);
+                keys[size] = key;
+                children[size] = answer;
+                size++;
+            }
+            return answer;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.peregrine.admin.replication.impl;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.peregrine.admin.replication.ReferenceLister;
+import com.peregrine.admin.replication.Replication;
+import com.peregrine.admin.replication.Replication.ReplicationException;
+import com.peregrine.admin.replication.ReplicationQueue;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlManager;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.JobManager.QueryType;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.event.jobs.consumer.JobExecutionResult;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.peregrine.commons.util.PerConstants.REPLICATION_SUB_SERVICE;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static com.peregrine.commons.util.PerUtil.loginService;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Executes the queued replications with the Replication Service User.
+ * Before that the principals of the user that queued a replication must
+ * be allowed to modify every resource it covers.
+ *
+ * The number of workers and retries of each Replication Service is set by
+ * the Sling Job Queue Configuration of its topic. A failed replication is
+ * retried with an exponentially growing delay. The finished jobs are kept
+ * for the status and removed after the configured time.
+ */
+@Component(
+    service = { ReplicationQueue.class, JobExecutor.class },
+    immediate = true,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Replication Queue",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        JobExecutor.PROPERTY_TOPICS + EQUALS + ReplicationQueue.TOPIC_PREFIX + "*"
+    }
+)
+@Designate(ocd = ReplicationQueueService.Configuration.class)
+public class ReplicationQueueService
+    implements ReplicationQueue, JobExecutor
+{
+    @ObjectClassDefinition(
+        name = "Peregrine: Replication Queue",
+        description = "Executes the queued replications in the background"
+    )
+    @interface Configuration {
+        @AttributeDefinition(
+            name = "RetryDelay",
+            description = "Delay in milliseconds before the first retry of a failed replication. It doubles with every retry"
+        )
+        long retryDelay() default 5000;
+        @AttributeDefinition(
+            name = "MaxRetryDelay",
+            description = "Maximum delay in milliseconds before a retry"
+        )
+        long maxRetryDelay() default 600000;
+        @AttributeDefinition(
+            name = "KeepFinishedJobs",
+            description = "Minutes the finished replication jobs are kept for their status"
+        )
+        int keepFinishedJobs() default 1440;
+    }
+
+    /** The finished jobs are removed at most this often **/
+    private static final long CLEANUP_INTERVAL = 10 * 60 * 1000L;
+    private static final int MAX_DEDUPLICATION_JOBS = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Reference
+    @SuppressWarnings("unused")
+    private JobManager jobManager;
+
+    @Reference
+    @SuppressWarnings("unused")
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    @SuppressWarnings("unused")
+    private ReferenceLister referenceLister;
+
+    private final Map<String, Replication> replications = new ConcurrentHashMap<>();
+    private final AtomicLong lastCleanup = new AtomicLong();
+    private volatile long retryDelay;
+    private volatile long maxRetryDelay;
+    private volatile long keepFinishedJobs;
+
+    @Reference(
+        cardinality = ReferenceCardinality.MULTIPLE,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    @SuppressWarnings("unused")
+    public void bindReplication(Replication replication) {
+        String replicationName = replication.getName();
+        if(replicationName != null && !replicationName.isEmpty()) {
+            replications.put(replicationName, replication);
+        } else {
+            log.error("Replication: '{}' does not provide an operation name -> binding is ignored", replication);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public void unbindReplication(Replication replication) {
+        String replicationName = replication.getName();
+        if(replicationName != null) {
+            replications.remove(replicationName);
+        }
+    }
+
+    @Activate
+    @SuppressWarnings("unused")
+    void activate(Configuration configuration) { setup(configuration); }
+
+    @Modified
+    @SuppressWarnings("unused")
+    void modified(Configuration configuration) { setup(configuration); }
+
+    private void setup(Configuration configuration) {
+        retryDelay = Math.max(0, configuration.retryDelay());
+        maxRetryDelay = Math.max(retryDelay, configuration.maxRetryDelay());
+        keepFinishedJobs = Math.max(0, configuration.keepFinishedJobs()) * 60 * 1000L;
+    }
+
+    /** Replication names become a part of the topic and so anything but letters, digits, underscores and dashes is replaced **/
+    static String getTopic(String replicationName) {
+        return TOPIC_PREFIX + replicationName.replaceAll("[^\\w-]", "_");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized Job enqueue(String replicationName, String path, boolean deep, boolean deactivate, String userId) {
+        cleanup();
+        String topic = getTopic(replicationName);
+        // A waiting job replicates the content as it is when it runs so a new request of the same user for the same path
+        // is not needed. Jobs of other users are not reused as their status is only shown to the user that queued them
+        Map<String, Object> template = new HashMap<>();
+        template.put(PROPERTY_PATH, path);
+        template.put(PROPERTY_DEACTIVATE, deactivate);
+        if(userId != null) {
+            template.put(PROPERTY_USER_ID, userId);
+        }
+        for(Job queued: jobManager.findJobs(QueryType.QUEUED, topic, MAX_DEDUPLICATION_JOBS, template)) {
+            if(replicationName.equals(queued.getProperty(PROPERTY_NAME, String.class)) && (!deep || queued.getProperty(PROPERTY_DEEP, false))
+                && (userId == null ? queued.getProperty(PROPERTY_USER_ID) == null : userId.equals(queued.getProperty(PROPERTY_USER_ID, String.class)))
+            ) {
+                log.debug("Replication of: '{}' with: '{}' is already queued as job: '{}'", path, replicationName, queued.getId());
+                return queued;
+            }
+        }
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(PROPERTY_NAME, replicationName);
+        properties.put(PROPERTY_PATH, path);
+        properties.put(PROPERTY_DEEP, deep);
+        properties.put(PROPERTY_DEACTIVATE, deactivate);
+        if(userId != null) {
+            properties.put(PROPERTY_USER_ID, userId);
+        }
+        Job answer = jobManager.addJob(topic, properties);
+        log.debug("Queued Replication of: '{}' with: '{}' as job: '{}'", path, replicationName, answer == null ? null : answer.getId());
+        return answer;
+    }
+
+    @Override
+    public Job getJob(String id) {
+        Job answer = id == null || id.isEmpty() ? null : jobManager.getJobById(id);
+        return answer != null && answer.getTopic().startsWith(TOPIC_PREFIX) ? answer : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Collection<Job> findJobs(String userId, String path, int limit) {
+        Map<String, Object> template = new HashMap<>();
+        template.put(PROPERTY_USER_ID, userId);
+        if(path != null) {
+            template.put(PROPERTY_PATH, path);
+        }
+        List<Job> answer = new ArrayList<>();
+        for(String replicationName: replications.keySet()) {
+            answer.addAll(jobManager.findJobs(QueryType.ALL, getTopic(replicationName), limit, template));
+        }
+        return answer;
+    }
+
+    @Override
+    public JobExecutionResult process(Job job, JobExecutionContext context) {
+        String replicationName = job.getProperty(PROPERTY_NAME, String.class);
+        String path = job.getProperty(PROPERTY_PATH, String.class);
+        boolean deep = job.getProperty(PROPERTY_DEEP, false);
+        boolean deactivate = job.getProperty(PROPERTY_DEACTIVATE, false);
+        if(replicationName == null || path == null) {
+            return context.result().message("Job is missing the replication name or path").cancelled();
+        }
+        Replication replication = replications.get(replicationName);
+        if(replication == null) {
+            // After a restart the Replication Services might not be available yet
+            return failed(job, context, "Replication not found for name: " + replicationName);
+        }
+        context.initProgress(1, -1);
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = loginService(resourceResolverFactory, REPLICATION_SUB_SERVICE);
+            Resource source = resourceResolver.getResource(path);
+            if(source == null) {
+                return context.result().message("Resource not found: " + path).cancelled();
+            }
+            String userId = job.getProperty(PROPERTY_USER_ID, String.class);
+            String denied = findDenied(resourceResolver, userId, replication, source, deep, deactivate);
+            if(denied != null) {
+                log.warn("User: '{}' is not allowed to replicate: '{}', job: '{}' is cancelled", userId, denied, job.getId());
+                return context.result().message("Not allowed to replicate: " + denied).cancelled();
+            }
+            context.log("{0} of: {1} with: {2} started", deactivate ? "Deactivation" : "Replication", path, replicationName);
+            List<Resource> replicates = deactivate ? replication.deactivate(source) : replication.replicate(source, deep);
+            context.incrementProgressCount(1);
+            String message = (deactivate ? "Deactivated " : "Replicated ") + (replicates == null ? 0 : replicates.size()) + " resources";
+            context.log(message);
+            return context.result().message(message).succeeded();
+        } catch(LoginException e) {
+            log.error("Could not login the Replication Service User", e);
+            return failed(job, context, "Could not login the Replication Service User");
+        } catch(RepositoryException e) {
+            log.warn("Could not check the permissions for the Replication of: '{}'", path, e);
+            return context.result().message("Could not check the permissions: " + e.getMessage()).cancelled();
+        } catch(ReplicationException | RuntimeException e) {
+            log.warn("Replication of: '{}' with: '{}' failed, attempt: {}", path, replicationName, job.getRetryCount() + 1, e);
+            return failed(job, context, "Replication Failed: " + e.getMessage());
+        } finally {
+            if(resourceResolver != null) {
+                resourceResolver.close();
+            }
+        }
+    }
+
+    /**
+     * The job runs with the Replication Service User so the user that queued it is checked with its principals
+     * on the source, its sub tree if deep and its references as a replication modifies all of them. If the
+     * replication target is in this repository the user must also be able to write there
+     * @return Path of the first resource the user cannot modify or null if it can modify all of them
+     */
+    private String findDenied(ResourceResolver resourceResolver, String userId, Replication replication, Resource source, boolean deep, boolean deactivate) throws RepositoryException {
+        Session session = resourceResolver.adaptTo(Session.class);
+        if(userId == null || !(session instanceof JackrabbitSession)) {
+            return source.getPath();
+        }
+        AccessControlManager accessControlManager = session.getAccessControlManager();
+        Authorizable user = ((JackrabbitSession) session).getUserManager().getAuthorizable(userId);
+        if(user == null || !(accessControlManager instanceof JackrabbitAccessControlManager)) {
+            return source.getPath();
+        }
+        Set<Principal> principals = new HashSet<>();
+        principals.add(user.getPrincipal());
+        principals.add(((JackrabbitSession) session).getPrincipalManager().getEveryone());
+        for(Iterator<Group> groups = user.memberOf(); groups.hasNext(); ) {
+            principals.add(groups.next().getPrincipal());
+        }
+        Privilege[] privileges = new Privilege[] { accessControlManager.privilegeFromName(Privilege.JCR_MODIFY_PROPERTIES) };
+        Privilege[] targetPrivileges = new Privilege[] { accessControlManager.privilegeFromName(Privilege.JCR_WRITE) };
+        List<String> paths = new ArrayList<>();
+        paths.add(source.getPath());
+        if(!deactivate) {
+            if(deep) {
+                listSubTree(source, paths);
+            }
+            for(Resource reference: referenceLister.getReferenceList(true, source, true)) {
+                paths.add(reference.getPath());
+            }
+        }
+        for(String path: paths) {
+            if(!((JackrabbitAccessControlManager) accessControlManager).hasPrivileges(path, principals, privileges)) {
+                return path;
+            }
+            String targetPath = replication.getLocalTargetPath(path);
+            if(targetPath != null) {
+                // Missing targets are created below and a deactivated target is removed from its parent
+                String checkPath = findExisting(resourceResolver, targetPath);
+                if(checkPath != null && !((JackrabbitAccessControlManager) accessControlManager).hasPrivileges(checkPath, principals, targetPrivileges)) {
+                    return targetPath;
+                }
+                if(deactivate && checkPath != null && checkPath.equals(targetPath)) {
+                    String parentPath = findExisting(resourceResolver, ResourceUtil.getParent(targetPath));
+                    if(parentPath != null && !((JackrabbitAccessControlManager) accessControlManager).hasPrivileges(parentPath, principals, targetPrivileges)) {
+                        return targetPath;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return The given path or the path of its closest existing ancestor or null if none exists **/
+    private String findExisting(ResourceResolver resourceResolver, String path) {
+        while(path != null && resourceResolver.getResource(path) == null) {
+            path = ResourceUtil.getParent(path);
+        }
+        return path;
+    }
+
+    private void listSubTree(Resource resource, List<String> paths) {
+        for(Resource child: resource.getChildren()) {
+            paths.add(child.getPath());
+            listSubTree(child, paths);
+        }
+    }
+
+    /** Retries with a delay that doubles with every attempt **/
+    private JobExecutionResult failed(Job job, JobExecutionContext context, String message) {
+        long delay = retryDelay << Math.min(job.getRetryCount(), 20);
+        return context.result().message(message).failed(Math.min(delay, maxRetryDelay));
+    }
+
+    /** Removes the finished jobs that are older than the configured time **/
+    @SuppressWarnings("unchecked")
+    private void cleanup() {
+        long now = System.currentTimeMillis();
+        long last = lastCleanup.get();
+        if(now - last < CLEANUP_INTERVAL || !lastCleanup.compareAndSet(last, now)) {
+            return;
+        }
+        for(String replicationName: replications.keySet()) {
+            for(Job job: jobManager.findJobs(QueryType.HISTORY, getTopic(replicationName), -1)) {
+                Calendar finished = job.getFinishedDate();
+                if(finished != null && now - finished.getTimeInMillis() > keepFinishedJobs) {
+                    jobManager.removeJobById(job.getId());
+                }
+            }
+        }
+    }
+}
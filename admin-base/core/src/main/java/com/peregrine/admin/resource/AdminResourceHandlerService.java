@@ -5,10 +5,10 @@ import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.Directory;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.Tag;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.peregrine.adaption.PerAsset;
 import com.peregrine.admin.replication.ImageMetadataSelector;
 import com.peregrine.rendition.BaseResourceHandler;
+import com.peregrine.commons.util.PerJson;
 import com.peregrine.commons.util.PerUtil;
 import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.PersistenceException;
@@ -34,7 +34,6 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -714,12 +713,7 @@ public class AdminResourceHandlerService
     }
 
     public static Map convertToMap(String json) throws IOException {
-        Map answer = new LinkedHashMap();
-        if(json != null) {
-            ObjectMapper mapper = new ObjectMapper();
-            answer = mapper.readValue(json, LinkedHashMap.class);
-        }
-        return answer;
+        return PerJson.readMap(json);
     }
 
     private Node createPageOrTemplate(Resource parent, String name, String templateComponent, String templatePath) throws RepositoryException {
@@ -0,0 +1,88 @@
+package com.peregrine.admin.resource;
+
+import java.util.List;
+
+/**
+ * Journal of the recent Resource Changes below /content so that
+ * clients can find out what changed since their last request
+ * rather than reloading entire trees.
+ *
+ * Each change has a sequence number. A client passes the cursor
+ * of its last answer to obtain the changes that happened since.
+ * The journal only keeps a limited number of changes and is lost
+ * on a restart. In that case the answer is marked as reset and the
+ * client has to reload its data.
+ */
+public interface ChangeJournal {
+
+    /** @return Cursor of the next change to be recorded **/
+    long getCursor();
+
+    /**
+     * Obtains the changes since the given cursor
+     * @param cursor Cursor returned by an earlier call
+     * @param path Only changes on or below this path are returned. If null all changes are returned
+     * @param maxChanges Maximum number of changes returned
+     * @return The Changes since the given cursor
+     */
+    Changes getChanges(long cursor, String path, int maxChanges);
+
+    /**
+     * Waits until a change is recorded after the given cursor
+     * @param cursor Cursor returned by an earlier call
+     * @param timeout Maximum time to wait in milliseconds
+     * @return True if there are changes after the cursor
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    boolean awaitChanges(long cursor, long timeout) throws InterruptedException;
+
+    /** A recorded Resource Change **/
+    class Change {
+        private final long sequence;
+        private final String path;
+        private final String type;
+        private final long time;
+
+        public Change(long sequence, String path, String type, long time) {
+            this.sequence = sequence;
+            this.path = path;
+            this.type = type;
+            this.time = time;
+        }
+
+        public long getSequence() { return sequence; }
+
+        public String getPath() { return path; }
+
+        /** @return Change Type: ADDED, CHANGED or REMOVED **/
+        public String getType() { return type; }
+
+        public long getTime() { return time; }
+    }
+
+    /** Answer of a change request **/
+    class Changes {
+        private final List<Change> changes;
+        private final long cursor;
+        private final boolean reset;
+        private final boolean hasMore;
+
+        public Changes(List<Change> changes, long cursor, boolean reset, boolean hasMore) {
+            this.changes = changes;
+            this.cursor = cursor;
+            this.reset = reset;
+            this.hasMore = hasMore;
+        }
+
+        public List<Change> getChanges() { return changes; }
+
+        /** @return Cursor to be used for the next request **/
+        public long getCursor() { return cursor; }
+
+        /** @return True if changes were lost since the given cursor and the client must reload **/
+        public boolean isReset() { return reset; }
+
+        /** @return True if the maximum number of changes was reached before the end of the journal **/
+        public boolean hasMore() { return hasMore; }
+    }
+}
@@ -0,0 +1,196 @@
+package com.peregrine.admin.resource;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static org.apache.sling.api.resource.observation.ResourceChangeListener.CHANGES;
+import static org.apache.sling.api.resource.observation.ResourceChangeListener.PATHS;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Change Journal that keeps the changes below /content in a
+ * ring buffer. Changes are recorded without locking: a slot is
+ * claimed through an atomic sequence and then published. Readers
+ * detect slots that were overwritten by their sequence number.
+ */
+@Component(
+    configurationPolicy = ConfigurationPolicy.OPTIONAL,
+    service = { ChangeJournal.class, ResourceChangeListener.class },
+    immediate = true,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Change Journal",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        PATHS + EQUALS + ChangeJournalService.CONTENT_ROOT,
+        CHANGES + EQUALS + "ADDED",
+        CHANGES + EQUALS + "CHANGED",
+        CHANGES + EQUALS + "REMOVED"
+    }
+)
+@Designate(ocd = ChangeJournalService.Configuration.class)
+public class ChangeJournalService
+    implements ChangeJournal, ResourceChangeListener
+{
+    public static final String CONTENT_ROOT = "/content";
+
+    @ObjectClassDefinition(
+        name = "Peregrine: Change Journal",
+        description = "Keeps the recent resource changes so that clients can request the changes since their last request"
+    )
+    @interface Configuration {
+        @AttributeDefinition(
+            name = "Capacity",
+            description = "Number of changes kept in the journal (rounded up to a power of two)"
+        )
+        int capacity() default 4096;
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private volatile Ring ring = new Ring(4096);
+    /** Advances its phase whenever changes are recorded to wake up waiting clients **/
+    private final Phaser phaser = new Phaser(1);
+
+    @Activate
+    @SuppressWarnings("unused")
+    void activate(Configuration configuration) { setup(configuration); }
+    @Modified
+    @SuppressWarnings("unused")
+    void modified(Configuration configuration) { setup(configuration); }
+
+    private void setup(Configuration configuration) {
+        int capacity = configuration.capacity() > 0 ? configuration.capacity() : 4096;
+        if(Ring.toSize(capacity) != ring.slots.length()) {
+            logger.debug("Change Journal capacity: '{}'", capacity);
+            // Continue the sequence so that the cursors of the clients are detected as reset
+            ring = new Ring(capacity, ring.next.get());
+        }
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        for(ResourceChange change: changes) {
+            ChangeType type = change.getType();
+            if(type == ChangeType.ADDED || type == ChangeType.CHANGED || type == ChangeType.REMOVED) {
+                record(change.getPath(), type.name());
+            }
+        }
+        phaser.arrive();
+    }
+
+    void record(String path, String type) {
+        Ring target = ring;
+        long sequence = target.next.getAndIncrement();
+        target.slots.set(target.index(sequence), new Change(sequence, path, type, System.currentTimeMillis()));
+    }
+
+    @Override
+    public long getCursor() {
+        return ring.next.get();
+    }
+
+    @Override
+    public Changes getChanges(long cursor, String path, int maxChanges) {
+        Ring source = ring;
+        long end = source.next.get();
+        if(cursor > end || cursor < source.start || cursor < end - source.slots.length()) {
+            return new Changes(Collections.<Change>emptyList(), end, true, false);
+        }
+        List<Change> answer = new ArrayList<>();
+        boolean hasMore = false;
+        long position = cursor;
+        for(; position < end; position++) {
+            Change change = source.slots.get(source.index(position));
+            if(change == null || change.getSequence() < position) {
+                // Slot is claimed but the change is not published yet
+                break;
+            }
+            if(change.getSequence() > position) {
+                // Slot was overwritten while reading
+                return new Changes(Collections.<Change>emptyList(), source.next.get(), true, false);
+            }
+            if(matches(change, path)) {
+                if(answer.size() >= maxChanges) {
+                    hasMore = true;
+                    break;
+                }
+                answer.add(change);
+            }
+        }
+        return new Changes(answer, position, false, hasMore);
+    }
+
+    /** A change matches if it is on or below the path or if an ancestor of the path was removed **/
+    private boolean matches(Change change, String path) {
+        if(path == null || path.equals(change.getPath()) || path.equals("/")) {
+            return true;
+        }
+        return change.getPath().startsWith(path + "/") ||
+            (ChangeType.REMOVED.name().equals(change.getType()) && path.startsWith(change.getPath() + "/"));
+    }
+
+    @Override
+    public boolean awaitChanges(long cursor, long timeout) throws InterruptedException {
+        int phase = phaser.getPhase();
+        if(getCursor() > cursor) {
+            return true;
+        }
+        try {
+            phaser.awaitAdvanceInterruptibly(phase, timeout, TimeUnit.MILLISECONDS);
+        } catch(TimeoutException e) {
+            // No changes in the given time
+        }
+        return getCursor() > cursor;
+    }
+
+    private static class Ring {
+        private final AtomicReferenceArray<Change> slots;
+        private final int mask;
+        /** First sequence of this ring as earlier changes are lost when the ring is replaced **/
+        private final long start;
+        private final AtomicLong next;
+
+        /** The first sequence is based on the current time so that cursors from before a restart are detected **/
+        private Ring(int capacity) {
+            this(capacity, System.currentTimeMillis() * 1000);
+        }
+
+        private Ring(int capacity, long start) {
+            int size = toSize(capacity);
+            slots = new AtomicReferenceArray<>(size);
+            mask = size - 1;
+            this.start = start;
+            next = new AtomicLong(start);
+        }
+
+        private static int toSize(int capacity) {
+            return Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        }
+
+        private int index(long sequence) {
+            return (int) (sequence & mask);
+        }
+    }
+}
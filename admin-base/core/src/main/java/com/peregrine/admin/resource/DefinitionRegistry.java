@@ -0,0 +1,94 @@
+package com.peregrine.admin.resource;
+
+import java.util.List;
+
+/**
+ * In Memory Registry of the Component, Template and Object Definitions.
+ *
+ * These definitions only change with a deployment and so they are
+ * loaded once with a service user and kept until a definition changes.
+ * The definitions are not filtered by the access rights of the requesting
+ * user and so they must be checked against them.
+ */
+public interface DefinitionRegistry {
+
+    /** Queries to load the definitions. They must be served by the Peregrine Query Index and not traverse **/
+    String OBJECTS_QUERY = "select * from per:ObjectDefinition order by jcr:path";
+    String COMPONENTS_QUERY = "select * from per:Component order by jcr:path";
+    String TEMPLATES_QUERY = "select * from per:Page where jcr:path like '/content/templates/%' order by jcr:path";
+
+    /** @return Number that changes whenever the definitions change so that derived data can be dropped **/
+    long getGeneration();
+
+    /** @return All Components ordered by their path **/
+    List<Definition> getComponents();
+
+    /** @return All Templates ordered by their path **/
+    List<Definition> getTemplates();
+
+    /** @return All Object Definitions ordered by their path **/
+    List<Definition> getObjects();
+
+    /**
+     * Provides the dialog of a component. If the component has none the dialog
+     * of its closest super type is returned
+     * @param componentPath Absolute Path of the component
+     * @param explorer If true the explorer dialog of a page is returned instead of the component dialog
+     * @return The dialog or null if there is none
+     */
+    Dialog getDialog(String componentPath, boolean explorer);
+
+    class Definition {
+        private final String name;
+        private final String path;
+        private final String nodeType;
+        private final String group;
+        private final String title;
+        private final Boolean templateComponent;
+        private final String thumbnail;
+
+        public Definition(String name, String path, String nodeType, String group, String title, Boolean templateComponent, String thumbnail) {
+            this.name = name;
+            this.path = path;
+            this.nodeType = nodeType;
+            this.group = group;
+            this.title = title;
+            this.templateComponent = templateComponent;
+            this.thumbnail = thumbnail;
+        }
+
+        public String getName() { return name; }
+
+        public String getPath() { return path; }
+
+        public String getNodeType() { return nodeType; }
+
+        /** @return Group of a Component or null **/
+        public String getGroup() { return group; }
+
+        /** @return Title of a Component or null **/
+        public String getTitle() { return title; }
+
+        /** @return Template Component flag of a Component or null **/
+        public Boolean getTemplateComponent() { return templateComponent; }
+
+        /** @return Path of the Thumbnail of a Component or null **/
+        public String getThumbnail() { return thumbnail; }
+    }
+
+    class Dialog {
+        private final String path;
+        private final String model;
+
+        public Dialog(String path, String model) {
+            this.path = path;
+            this.model = model;
+        }
+
+        /** @return Path of the Dialog which can belong to a super type **/
+        public String getPath() { return path; }
+
+        /** @return JSON content of the Dialog **/
+        public String getModel() { return model; }
+    }
+}
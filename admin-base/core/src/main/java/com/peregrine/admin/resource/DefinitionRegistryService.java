@@ -0,0 +1,244 @@
+package com.peregrine.admin.resource;
+
+import com.peregrine.commons.servlets.ServletHelper;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.query.Query;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.peregrine.commons.util.PerConstants.JCR_PRIMARY_TYPE;
+import static com.peregrine.commons.util.PerConstants.JCR_TITLE;
+import static com.peregrine.commons.util.PerConstants.REGISTRY_SUB_SERVICE;
+import static com.peregrine.commons.util.PerConstants.SLING_RESOURCE_SUPER_TYPE;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static com.peregrine.commons.util.PerUtil.loginService;
+import static org.apache.sling.api.resource.observation.ResourceChangeListener.CHANGES;
+import static org.apache.sling.api.resource.observation.ResourceChangeListener.PATHS;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Definition Registry that loads the definitions on the first request
+ * and drops them when anything changes below /apps, /libs or the templates.
+ *
+ * The dialogs are resolved on the first request for a component and
+ * then kept with the definitions.
+ */
+@Component(
+    service = { DefinitionRegistry.class, ResourceChangeListener.class },
+    immediate = true,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Definition Registry",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        PATHS + EQUALS + "/apps",
+        PATHS + EQUALS + "/libs",
+        PATHS + EQUALS + DefinitionRegistryService.TEMPLATES_ROOT,
+        CHANGES + EQUALS + "ADDED",
+        CHANGES + EQUALS + "CHANGED",
+        CHANGES + EQUALS + "REMOVED"
+    }
+)
+public class DefinitionRegistryService
+    implements DefinitionRegistry, ResourceChangeListener
+{
+    public static final String TEMPLATES_ROOT = "/content/templates";
+    public static final String DIALOG = "dialog.json";
+    public static final String EXPLORER_DIALOG = "explorer_dialog.json";
+    public static final String THUMBNAIL = "thumbnail.png";
+
+    /** Marks a component without a dialog in the dialog cache **/
+    private static final Dialog NO_DIALOG = new Dialog(null, null);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Reference
+    @SuppressWarnings("unused")
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private volatile Definitions definitions;
+    /** Increased with every change so that definitions loaded during a change are not kept **/
+    private final AtomicLong generation = new AtomicLong();
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        generation.incrementAndGet();
+        definitions = null;
+        logger.debug("Definitions dropped after {} changes starting with: '{}'", changes.size(), changes.isEmpty() ? null : changes.get(0).getPath());
+    }
+
+    @Override
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    @Override
+    public List<Definition> getComponents() {
+        return getDefinitions().components;
+    }
+
+    @Override
+    public List<Definition> getTemplates() {
+        return getDefinitions().templates;
+    }
+
+    @Override
+    public List<Definition> getObjects() {
+        return getDefinitions().objects;
+    }
+
+    @Override
+    public Dialog getDialog(String componentPath, boolean explorer) {
+        Definitions current = getDefinitions();
+        String key = (explorer ? EXPLORER_DIALOG : DIALOG) + ":" + componentPath;
+        Dialog answer = current.dialogs.get(key);
+        if(answer == null) {
+            ResourceResolver resourceResolver = null;
+            try {
+                resourceResolver = loginService(resourceResolverFactory, REGISTRY_SUB_SERVICE);
+                answer = resolveDialog(resourceResolver, componentPath, explorer ? EXPLORER_DIALOG : DIALOG);
+            } catch(LoginException | IOException e) {
+                logger.warn("Could not resolve the dialog of component: '{}'", componentPath, e);
+                return null;
+            } finally {
+                if(resourceResolver != null) {
+                    resourceResolver.close();
+                }
+            }
+            current.dialogs.putIfAbsent(key, answer);
+        }
+        return answer == NO_DIALOG ? null : answer;
+    }
+
+    /** Follows the super types until a dialog is found. A cycle in the super types ends the search **/
+    private Dialog resolveDialog(ResourceResolver resourceResolver, String componentPath, String dialogName) throws IOException {
+        Set<String> visited = new HashSet<>();
+        String path = componentPath;
+        while(path != null && visited.add(path)) {
+            Resource component = resourceResolver.getResource(path);
+            if(component == null) {
+                break;
+            }
+            Resource dialog = component.getChild(dialogName);
+            if(dialog != null) {
+                InputStream content = dialog.adaptTo(InputStream.class);
+                if(content != null) {
+                    try {
+                        return new Dialog(dialog.getPath(), ServletHelper.asString(content).toString());
+                    } finally {
+                        content.close();
+                    }
+                }
+            }
+            path = component.getValueMap().get(SLING_RESOURCE_SUPER_TYPE, String.class);
+            if(path != null && !path.startsWith("/")) {
+                path = "/apps/" + path;
+            }
+        }
+        return NO_DIALOG;
+    }
+
+    private Definitions getDefinitions() {
+        Definitions answer = definitions;
+        if(answer == null) {
+            synchronized(this) {
+                answer = definitions;
+                if(answer == null) {
+                    long loaded = generation.get();
+                    answer = load();
+                    // Definitions that failed to load or that were changed while loading are used only once
+                    if(answer.complete && loaded == generation.get()) {
+                        definitions = answer;
+                    }
+                }
+            }
+        }
+        return answer;
+    }
+
+    private Definitions load() {
+        ResourceResolver resourceResolver = null;
+        try {
+            long start = System.currentTimeMillis();
+            resourceResolver = loginService(resourceResolverFactory, REGISTRY_SUB_SERVICE);
+            Definitions answer = new Definitions(
+                find(resourceResolver, COMPONENTS_QUERY),
+                find(resourceResolver, TEMPLATES_QUERY),
+                find(resourceResolver, OBJECTS_QUERY),
+                true
+            );
+            logger.debug("Loaded {} components, {} templates and {} objects in {}ms",
+                answer.components.size(), answer.templates.size(), answer.objects.size(), System.currentTimeMillis() - start
+            );
+            return answer;
+        } catch(LoginException | RuntimeException e) {
+            logger.warn("Could not load the definitions", e);
+            List<Definition> empty = Collections.emptyList();
+            return new Definitions(empty, empty, empty, false);
+        } finally {
+            if(resourceResolver != null) {
+                resourceResolver.close();
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private List<Definition> find(ResourceResolver resourceResolver, String query) {
+        List<Definition> answer = new ArrayList<>();
+        Iterator<Resource> resources = resourceResolver.findResources(query, Query.SQL);
+        while(resources.hasNext()) {
+            Resource resource = resources.next();
+            ValueMap properties = resource.getValueMap();
+            String nodeType = properties.get(JCR_PRIMARY_TYPE, String.class);
+            if("per:Component".equals(nodeType)) {
+                answer.add(new Definition(
+                    resource.getName(), resource.getPath(), nodeType,
+                    properties.get("group", String.class),
+                    properties.get(JCR_TITLE, String.class),
+                    properties.get("templateComponent", Boolean.class),
+                    resource.getChild(THUMBNAIL) != null ? resource.getPath() + "/" + THUMBNAIL : null
+                ));
+            } else {
+                answer.add(new Definition(resource.getName(), resource.getPath(), nodeType, null, null, null, null));
+            }
+        }
+        return Collections.unmodifiableList(answer);
+    }
+
+    private static class Definitions {
+        private final List<Definition> components;
+        private final List<Definition> templates;
+        private final List<Definition> objects;
+        /** Resolved Dialogs by dialog name and component path **/
+        private final ConcurrentMap<String, Dialog> dialogs = new ConcurrentHashMap<>();
+        private final boolean complete;
+
+        private Definitions(List<Definition> components, List<Definition> templates, List<Definition> objects, boolean complete) {
+            this.components = components;
+            this.templates = templates;
+            this.objects = objects;
+            this.complete = complete;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.peregrine.admin.search;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Full Text Search over the Pages, Assets and Objects below /content
+ * that is kept in memory and does not use the repository query engine.
+ *
+ * The index is built when the service starts and then updated with
+ * the resource changes. Hits are ranked by relevance (BM25) with the
+ * title weighted higher than the text.
+ *
+ * The index is built with a service user and so the hits must be
+ * checked against the access rights of the requesting user.
+ */
+public interface ContentSearch {
+
+    /** @return True once the index was built initially **/
+    boolean isReady();
+
+    /** @return Number of indexed documents **/
+    int getDocumentCount();
+
+    /**
+     * Searches the index
+     * @param query Words to search for. Documents must contain at least one of them
+     * @param path Only documents on or below this path are returned. If null all are returned
+     * @return Hits ordered by their relevance, best first
+     */
+    List<Hit> search(String query, String path);
+
+    /**
+     * Looks up the documents for a typeahead
+     * @param prefix Start of the title, of a word of the title or of the name of the documents
+     * @param path Only documents on or below this path are returned. If null all are returned
+     * @return Lazy Iterator over the matching documents ordered by the matching title or name
+     */
+    Iterator<Suggestion> suggest(String prefix, String path);
+
+    /**
+     * Finds the assets by their facets: mime type, camera, keywords and width / height buckets
+     * @param path Only assets on or below this path are returned. If null all are returned
+     * @param filters Facet Values by facet. An asset must have one of the values of each facet. If null all match
+     * @return Matching assets with their facets ordered by path
+     */
+    List<Asset> findAssets(String path, Map<String, ? extends Collection<String>> filters);
+
+    /** Asset with its Facets **/
+    interface Asset {
+        String getPath();
+
+        /** @return Facet Values by facet **/
+        Map<String, List<String>> getFacets();
+    }
+
+    /** Typeahead Suggestion **/
+    interface Suggestion {
+        String getPath();
+
+        /** @return Type of the document: page, asset or object **/
+        String getType();
+
+        String getTitle();
+    }
+
+    /** Search Hit **/
+    interface Hit
+        extends Suggestion
+    {
+        float getScore();
+
+        /** @return HTML Snippet of the text around the first match with the matches in 'em' tags **/
+        String getHighlight();
+    }
+}
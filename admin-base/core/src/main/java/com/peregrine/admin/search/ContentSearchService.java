@@ -0,0 +1,416 @@
+package com.peregrine.admin.search;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import static com.peregrine.commons.util.PerConstants.ASSET_PRIMARY_TYPE;
+import static com.peregrine.commons.util.PerConstants.JCR_CONTENT;
+import static com.peregrine.commons.util.PerConstants.JCR_MIME_TYPE;
+import static com.peregrine.commons.util.PerConstants.JCR_TITLE;
+import static com.peregrine.commons.util.PerConstants.OBJECT_PRIMARY_TYPE;
+import static com.peregrine.commons.util.PerConstants.PAGE_PRIMARY_TYPE;
+import static com.peregrine.commons.util.PerConstants.SEARCH_SUB_SERVICE;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.METADATA;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static com.peregrine.commons.util.PerUtil.isPrimaryType;
+import static com.peregrine.commons.util.PerUtil.loginService;
+import static org.apache.sling.api.resource.observation.ResourceChangeListener.PATHS;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Content Search that keeps an in memory Inverted Index of:
+ * - Pages: title and the text properties of their components
+ * - Assets: name and metadata tags and their facets
+ * - Objects: title and text properties
+ *
+ * The index is built in the background when the service starts
+ * and then the changed documents are re-indexed on a single
+ * background thread so that the changes are never blocked.
+ */
+@Component(
+    configurationPolicy = ConfigurationPolicy.OPTIONAL,
+    service = { ContentSearch.class, ResourceChangeListener.class },
+    immediate = true,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Content Search",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        PATHS + EQUALS + ContentSearchService.CONTENT_ROOT
+    }
+)
+@Designate(ocd = ContentSearchService.Configuration.class)
+public class ContentSearchService
+    implements ContentSearch, ResourceChangeListener
+{
+    public static final String CONTENT_ROOT = "/content";
+
+    public static final String TYPE_PAGE = "page";
+    public static final String TYPE_ASSET = "asset";
+    public static final String TYPE_OBJECT = "object";
+
+    private static final Pattern TAGS = Pattern.compile("<[^>]*>");
+    private static final int MAX_DEPTH = 20;
+
+    @ObjectClassDefinition(
+        name = "Peregrine: Content Search",
+        description = "In memory full text index of the pages, assets and objects"
+    )
+    @interface Configuration {
+        @AttributeDefinition(
+            name = "Enabled",
+            description = "If disabled nothing is indexed and searches find nothing"
+        )
+        boolean enabled() default true;
+        @AttributeDefinition(
+            name = "Maximum Text Length",
+            description = "Maximum number of characters of text indexed per document"
+        )
+        int maxTextLength() default 20000;
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Reference
+    @SuppressWarnings("unused")
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private final InvertedIndex index = new InvertedIndex();
+    private final PrefixIndex prefixes = new PrefixIndex();
+    private final FacetIndex facets = new FacetIndex();
+    /** Changed Paths and if they were added **/
+    private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean enabled = true;
+    private volatile boolean ready = false;
+    private volatile int maxTextLength = 20000;
+    private ExecutorService executor;
+
+    @Activate
+    @SuppressWarnings("unused")
+    void activate(Configuration configuration) {
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread answer = new Thread(runnable, "peregrine-content-search");
+                    answer.setDaemon(true);
+                    return answer;
+                }
+            }
+        );
+        setup(configuration);
+    }
+
+    @Modified
+    @SuppressWarnings("unused")
+    void modified(Configuration configuration) { setup(configuration); }
+
+    @Deactivate
+    @SuppressWarnings("unused")
+    void deactivate() {
+        executor.shutdownNow();
+        index.clear();
+        prefixes.clear();
+        facets.clear();
+    }
+
+    private void setup(Configuration configuration) {
+        enabled = configuration.enabled();
+        maxTextLength = configuration.maxTextLength() > 0 ? configuration.maxTextLength() : 20000;
+        logger.debug("Content Search enabled: '{}', maximum text length: '{}'", enabled, maxTextLength);
+        ready = false;
+        index.clear();
+        prefixes.clear();
+        facets.clear();
+        if(enabled) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    rebuild();
+                }
+            });
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public int getDocumentCount() {
+        return index.size();
+    }
+
+    @Override
+    public List<Hit> search(String query, String path) {
+        return enabled ? index.search(query, path) : Collections.<Hit>emptyList();
+    }
+
+    @Override
+    public List<Asset> findAssets(String path, Map<String, ? extends Collection<String>> filters) {
+        return enabled ? facets.find(path, filters) : Collections.<Asset>emptyList();
+    }
+
+    @Override
+    public Iterator<Suggestion> suggest(String prefix, String path) {
+        return enabled ? prefixes.lookup(prefix, path) : Collections.<Suggestion>emptyIterator();
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        if(!enabled) {
+            return;
+        }
+        for(ResourceChange change: changes) {
+            boolean added = change.getType() == ChangeType.ADDED;
+            // A path that is changed after it was added must still be handled as added
+            if(pending.putIfAbsent(change.getPath(), added) != null && added) {
+                pending.put(change.getPath(), true);
+            }
+        }
+        if(scheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    update();
+                }
+            });
+        }
+    }
+
+    private void rebuild() {
+        ResourceResolver resourceResolver = null;
+        try {
+            long start = System.currentTimeMillis();
+            resourceResolver = loginService(resourceResolverFactory, SEARCH_SUB_SERVICE);
+            Resource root = resourceResolver.getResource(CONTENT_ROOT);
+            if(root != null) {
+                indexTree(root, 0);
+            }
+            ready = true;
+            logger.info("Content Search indexed {} documents in {}ms", index.size(), System.currentTimeMillis() - start);
+        } catch(LoginException e) {
+            logger.warn("Content Search could not login to build the index", e);
+        } catch(RuntimeException e) {
+            logger.warn("Content Search failed to build the index", e);
+        } finally {
+            if(resourceResolver != null) {
+                resourceResolver.close();
+            }
+        }
+    }
+
+    private void indexTree(Resource resource, int depth) {
+        if(Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        indexDocument(resource);
+        if(depth < MAX_DEPTH) {
+            for(Resource child: resource.getChildren()) {
+                if(!JCR_CONTENT.equals(child.getName())) {
+                    indexTree(child, depth + 1);
+                }
+            }
+        }
+    }
+
+    private void update() {
+        scheduled.set(false);
+        List<String> paths = new ArrayList<>(pending.keySet());
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = loginService(resourceResolverFactory, SEARCH_SUB_SERVICE);
+            for(String path: paths) {
+                Boolean added = pending.remove(path);
+                update(resourceResolver, path, added != null && added);
+            }
+        } catch(LoginException e) {
+            logger.warn("Content Search could not login to update the index", e);
+        } catch(RuntimeException e) {
+            logger.warn("Content Search failed to update the index", e);
+        } finally {
+            if(resourceResolver != null) {
+                resourceResolver.close();
+            }
+        }
+    }
+
+    /**
+     * Re-indexes the document that contains the changed path or removes it if it is gone.
+     * Added resources can be the root of a moved or copied tree and so all the documents below
+     * them are indexed, too.
+     **/
+    private void update(ResourceResolver resourceResolver, String path, boolean added) {
+        Resource resource = resourceResolver.getResource(path);
+        if(resource != null && added && !path.contains("/" + JCR_CONTENT)) {
+            indexTree(resource, 0);
+        }
+        if(resource == null) {
+            index.remove(path);
+            prefixes.remove(path);
+            facets.remove(path);
+            // A resource inside a document was removed -> find the closest existing ancestor
+            String parentPath = path;
+            while(resource == null && parentPath.lastIndexOf('/') > 0) {
+                parentPath = parentPath.substring(0, parentPath.lastIndexOf('/'));
+                resource = resourceResolver.getResource(parentPath);
+            }
+        }
+        for(Resource current = resource; current != null; current = current.getParent()) {
+            if(indexDocument(current)) {
+                break;
+            }
+        }
+    }
+
+    /** @return True if the resource is a document and was indexed **/
+    private boolean indexDocument(Resource resource) {
+        String type = getType(resource);
+        if(type == null) {
+            return false;
+        }
+        String title = resource.getName();
+        StringBuilder text = new StringBuilder();
+        if(TYPE_PAGE.equals(type)) {
+            Resource content = resource.getChild(JCR_CONTENT);
+            if(content != null) {
+                title = content.getValueMap().get(JCR_TITLE, title);
+                collectText(content, text, 0);
+            }
+        } else if(TYPE_ASSET.equals(type)) {
+            Resource content = resource.getChild(JCR_CONTENT);
+            String mimeType = content == null ? null : content.getValueMap().get(JCR_MIME_TYPE, String.class);
+            Map<String, Map<String, Object>> tags = getTags(content);
+            facets.put(resource.getPath(), FacetIndex.extract(mimeType, tags));
+            for(Map.Entry<String, Map<String, Object>> category: tags.entrySet()) {
+                append(text, category.getKey());
+                for(Object tag: category.getValue().values()) {
+                    appendValue(text, tag);
+                }
+            }
+        } else {
+            title = resource.getValueMap().get(JCR_TITLE, title);
+            collectText(resource, text, 0);
+        }
+        index.put(resource.getPath(), type, title, text.toString());
+        prefixes.put(resource.getPath(), type, title, resource.getName());
+        return true;
+    }
+
+    /**
+     * Reads the asset tags from the metadata folder without going through PerAsset which
+     * would create a missing metadata folder in the indexer's resolver
+     * @return Tags (except 'jcr:' properties) by their category which is empty if there is no metadata
+     */
+    private Map<String, Map<String, Object>> getTags(Resource content) {
+        Map<String, Map<String, Object>> answer = new HashMap<>();
+        Resource metadata = content == null ? null : content.getChild(METADATA);
+        if(metadata != null) {
+            for(Resource category: metadata.getChildren()) {
+                Map<String, Object> tags = new HashMap<>();
+                for(Map.Entry<String, Object> entry: category.getValueMap().entrySet()) {
+                    if(!entry.getKey().startsWith("jcr:")) {
+                        tags.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                answer.put(category.getName(), tags);
+            }
+        }
+        return answer;
+    }
+
+    private String getType(Resource resource) {
+        if(isPrimaryType(resource, PAGE_PRIMARY_TYPE)) {
+            return TYPE_PAGE;
+        } else if(isPrimaryType(resource, ASSET_PRIMARY_TYPE)) {
+            return TYPE_ASSET;
+        } else if(isPrimaryType(resource, OBJECT_PRIMARY_TYPE)) {
+            return TYPE_OBJECT;
+        }
+        return null;
+    }
+
+    /** Collects the text properties of the resource and its children except Pages, Assets and Objects **/
+    private void collectText(Resource resource, StringBuilder text, int depth) {
+        ValueMap properties = resource.getValueMap();
+        for(Map.Entry<String, Object> entry: properties.entrySet()) {
+            // Namespaced properties (jcr:, sling:, per:) are not content
+            if(entry.getKey().indexOf(':') < 0) {
+                appendValue(text, entry.getValue());
+            }
+        }
+        if(depth < MAX_DEPTH) {
+            for(Resource child: resource.getChildren()) {
+                if(text.length() >= maxTextLength) {
+                    break;
+                }
+                if(getType(child) == null) {
+                    collectText(child, text, depth + 1);
+                }
+            }
+        }
+    }
+
+    private void appendValue(StringBuilder text, Object value) {
+        if(value instanceof String) {
+            append(text, (String) value);
+        } else if(value instanceof String[]) {
+            for(String item: (String[]) value) {
+                append(text, item);
+            }
+        }
+    }
+
+    /** Appends the text without markup. References (paths) are not content and are ignored **/
+    private void append(StringBuilder text, String value) {
+        if(value == null || value.isEmpty() || value.startsWith("/") || text.length() >= maxTextLength) {
+            return;
+        }
+        String plain = TAGS.matcher(value).replaceAll(" ")
+            .replace("&nbsp;", " ").replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&amp;", "&")
+            .trim();
+        if(!plain.isEmpty()) {
+            if(text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(plain, 0, Math.min(plain.length(), maxTextLength - text.length()));
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.peregrine.admin.search;
+
+import com.peregrine.admin.search.ContentSearch.Asset;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In Memory Index of the Facets of the Assets taken from their
+ * Mime Type and Metadata Tags.
+ *
+ * Each facet value keeps the set of assets with it so that a filter
+ * only looks at the assets that have the filtered values.
+ */
+class FacetIndex {
+
+    public static final String FACET_MIME_TYPE = "mimeType";
+    public static final String FACET_CAMERA = "camera";
+    public static final String FACET_KEYWORDS = "keywords";
+    public static final String FACET_WIDTH = "width";
+    public static final String FACET_HEIGHT = "height";
+
+    /** Upper bounds of the size buckets in pixels **/
+    private static final int[] SIZE_BUCKETS = { 640, 1280, 1920, 3840 };
+    private static final Pattern NUMBER = Pattern.compile("^\\s*(\\d+)");
+    /** Tags that are stored as a JSon Object of strings in the 'raw_tags' tag **/
+    private static final Pattern RAW_TAG = Pattern.compile("\"([^\"]*)\"\\s*:\\s*\"([^\"]*)\"");
+    private static final int MAX_VALUE_LENGTH = 100;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Entry> assets = new TreeMap<>();
+    /** Asset Paths by facet and value **/
+    private final Map<String, Map<String, Set<String>>> postings = new HashMap<>();
+
+    /** Adds or replaces the facets of an asset **/
+    void put(String path, Map<String, Set<String>> facets) {
+        Entry entry = new Entry(path, facets);
+        lock.writeLock().lock();
+        try {
+            removeAsset(path);
+            assets.put(path, entry);
+            for(Map.Entry<String, Set<String>> facet: facets.entrySet()) {
+                Map<String, Set<String>> values = postings.get(facet.getKey());
+                if(values == null) {
+                    values = new HashMap<>();
+                    postings.put(facet.getKey(), values);
+                }
+                for(String value: facet.getValue()) {
+                    Set<String> paths = values.get(value);
+                    if(paths == null) {
+                        paths = new HashSet<>();
+                        values.put(value, paths);
+                    }
+                    paths.add(path);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Removes the asset with the given path and all the assets below it **/
+    void remove(String path) {
+        lock.writeLock().lock();
+        try {
+            removeAsset(path);
+            List<String> children = new ArrayList<>(assets.subMap(path + "/", path + "/\uffff").keySet());
+            for(String child: children) {
+                removeAsset(child);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            assets.clear();
+            postings.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeAsset(String path) {
+        Entry entry = assets.remove(path);
+        if(entry != null) {
+            for(Map.Entry<String, List<String>> facet: entry.facets.entrySet()) {
+                Map<String, Set<String>> values = postings.get(facet.getKey());
+                if(values == null) {
+                    continue;
+                }
+                for(String value: facet.getValue()) {
+                    Set<String> paths = values.get(value);
+                    if(paths != null && paths.remove(path) && paths.isEmpty()) {
+                        values.remove(value);
+                    }
+                }
+                if(values.isEmpty()) {
+                    postings.remove(facet.getKey());
+                }
+            }
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return assets.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the assets that match all the filtered facets
+     * @param path Assets must be on or below this path. If null all assets are searched
+     * @param filters Values by facet. An asset must have one of the values of each facet
+     * @return Matching Assets ordered by path
+     */
+    List<Asset> find(String path, Map<String, ? extends Collection<String>> filters) {
+        lock.readLock().lock();
+        try {
+            Collection<Entry> candidates = path == null ?
+                assets.values() :
+                assets.subMap(path, path + "/\uffff").values();
+            // With filters only the assets of the most selective facet are checked
+            Set<String> selected = null;
+            if(filters != null) {
+                for(Map.Entry<String, ? extends Collection<String>> filter: filters.entrySet()) {
+                    Set<String> paths = collect(filter.getKey(), filter.getValue());
+                    if(selected == null || paths.size() < selected.size()) {
+                        selected = paths;
+                    }
+                }
+            }
+            if(selected != null) {
+                List<Entry> entries = new ArrayList<>(selected.size());
+                for(String candidate: new TreeSet<>(selected)) {
+                    entries.add(assets.get(candidate));
+                }
+                candidates = entries;
+            }
+            List<Asset> answer = new ArrayList<>();
+            for(Entry entry: candidates) {
+                if(entry.matches(path, filters)) {
+                    answer.add(entry);
+                }
+            }
+            return answer;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Set<String> collect(String facet, Collection<String> filterValues) {
+        Set<String> answer = new HashSet<>();
+        Map<String, Set<String>> values = postings.get(facet);
+        if(values != null && filterValues != null) {
+            for(String value: filterValues) {
+                Set<String> paths = values.get(value);
+                if(paths != null) {
+                    answer.addAll(paths);
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Obtains the facets of an asset
+     * @param mimeType Mime Type of the asset or null
+     * @param tags Metadata Tags of the asset by category and tag name
+     * @return Facet Values by facet. Facets without a value are omitted
+     */
+    static Map<String, Set<String>> extract(String mimeType, Map<String, Map<String, Object>> tags) {
+        Map<String, Set<String>> answer = new LinkedHashMap<>();
+        if(mimeType != null && !mimeType.isEmpty()) {
+            add(answer, FACET_MIME_TYPE, mimeType.toLowerCase());
+        }
+        if(tags != null) {
+            for(Map<String, Object> category: tags.values()) {
+                for(Map.Entry<String, Object> tag: category.entrySet()) {
+                    if("raw_tags".equals(tag.getKey()) && tag.getValue() instanceof String) {
+                        Matcher matcher = RAW_TAG.matcher((String) tag.getValue());
+                        while(matcher.find()) {
+                            extract(answer, matcher.group(1).toLowerCase().replace(' ', '_'), matcher.group(2));
+                        }
+                    } else if(tag.getValue() instanceof String) {
+                        extract(answer, tag.getKey(), (String) tag.getValue());
+                    }
+                }
+            }
+        }
+        return answer;
+    }
+
+    private static void extract(Map<String, Set<String>> facets, String tag, String value) {
+        if(value == null || value.trim().isEmpty()) {
+            return;
+        }
+        if(tag.equals("model")) {
+            add(facets, FACET_CAMERA, value.trim());
+        } else if(tag.equals("keywords")) {
+            for(String keyword: value.split("[;,]")) {
+                if(!keyword.trim().isEmpty()) {
+                    add(facets, FACET_KEYWORDS, keyword.trim().toLowerCase());
+                }
+            }
+        } else if(tag.endsWith("image_width")) {
+            addSize(facets, FACET_WIDTH, value);
+        } else if(tag.endsWith("image_height")) {
+            addSize(facets, FACET_HEIGHT, value);
+        }
+    }
+
+    private static void add(Map<String, Set<String>> facets, String facet, String value) {
+        Set<String> values = facets.get(facet);
+        if(values == null) {
+            values = new TreeSet<>();
+            facets.put(facet, values);
+        }
+        values.add(value.length() > MAX_VALUE_LENGTH ? value.substring(0, MAX_VALUE_LENGTH) : value);
+    }
+
+    /** Adds the size bucket of a tag value like '800 pixels'. An image has only one width and height **/
+    private static void addSize(Map<String, Set<String>> facets, String facet, String value) {
+        Matcher matcher = NUMBER.matcher(value);
+        if(matcher.find() && !facets.containsKey(facet)) {
+            long size = Long.parseLong(matcher.group(1));
+            add(facets, facet, toBucket(size));
+        }
+    }
+
+    /** @return Size Bucket like '640-1279' or '3840+' **/
+    static String toBucket(long size) {
+        int lower = 0;
+        for(int upper: SIZE_BUCKETS) {
+            if(size < upper) {
+                return lower + "-" + (upper - 1);
+            }
+            lower = upper;
+        }
+        return lower + "+";
+    }
+
+    private static class Entry
+        implements Asset
+    {
+        private final String path;
+        private final Map<String, List<String>> facets;
+
+        private Entry(String path, Map<String, Set<String>> facets) {
+            this.path = path;
+            Map<String, List<String>> copy = new LinkedHashMap<>();
+            for(Map.Entry<String, Set<String>> facet: facets.entrySet()) {
+                copy.put(facet.getKey(), Collections.unmodifiableList(new ArrayList<>(facet.getValue())));
+            }
+            this.facets = Collections.unmodifiableMap(copy);
+        }
+
+        private boolean matches(String path, Map<String, ? extends Collection<String>> filters) {
+            if(path != null && !this.path.equals(path) && !this.path.startsWith(path + "/")) {
+                return false;
+            }
+            if(filters != null) {
+                for(Map.Entry<String, ? extends Collection<String>> filter: filters.entrySet()) {
+                    List<String> values = facets.get(filter.getKey());
+                    if(values == null || Collections.disjoint(values, filter.getValue())) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String getPath() { return path; }
+
+        @Override
+        public Map<String, List<String>> getFacets() { return facets; }
+    }
+}
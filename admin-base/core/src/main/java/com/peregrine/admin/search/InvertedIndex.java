@@ -0,0 +1,338 @@
+package com.peregrine.admin.search;
+
+import com.peregrine.admin.search.ContentSearch.Hit;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In Memory Inverted Index of documents with a title and a text.
+ *
+ * Words are lower cased and stripped of their diacritics. The hits
+ * are scored with BM25 and the title counts three times as much as
+ * the text. Documents that contain more of the query words rank higher.
+ */
+class InvertedIndex {
+
+    private static final float TITLE_BOOST = 3;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int SNIPPET_BEFORE = 60;
+    private static final int SNIPPET_LENGTH = 200;
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Document> documents = new TreeMap<>();
+    /** Term Frequencies (title, text) of the documents by term and document path **/
+    private final Map<String, Map<String, int[]>> postings = new HashMap<>();
+    private long totalLength = 0;
+
+    /** Adds or replaces a document **/
+    void put(String path, String type, String title, String text) {
+        Document document = new Document(path, type, title == null ? "" : title, text == null ? "" : text);
+        lock.writeLock().lock();
+        try {
+            removeDocument(path);
+            documents.put(path, document);
+            totalLength += document.length;
+            for(Map.Entry<String, int[]> entry: document.frequencies.entrySet()) {
+                Map<String, int[]> posting = postings.get(entry.getKey());
+                if(posting == null) {
+                    posting = new HashMap<>();
+                    postings.put(entry.getKey(), posting);
+                }
+                posting.put(path, entry.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Removes the document with the given path and all the documents below it **/
+    void remove(String path) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(path);
+            List<String> children = new ArrayList<>(documents.subMap(path + "/", path + "/\uffff").keySet());
+            for(String child: children) {
+                removeDocument(child);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            documents.clear();
+            postings.clear();
+            totalLength = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeDocument(String path) {
+        Document document = documents.remove(path);
+        if(document != null) {
+            totalLength -= document.length;
+            for(String term: document.frequencies.keySet()) {
+                Map<String, int[]> posting = postings.get(term);
+                if(posting != null) {
+                    posting.remove(path);
+                    if(posting.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            }
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the index
+     * @param query Query Words
+     * @param path Path the documents must be on or below or null for all
+     * @return Hits ordered by score, best first
+     */
+    List<Hit> search(String query, String path) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if(terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, Scored> scores = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            int count = documents.size();
+            float averageLength = count == 0 ? 1 : Math.max(1, (float) totalLength / count);
+            for(String term: terms) {
+                Map<String, int[]> posting = postings.get(term);
+                if(posting == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (count - posting.size() + 0.5) / (posting.size() + 0.5));
+                for(Map.Entry<String, int[]> entry: posting.entrySet()) {
+                    String documentPath = entry.getKey();
+                    if(path != null && !documentPath.equals(path) && !documentPath.startsWith(path + "/")) {
+                        continue;
+                    }
+                    Document document = documents.get(documentPath);
+                    float frequency = entry.getValue()[0] * TITLE_BOOST + entry.getValue()[1];
+                    float norm = K1 * (1 - B + B * document.length / averageLength);
+                    Scored scored = scores.get(documentPath);
+                    if(scored == null) {
+                        scored = new Scored(document, terms);
+                        scores.put(documentPath, scored);
+                    }
+                    scored.score += idf * frequency * (K1 + 1) / (frequency + norm);
+                    scored.matches++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Hit> answer = new ArrayList<>(scores.size());
+        for(Scored scored: scores.values()) {
+            scored.score = scored.score * scored.matches / terms.size();
+            answer.add(scored);
+        }
+        Collections.sort(answer, new Comparator<Hit>() {
+            @Override
+            public int compare(Hit one, Hit two) {
+                int answer = Float.compare(two.getScore(), one.getScore());
+                return answer != 0 ? answer : one.getPath().compareTo(two.getPath());
+            }
+        });
+        return answer;
+    }
+
+    /** Splits the text into lower cased words without diacritics **/
+    static List<String> tokenize(String text) {
+        List<String> answer = new ArrayList<>();
+        if(text == null || text.isEmpty()) {
+            return answer;
+        }
+        String normalized = normalize(text);
+        int start = -1;
+        for(int i = 0; i <= normalized.length(); i++) {
+            boolean letter = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if(letter && start < 0) {
+                start = i;
+            } else if(!letter && start >= 0) {
+                if(i - start <= MAX_TERM_LENGTH) {
+                    answer.add(normalized.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+        return answer;
+    }
+
+    /** Lower cases and removes the diacritics. The length of the text is kept if there are none **/
+    static String normalize(String text) {
+        String answer = Normalizer.normalize(text, Normalizer.Form.NFD);
+        answer = DIACRITICS.matcher(answer).replaceAll("");
+        return answer.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Document {
+        private final String path;
+        private final String type;
+        private final String title;
+        private final String text;
+        private final int length;
+        private final Map<String, int[]> frequencies = new HashMap<>();
+
+        private Document(String path, String type, String title, String text) {
+            this.path = path;
+            this.type = type;
+            this.title = title;
+            this.text = text;
+            int length = 0;
+            for(String term: tokenize(title)) {
+                count(term, 0);
+                length++;
+            }
+            for(String term: tokenize(text)) {
+                count(term, 1);
+                length++;
+            }
+            this.length = length;
+        }
+
+        private void count(String term, int field) {
+            int[] frequency = frequencies.get(term);
+            if(frequency == null) {
+                frequency = new int[2];
+                frequencies.put(term, frequency);
+            }
+            frequency[field]++;
+        }
+    }
+
+    private static class Scored
+        implements Hit
+    {
+        private final Document document;
+        private final Set<String> terms;
+        private float score = 0;
+        private int matches = 0;
+
+        private Scored(Document document, Set<String> terms) {
+            this.document = document;
+            this.terms = terms;
+        }
+
+        @Override
+        public String getPath() { return document.path; }
+
+        @Override
+        public String getType() { return document.type; }
+
+        @Override
+        public String getTitle() { return document.title; }
+
+        @Override
+        public float getScore() { return score; }
+
+        @Override
+        public String getHighlight() {
+            String text = document.text;
+            // Normalizing changes the length with special characters and then the words are matched one by one
+            String normalized = normalize(text);
+            boolean sameLength = normalized.length() == text.length();
+            int first = sameLength ? findFirstMatch(normalized) : -1;
+            int start = first < 0 ? 0 : Math.max(0, first - SNIPPET_BEFORE);
+            if(start > 0) {
+                int space = text.indexOf(' ', start);
+                start = space < 0 || space >= first ? start : space + 1;
+            }
+            int end = Math.min(text.length(), start + SNIPPET_LENGTH);
+            StringBuilder answer = new StringBuilder();
+            if(start > 0) {
+                answer.append("... ");
+            }
+            int wordStart = -1;
+            for(int i = start; i <= end; i++) {
+                boolean letter = i < end && Character.isLetterOrDigit(text.charAt(i));
+                if(letter && wordStart < 0) {
+                    wordStart = i;
+                } else if(!letter) {
+                    if(wordStart >= 0) {
+                        String word = text.substring(wordStart, i);
+                        if(terms.contains(normalize(word))) {
+                            answer.append("<em>");
+                            escape(answer, word);
+                            answer.append("</em>");
+                        } else {
+                            escape(answer, word);
+                        }
+                        wordStart = -1;
+                    }
+                    if(i < end) {
+                        escape(answer, text.substring(i, i + 1));
+                    }
+                }
+            }
+            if(end < text.length()) {
+                answer.append(" ...");
+            }
+            return answer.toString();
+        }
+
+        private int findFirstMatch(String normalized) {
+            int answer = -1;
+            for(String term: terms) {
+                int index = normalized.indexOf(term);
+                while(index >= 0) {
+                    boolean startsWord = index == 0 || !Character.isLetterOrDigit(normalized.charAt(index - 1));
+                    int after = index + term.length();
+                    boolean endsWord = after >= normalized.length() || !Character.isLetterOrDigit(normalized.charAt(after));
+                    if(startsWord && endsWord) {
+                        break;
+                    }
+                    index = normalized.indexOf(term, index + 1);
+                }
+                if(index >= 0 && (answer < 0 || index < answer)) {
+                    answer = index;
+                }
+            }
+            return answer;
+        }
+
+        private static void escape(StringBuilder target, String text) {
+            for(int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch(c) {
+                    case '<': target.append("&lt;"); break;
+                    case '>': target.append("&gt;"); break;
+                    case '&': target.append("&amp;"); break;
+                    case '"': target.append("&quot;"); break;
+                    default: target.append(c);
+                }
+            }
+        }
+    }
+}
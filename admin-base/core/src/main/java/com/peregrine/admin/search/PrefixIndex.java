@@ -0,0 +1,158 @@
+package com.peregrine.admin.search;
+
+import com.peregrine.admin.search.ContentSearch.Suggestion;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted Index of the normalized titles, title words and names of
+ * the documents for a prefix lookup.
+ *
+ * The keys are kept in a concurrent skip list so that lookups are a
+ * range scan that never blocks, even while the index is updated.
+ */
+class PrefixIndex {
+
+    /** Separates the key from the path so that the same key can be used by multiple documents **/
+    private static final char SEPARATOR = '\u0000';
+
+    private final ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    /** Keys of each document by path so that it can be removed together with its children **/
+    private final ConcurrentNavigableMap<String, Set<String>> keys = new ConcurrentSkipListMap<>();
+
+    /** Adds or replaces a document **/
+    void put(String path, String type, String title, String name) {
+        Entry entry = new Entry(path, type, title == null || title.isEmpty() ? name : title);
+        Set<String> documentKeys = new LinkedHashSet<>();
+        addKeys(documentKeys, entry.title);
+        addKeys(documentKeys, name);
+        Set<String> previous = keys.put(path, documentKeys);
+        for(String key: documentKeys) {
+            entries.put(key + SEPARATOR + path, entry);
+        }
+        if(previous != null) {
+            for(String key: previous) {
+                if(!documentKeys.contains(key)) {
+                    entries.remove(key + SEPARATOR + path);
+                }
+            }
+        }
+    }
+
+    /** Adds the whole normalized text and each of its words **/
+    private void addKeys(Set<String> target, String text) {
+        if(text != null) {
+            String normalized = InvertedIndex.normalize(text).trim();
+            if(!normalized.isEmpty()) {
+                target.add(normalized);
+            }
+            target.addAll(InvertedIndex.tokenize(text));
+        }
+    }
+
+    /** Removes the document with the given path and all the documents below it **/
+    void remove(String path) {
+        removeDocument(path);
+        for(String child: keys.subMap(path + "/", path + "/\uffff").keySet()) {
+            removeDocument(child);
+        }
+    }
+
+    private void removeDocument(String path) {
+        Set<String> documentKeys = keys.remove(path);
+        if(documentKeys != null) {
+            for(String key: documentKeys) {
+                entries.remove(key + SEPARATOR + path);
+            }
+        }
+    }
+
+    void clear() {
+        keys.clear();
+        entries.clear();
+    }
+
+    /**
+     * Looks up the documents whose title, a word of their title or their name
+     * starts with the given prefix. The documents are ordered by their matching
+     * key and are only returned once.
+     * @param prefix Prefix to look for
+     * @param path Path the documents must be on or below or null for all
+     * @return Lazy Iterator over the found documents
+     */
+    Iterator<Suggestion> lookup(String prefix, final String path) {
+        String normalized = prefix == null ? "" : InvertedIndex.normalize(prefix).trim();
+        if(normalized.isEmpty()) {
+            return Collections.<Suggestion>emptyList().iterator();
+        }
+        final Iterator<Entry> matches = entries.subMap(normalized, normalized + Character.MAX_VALUE).values().iterator();
+        return new Iterator<Suggestion>() {
+            private final Set<String> returned = new HashSet<>();
+            private Entry next = advance();
+
+            private Entry advance() {
+                while(matches.hasNext()) {
+                    Entry entry = matches.next();
+                    if((path == null || entry.path.equals(path) || entry.path.startsWith(path + "/")) && returned.add(entry.path)) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Suggestion next() {
+                if(next == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry answer = next;
+                next = advance();
+                return answer;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    private static class Entry
+        implements Suggestion
+    {
+        private final String path;
+        private final String type;
+        private final String title;
+
+        private Entry(String path, String type, String title) {
+            this.path = path;
+            this.type = type;
+            this.title = title;
+        }
+
+        @Override
+        public String getPath() { return path; }
+
+        @Override
+        public String getType() { return type; }
+
+        @Override
+        public String getTitle() { return title; }
+    }
+}
@@ -4,8 +4,14 @@ public interface AdminPaths {
     public static final String JSON_EXTENSION = "json";
     public static final String API_PREFIX = "api/admin/";
     public static final String RESOURCE_TYPE_ACCESS = API_PREFIX + "access";
+    public static final String RESOURCE_TYPE_ASSET_SEARCH = API_PREFIX + "assetSearch";
+    public static final String RESOURCE_TYPE_ASYNC_STATUS = API_PREFIX + "asyncStatus";
+    public static final String RESOURCE_TYPE_AUTOCOMPLETE = API_PREFIX + "autocomplete";
+    public static final String RESOURCE_TYPE_BOOTSTRAP = API_PREFIX + "bootstrap";
     public static final String RESOURCE_TYPE_COMPONENT_DEFINITION = API_PREFIX + "componentDefinition";
+    public static final String RESOURCE_TYPE_CHANGES = API_PREFIX + "changes";
     public static final String RESOURCE_TYPE_CONTENT = API_PREFIX + "content";
+    public static final String RESOURCE_TYPE_CONTENT_SEARCH = API_PREFIX + "contentSearch";
     public static final String RESOURCE_TYPE_CREATION_FOLDER = API_PREFIX + "createFolder";
     public static final String RESOURCE_TYPE_CREATION_OBJECT = API_PREFIX + "createObject";
     public static final String RESOURCE_TYPE_CREATION_PAGE = API_PREFIX + "createPage";
@@ -15,6 +21,7 @@ public interface AdminPaths {
     public static final String RESOURCE_TYPE_GET_OBJECT = API_PREFIX + "getObject";
     public static final String RESOURCE_TYPE_INSERT_NODE = API_PREFIX + "insertNodeAt";
     public static final String RESOURCE_TYPE_LIST = API_PREFIX + "list";
+    public static final String RESOURCE_TYPE_METRICS = API_PREFIX + "metrics";
     public static final String RESOURCE_TYPE_MOVE_NODE = API_PREFIX + "moveNodeTo";
     public static final String RESOURCE_TYPE_MOVE = API_PREFIX + "move";
     public static final String RESOURCE_TYPE_RENAME = API_PREFIX + "rename";
@@ -24,6 +31,7 @@ public interface AdminPaths {
     public static final String RESOURCE_TYPE_REF_BY = API_PREFIX + "refBy";
     public static final String RESOURCE_TYPE_LIST_REPLICATION = API_PREFIX + "listRepl";
     public static final String RESOURCE_TYPE_DO_REPLICATION = API_PREFIX + "repl";
+    public static final String RESOURCE_TYPE_REPLICATION_STATUS = API_PREFIX + "replStatus";
     public static final String RESOURCE_TYPE_SEARCH = API_PREFIX + "search";
     public static final String RESOURCE_TYPE_UPDATE_RESOURCE = API_PREFIX + "updateResource";
     public static final String RESOURCE_TYPE_UPLOAD_FILES = API_PREFIX + "uploadFiles";
@@ -0,0 +1,199 @@
+package com.peregrine.admin.servlets;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.peregrine.admin.search.ContentSearch;
+import com.peregrine.admin.search.ContentSearch.Asset;
+import com.peregrine.commons.servlets.AbstractBaseServlet;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_ASSET_SEARCH;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.GET;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Faceted Asset Search over the mime type and metadata tags of the
+ * assets served from the in memory Content Search facet index.
+ *
+ * A request returns a page of the matching assets together with the
+ * facet value counts of all the matching assets the user can read.
+ *
+ * The API Definition can be found in the Swagger Editor configuration:
+ *    ui.apps/src/main/content/jcr_root/api/definintions/admin.yaml
+ */
+@Component(
+    service = Servlet.class,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Asset Search Servlet",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        SLING_SERVLET_METHODS + EQUALS + GET,
+        SLING_SERVLET_RESOURCE_TYPES + EQUALS + RESOURCE_TYPE_ASSET_SEARCH
+    }
+)
+@SuppressWarnings("serial")
+public class AssetSearchServlet extends AbstractBaseServlet {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 200;
+    /** Maximum number of values returned per facet **/
+    public static final int MAX_FACET_VALUES = 50;
+
+    @Reference
+    @SuppressWarnings("unused")
+    private ContentSearch contentSearch;
+
+    @Override
+    protected Response handleRequest(Request request) throws IOException {
+        String path = request.getParameter("path");
+        if(path != null && (path.isEmpty() || path.equals("/"))) {
+            path = null;
+        }
+        // Filters are given as 'facet=<name>:<value>' and values of the same facet are alternatives
+        Map<String, Set<String>> filters = new HashMap<>();
+        String[] facetParameters = request.getRequest().getParameterValues("facet");
+        if(facetParameters != null) {
+            for(String facetParameter: facetParameters) {
+                int index = facetParameter.indexOf(':');
+                if(index <= 0) {
+                    return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Facet must be '<name>:<value>': " + facetParameter);
+                }
+                String name = facetParameter.substring(0, index);
+                Set<String> values = filters.get(name);
+                if(values == null) {
+                    values = new LinkedHashSet<>();
+                    filters.put(name, values);
+                }
+                values.add(facetParameter.substring(index + 1));
+            }
+        }
+        int offset = Math.max(0, request.getIntParameter("offset", 0));
+        int limit = Math.max(1, Math.min(request.getIntParameter("limit", DEFAULT_LIMIT), MAX_LIMIT));
+        List<Asset> assets = contentSearch.findAssets(path, filters);
+        JsonResponse answer = new JsonResponse();
+        answer.writeAttribute("ready", contentSearch.isReady());
+        answer.writeAttribute("offset", offset);
+        answer.writeArray("data");
+        // One pass over the matches: check the access, write the page and count the facets
+        ResourceResolver resourceResolver = request.getResourceResolver();
+        Map<String, Map<String, Integer>> counts = new TreeMap<>();
+        int total = 0;
+        for(Asset asset: assets) {
+            if(resourceResolver.getResource(asset.getPath()) == null) {
+                continue;
+            }
+            if(total >= offset && total < offset + limit) {
+                answer.writeObject();
+                answer.writeAttribute("path", asset.getPath());
+                answer.writeAttribute("name", asset.getPath().substring(asset.getPath().lastIndexOf('/') + 1));
+                writeFacets(answer, asset.getFacets());
+                answer.writeClose();
+            }
+            total++;
+            count(counts, asset.getFacets());
+        }
+        answer.writeClose();
+        answer.writeAttribute("total", total);
+        answer.writeAttribute("more", total > offset + limit);
+        answer.writeArray("facets");
+        for(Map.Entry<String, Map<String, Integer>> facet: counts.entrySet()) {
+            answer.writeObject();
+            answer.writeAttribute("name", facet.getKey());
+            answer.writeArray("values");
+            for(Map.Entry<String, Integer> value: sortByCount(facet.getValue())) {
+                answer.writeObject();
+                answer.writeAttribute("value", value.getKey());
+                answer.writeAttribute("count", value.getValue());
+                answer.writeAttribute("selected", filters.containsKey(facet.getKey()) && filters.get(facet.getKey()).contains(value.getKey()));
+                answer.writeClose();
+            }
+            answer.writeClose();
+            answer.writeClose();
+        }
+        answer.writeClose();
+        return answer;
+    }
+
+    private void writeFacets(JsonResponse answer, Map<String, List<String>> facets) throws IOException {
+        answer.writeArray("facets");
+        for(Map.Entry<String, List<String>> facet: facets.entrySet()) {
+            for(String value: facet.getValue()) {
+                answer.writeObject();
+                answer.writeAttribute("name", facet.getKey());
+                answer.writeAttribute("value", value);
+                answer.writeClose();
+            }
+        }
+        answer.writeClose();
+    }
+
+    private void count(Map<String, Map<String, Integer>> counts, Map<String, List<String>> facets) {
+        for(Map.Entry<String, List<String>> facet: facets.entrySet()) {
+            Map<String, Integer> values = counts.get(facet.getKey());
+            if(values == null) {
+                values = new HashMap<>();
+                counts.put(facet.getKey(), values);
+            }
+            for(String value: facet.getValue()) {
+                Integer count = values.get(value);
+                values.put(value, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    /** @return The most frequent values first, limited to the maximum number of values per facet **/
+    private List<Map.Entry<String, Integer>> sortByCount(Map<String, Integer> values) {
+        List<Map.Entry<String, Integer>> answer = new ArrayList<>(values.entrySet());
+        Collections.sort(answer, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> one, Map.Entry<String, Integer> two) {
+                int answer = two.getValue().compareTo(one.getValue());
+                return answer != 0 ? answer : one.getKey().compareTo(two.getKey());
+            }
+        });
+        return answer.size() > MAX_FACET_VALUES ? answer.subList(0, MAX_FACET_VALUES) : answer;
+    }
+}
@@ -0,0 +1,57 @@
+package com.peregrine.admin.servlets;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.peregrine.commons.servlets.AsyncJobs;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Provides the Async Jobs of the Admin Servlets so that their
+ * thread pool is shut down when this bundle is stopped
+ */
+@Component(
+    service = AsyncJobs.class,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Admin Async Jobs",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR
+    }
+)
+public class AsyncJobsService
+    extends AsyncJobs
+{
+    @Deactivate
+    @SuppressWarnings("unused")
+    void deactivate() {
+        shutdown();
+    }
+}
@@ -0,0 +1,98 @@
+package com.peregrine.admin.servlets;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.peregrine.commons.servlets.AbstractBaseServlet;
+import com.peregrine.commons.servlets.AsyncJobs;
+import com.peregrine.commons.servlets.AsyncJobs.Job;
+import com.peregrine.commons.servlets.AsyncJobs.State;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+
+import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_ASYNC_STATUS;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.GET;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Provides the Status and, when done, the Result of an
+ * asynchronously executed operation of the current user
+ *
+ * The API Definition can be found in the Swagger Editor configuration:
+ *    ui.apps/src/main/content/jcr_root/api/definintions/admin.yaml
+ */
+@Component(
+    service = Servlet.class,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Async Status Servlet",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        SLING_SERVLET_METHODS + EQUALS + GET,
+        SLING_SERVLET_RESOURCE_TYPES + EQUALS + RESOURCE_TYPE_ASYNC_STATUS
+    }
+)
+@SuppressWarnings("serial")
+public class AsyncStatusServlet extends AbstractBaseServlet {
+
+    @Reference
+    AsyncJobs asyncJobs;
+
+    @Override
+    protected Response handleRequest(Request request) throws IOException {
+        String id = request.getParameter("id");
+        Job job = asyncJobs.getJob(id);
+        // Jobs of other users are not disclosed
+        if(job == null || job.getUserId() == null || !job.getUserId().equals(request.getResourceResolver().getUserID())) {
+            return new ErrorResponse().setHttpErrorCode(SC_NOT_FOUND).setErrorMessage("Async Job not found").setCustom("jobId", id);
+        }
+        JsonResponse answer = new JsonResponse();
+        answer.writeAttribute("jobId", job.getId());
+        answer.writeAttribute("name", job.getName());
+        answer.writeAttribute("status", job.getState().name());
+        answer.writeAttribute("created", job.getCreated());
+        if(job.getStarted() > 0) {
+            answer.writeAttribute("started", job.getStarted());
+        }
+        if(job.getFinished() > 0) {
+            answer.writeAttribute("finished", job.getFinished());
+        }
+        if(job.getState() == State.finished || job.getState() == State.failed) {
+            answer.writeAttribute("httpStatus", job.getHttpStatus());
+            if(job.getResult() != null) {
+                answer.writeAttributeRaw("result", job.getResult());
+            }
+        }
+        return answer;
+    }
+}
@@ -0,0 +1,111 @@
+package com.peregrine.admin.servlets;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.peregrine.admin.search.ContentSearch;
+import com.peregrine.admin.search.ContentSearch.Suggestion;
+import com.peregrine.commons.servlets.AbstractBaseServlet;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.util.Iterator;
+
+import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_AUTOCOMPLETE;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.GET;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Typeahead for Path Fields and Search Boxes over the titles and
+ * names of Pages, Assets and Objects served from the in memory
+ * Content Search prefix index.
+ *
+ * Only the suggestions the user can read are returned. The number of
+ * checked suggestions is limited so that users with access to only a
+ * few documents still get a fast answer.
+ *
+ * The API Definition can be found in the Swagger Editor configuration:
+ *    ui.apps/src/main/content/jcr_root/api/definintions/admin.yaml
+ */
+@Component(
+    service = Servlet.class,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Autocomplete Servlet",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        SLING_SERVLET_METHODS + EQUALS + GET,
+        SLING_SERVLET_RESOURCE_TYPES + EQUALS + RESOURCE_TYPE_AUTOCOMPLETE
+    }
+)
+@SuppressWarnings("serial")
+public class AutocompleteServlet extends AbstractBaseServlet {
+
+    public static final int DEFAULT_LIMIT = 10;
+    public static final int MAX_LIMIT = 50;
+    /** Maximum number of suggestions checked for access per returned suggestion **/
+    public static final int MAX_CHECKS_PER_SUGGESTION = 20;
+
+    @Reference
+    @SuppressWarnings("unused")
+    private ContentSearch contentSearch;
+
+    @Override
+    protected Response handleRequest(Request request) throws IOException {
+        String prefix = request.getParameter("q", "");
+        String path = request.getParameter("path");
+        if(path != null && (path.isEmpty() || path.equals("/"))) {
+            path = null;
+        }
+        int limit = Math.max(1, Math.min(request.getIntParameter("limit", DEFAULT_LIMIT), MAX_LIMIT));
+        JsonResponse answer = new JsonResponse();
+        answer.writeAttribute("ready", contentSearch.isReady());
+        answer.writeArray("data");
+        ResourceResolver resourceResolver = request.getResourceResolver();
+        Iterator<Suggestion> suggestions = contentSearch.suggest(prefix, path);
+        int found = 0;
+        int checks = limit * MAX_CHECKS_PER_SUGGESTION;
+        while(found < limit && checks-- > 0 && suggestions.hasNext()) {
+            Suggestion suggestion = suggestions.next();
+            if(resourceResolver.getResource(suggestion.getPath()) != null) {
+                answer.writeObject();
+                answer.writeAttribute("path", suggestion.getPath());
+                answer.writeAttribute("type", suggestion.getType());
+                answer.writeAttribute("title", suggestion.getTitle());
+                answer.writeClose();
+                found++;
+            }
+        }
+        answer.writeClose();
+        return answer;
+    }
+}
@@ -0,0 +1,214 @@
+package com.peregrine.admin.servlets;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.peregrine.admin.replication.Replication;
+import com.peregrine.admin.resource.DefinitionRegistry;
+import com.peregrine.admin.servlets.ListServlet.PlainJsonResponse;
+import com.peregrine.commons.servlets.AbstractBaseServlet;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.models.factory.ExportException;
+import org.apache.sling.models.factory.MissingExporterException;
+import org.apache.sling.models.factory.ModelFactory;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_BOOTSTRAP;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.GET;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static org.apache.sling.api.resource.observation.ResourceChangeListener.CHANGES;
+import static org.apache.sling.api.resource.observation.ResourceChangeListener.PATHS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Provides all the data the Admin Shell needs on startup in one document:
+ * the tools, the tools config, the components, templates and objects and
+ * the replication services.
+ *
+ * The document is built once per user as the listings depend on the access
+ * rights and then served from memory with an ETag. It is dropped when the
+ * admin content, the definitions or the replication services change.
+ *
+ * The API Definition can be found in the Swagger Editor configuration:
+ *    ui.apps/src/main/content/jcr_root/api/definintions/admin.yaml
+ */
+@Component(
+    service = { Servlet.class, ResourceChangeListener.class },
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Bootstrap Servlet",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        SLING_SERVLET_METHODS + EQUALS + GET,
+        SLING_SERVLET_RESOURCE_TYPES + EQUALS + RESOURCE_TYPE_BOOTSTRAP,
+        PATHS + EQUALS + BootstrapServlet.ADMIN_CONTENT_ROOT,
+        CHANGES + EQUALS + "ADDED",
+        CHANGES + EQUALS + "CHANGED",
+        CHANGES + EQUALS + "REMOVED"
+    }
+)
+@SuppressWarnings("serial")
+public class BootstrapServlet
+    extends AbstractBaseServlet
+    implements ResourceChangeListener
+{
+    public static final String ADMIN_CONTENT_ROOT = "/content/admin";
+    public static final String TOOLS_PATH = ADMIN_CONTENT_ROOT + "/tools";
+    public static final String TOOLS_CONFIG_PATH = ADMIN_CONTENT_ROOT + "/toolsConfig";
+    /** Maximum number of users whose documents are kept **/
+    public static final int MAX_DOCUMENTS = 100;
+
+    @Reference
+    @SuppressWarnings("unused")
+    private ModelFactory modelFactory;
+
+    @Reference
+    @SuppressWarnings("unused")
+    private DefinitionRegistry definitionRegistry;
+
+    private final Map<String, Replication> replications = new ConcurrentSkipListMap<>();
+    /** Increased whenever the admin content or the replication services change **/
+    private final AtomicLong version = new AtomicLong();
+    /** Documents by User ID **/
+    private final ConcurrentMap<String, Document> documents = new ConcurrentHashMap<>();
+
+    @Reference(
+        cardinality = ReferenceCardinality.MULTIPLE,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    @SuppressWarnings("unused")
+    public void bindReplication(Replication replication) {
+        String replicationName = replication.getName();
+        if(replicationName != null && !replicationName.isEmpty()) {
+            replications.put(replicationName, replication);
+            dropDocuments();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public void unbindReplication(Replication replication) {
+        String replicationName = replication.getName();
+        if(replicationName != null && replications.remove(replicationName) != null) {
+            dropDocuments();
+        }
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        dropDocuments();
+    }
+
+    private void dropDocuments() {
+        version.incrementAndGet();
+        documents.clear();
+    }
+
+    @Override
+    protected Response handleRequest(Request request) throws IOException {
+        ResourceResolver resourceResolver = request.getResourceResolver();
+        String userId = resourceResolver.getUserID() == null ? "" : resourceResolver.getUserID();
+        // Versions are taken before building so that a change while building is not missed
+        long currentVersion = version.get();
+        long generation = definitionRegistry.getGeneration();
+        Document document = documents.get(userId);
+        if(document == null || document.version != currentVersion || document.generation != generation) {
+            try {
+                document = new Document(build(resourceResolver), currentVersion, generation);
+            } catch(ExportException | MissingExporterException e) {
+                return new ErrorResponse().setHttpErrorCode(SC_INTERNAL_SERVER_ERROR).setErrorMessage("Error while exporting the tools").setException(e);
+            }
+            if(documents.size() >= MAX_DOCUMENTS) {
+                documents.clear();
+            }
+            documents.put(userId, document);
+        }
+        Response answer = new PlainJsonResponse(document.json);
+        answer.addValidator(userId + ":" + document.hash, -1);
+        return answer;
+    }
+
+    private String build(ResourceResolver resourceResolver) throws IOException, ExportException, MissingExporterException {
+        JsonResponse answer = new JsonResponse();
+        answer.writeAttributeRaw("tools", export(resourceResolver, TOOLS_PATH));
+        answer.writeAttributeRaw("toolsConfig", export(resourceResolver, TOOLS_CONFIG_PATH));
+        answer.writeAttributeRaw("components", RestrictedSearchServlet.writeDefinitions(resourceResolver, definitionRegistry.getComponents(), 0).getContent());
+        answer.writeAttributeRaw("templates", RestrictedSearchServlet.writeDefinitions(resourceResolver, definitionRegistry.getTemplates(), 0).getContent());
+        answer.writeAttributeRaw("objects", RestrictedSearchServlet.writeDefinitions(resourceResolver, definitionRegistry.getObjects(), 0).getContent());
+        answer.writeArray("replicationServices");
+        for(Replication replication: replications.values()) {
+            answer.writeObject();
+            answer.writeAttribute("name", replication.getName());
+            answer.writeAttribute("description", replication.getDescription());
+            answer.writeClose();
+        }
+        answer.writeClose();
+        return answer.getContent();
+    }
+
+    private String export(ResourceResolver resourceResolver, String path) throws ExportException, MissingExporterException {
+        Resource resource = resourceResolver.getResource(path);
+        if(resource == null) {
+            return "{}";
+        }
+        String answer = modelFactory.exportModelForResource(resource, "jackson", String.class, Collections.<String, String>emptyMap());
+        return answer == null || answer.isEmpty() ? "{}" : answer;
+    }
+
+    private static class Document {
+        private final String json;
+        private final String hash;
+        private final long version;
+        private final long generation;
+
+        private Document(String json, long version, long generation) {
+            this.json = json;
+            this.hash = Integer.toHexString(json.hashCode()) + "-" + json.length();
+            this.version = version;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.peregrine.admin.servlets;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.peregrine.admin.resource.ChangeJournal;
+import com.peregrine.admin.resource.ChangeJournal.Change;
+import com.peregrine.admin.resource.ChangeJournal.Changes;
+import com.peregrine.commons.servlets.AbstractBaseServlet;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+
+import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_CHANGES;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.GET;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Provides the Resource Changes since the given cursor so that
+ * the clients only reload the resources that changed.
+ *
+ * If there are no changes yet the request waits up to the given
+ * number of seconds for changes (long polling).
+ *
+ * The API Definition can be found in the Swagger Editor configuration:
+ *    ui.apps/src/main/content/jcr_root/api/definintions/admin.yaml
+ */
+@Component(
+    service = Servlet.class,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Changes Servlet",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        SLING_SERVLET_METHODS + EQUALS + GET,
+        SLING_SERVLET_RESOURCE_TYPES + EQUALS + RESOURCE_TYPE_CHANGES
+    }
+)
+@SuppressWarnings("serial")
+public class ChangesServlet extends AbstractBaseServlet {
+
+    public static final int MAX_WAIT = 30;
+    public static final int DEFAULT_LIMIT = 500;
+    public static final int MAX_LIMIT = 1000;
+
+    @Reference
+    @SuppressWarnings("unused")
+    private ChangeJournal changeJournal;
+
+    @Override
+    protected Response handleRequest(Request request) throws IOException {
+        String path = request.getParameter("path");
+        if(path != null && path.isEmpty()) {
+            path = null;
+        }
+        String since = request.getParameter("since");
+        if(since == null || since.isEmpty()) {
+            // First request: only provide the cursor to start with
+            JsonResponse answer = new JsonResponse();
+            answer.writeAttribute("cursor", changeJournal.getCursor());
+            answer.writeArray("changes");
+            answer.writeClose();
+            return answer;
+        }
+        long cursor;
+        try {
+            cursor = Long.parseLong(since);
+        } catch(NumberFormatException e) {
+            return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Since is not a valid cursor").setCustom("since", since);
+        }
+        int limit = Math.max(1, Math.min(request.getIntParameter("limit", DEFAULT_LIMIT), MAX_LIMIT));
+        long deadline = System.currentTimeMillis() + Math.max(0, Math.min(request.getIntParameter("wait", 0), MAX_WAIT)) * 1000L;
+        Changes changes = changeJournal.getChanges(cursor, path, limit);
+        try {
+            while(!changes.isReset() && changes.getChanges().isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0 || !changeJournal.awaitChanges(changes.getCursor(), remaining)) {
+                    break;
+                }
+                // Changes outside the path are skipped by continuing with the returned cursor
+                changes = changeJournal.getChanges(changes.getCursor(), path, limit);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        JsonResponse answer = new JsonResponse();
+        answer.writeAttribute("cursor", changes.getCursor());
+        answer.writeAttribute("reset", changes.isReset());
+        answer.writeAttribute("hasMore", changes.hasMore());
+        answer.writeArray("changes");
+        ResourceResolver resourceResolver = request.getResourceResolver();
+        for(Change change: changes.getChanges()) {
+            if(isVisible(resourceResolver, change)) {
+                answer.writeObject();
+                answer.writeAttribute("path", change.getPath());
+                answer.writeAttribute("type", change.getType());
+                answer.writeAttribute("time", change.getTime());
+                answer.writeClose();
+            }
+        }
+        answer.writeClose();
+        return answer;
+    }
+
+    /** Changes are only disclosed if the user can read the resource or, if removed, its parent **/
+    private boolean isVisible(ResourceResolver resourceResolver, Change change) {
+        String path = change.getPath();
+        if("REMOVED".equals(change.getType())) {
+            int index = path.lastIndexOf('/');
+            path = index > 0 ? path.substring(0, index) : "/";
+        }
+        return resourceResolver.getResource(path) != null;
+    }
+}
@@ -25,24 +25,25 @@ package com.peregrine.admin.servlets;
  * #L%
  */
 
+import com.peregrine.admin.resource.DefinitionRegistry;
+import com.peregrine.admin.resource.DefinitionRegistry.Dialog;
 import com.peregrine.commons.servlets.AbstractBaseServlet;
 import com.peregrine.commons.servlets.ServletHelper;
 import com.peregrine.commons.util.PerConstants;
 import org.apache.sling.api.resource.Resource;
-import org.apache.sling.api.resource.ResourceResolver;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 
 import javax.servlet.Servlet;
 import java.io.IOException;
-import java.io.InputStream;
 
 import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_COMPONENT_DEFINITION;
-import static com.peregrine.commons.util.PerConstants.SLING_RESOURCE_SUPER_TYPE;
 import static com.peregrine.commons.util.PerConstants.SLING_RESOURCE_TYPE;
 import static com.peregrine.commons.util.PerUtil.EQUALS;
 import static com.peregrine.commons.util.PerUtil.GET;
 import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
 import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
 import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
 import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
@@ -66,6 +67,10 @@ import static org.osgi.framework.Constants.SERVICE_VENDOR;
 @SuppressWarnings("serial")
 public class ComponentDefinitionServlet extends AbstractBaseServlet {
 
+    @Reference
+    @SuppressWarnings("unused")
+    private DefinitionRegistry definitionRegistry;
+
     @Override
     protected Response handleRequest(Request request) throws IOException {
         String path = request.getParameter("path");
@@ -84,37 +89,23 @@ public class ComponentDefinitionServlet extends AbstractBaseServlet {
 
         Resource component = request.getResourceByPath(componentPath);
         logger.debug("Component Path: '{}', Component: '{}'", componentPath, component);
-        Resource dialog = component.getChild(page ? "explorer_dialog.json" : "dialog.json");
-        if(dialog == null) {
-            dialog = getDialogFromSuperType(component, page);
+        if(component == null) {
+            return new ErrorResponse().setHttpErrorCode(SC_NOT_FOUND).setErrorMessage("Component not found: " + componentPath);
         }
+        // The dialog is resolved through the super types once and then served from the registry
+        Dialog dialog = definitionRegistry.getDialog(component.getPath(), page);
+        Resource dialogResource = dialog == null ? null : request.getResourceByPath(dialog.getPath());
         JsonResponse answer = new JsonResponse();
+        // The Definition only changes if the component or the selected dialog changes
+        answer.addValidator(component);
+        if(dialogResource != null) {
+            answer.addValidator(dialogResource);
+        }
         answer.writeAttribute("path", componentPath);
         answer.writeAttribute("name", ServletHelper.componentPathToName(componentPath));
-        if(dialog != null) {
-            answer.writeAttributeRaw("model", ServletHelper.asString(dialog.adaptTo(InputStream.class)).toString());
+        if(dialogResource != null) {
+            answer.writeAttributeRaw("model", dialog.getModel());
         }
         return answer;
     }
-
-    private Resource getDialogFromSuperType(Resource resource, boolean page) {
-        String componentPath = resource.getValueMap().get(SLING_RESOURCE_SUPER_TYPE, String.class);
-        if(componentPath != null) {
-            if (!componentPath.startsWith("/apps")) {
-                componentPath = "/apps/" + componentPath;
-            }
-            ResourceResolver resourceResolver = resource.getResourceResolver();
-            Resource component = resourceResolver.getResource(componentPath);
-            Resource dialog = component.getChild(page ? "explorer_dialog.json" : "dialog.json");
-            if (dialog == null) {
-                return getDialogFromSuperType(component, page);
-            } else {
-                return dialog;
-            }
-        } else {
-            return null;
-        }
-    }
-
 }
-
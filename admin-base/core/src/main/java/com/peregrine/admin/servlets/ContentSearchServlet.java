@@ -0,0 +1,122 @@
+package com.peregrine.admin.servlets;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.peregrine.admin.search.ContentSearch;
+import com.peregrine.admin.search.ContentSearch.Hit;
+import com.peregrine.commons.servlets.AbstractBaseServlet;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.util.List;
+
+import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_CONTENT_SEARCH;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.GET;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Ranked Full Text Search over Pages, Assets and Objects
+ * served from the in memory Content Search index.
+ *
+ * Only the hits the user can read are returned.
+ *
+ * The API Definition can be found in the Swagger Editor configuration:
+ *    ui.apps/src/main/content/jcr_root/api/definintions/admin.yaml
+ */
+@Component(
+    service = Servlet.class,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Content Search Servlet",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        SLING_SERVLET_METHODS + EQUALS + GET,
+        SLING_SERVLET_RESOURCE_TYPES + EQUALS + RESOURCE_TYPE_CONTENT_SEARCH
+    }
+)
+@SuppressWarnings("serial")
+public class ContentSearchServlet extends AbstractBaseServlet {
+
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = 100;
+
+    @Reference
+    @SuppressWarnings("unused")
+    private ContentSearch contentSearch;
+
+    @Override
+    protected Response handleRequest(Request request) throws IOException {
+        String query = request.getParameter("q", "");
+        if(query.trim().isEmpty()) {
+            return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("No Query Provided");
+        }
+        String path = request.getParameter("path");
+        if(path != null && (path.isEmpty() || path.equals("/"))) {
+            path = null;
+        }
+        int offset = Math.max(0, request.getIntParameter("offset", 0));
+        int limit = Math.max(1, Math.min(request.getIntParameter("limit", DEFAULT_LIMIT), MAX_LIMIT));
+        List<Hit> hits = contentSearch.search(query, path);
+        JsonResponse answer = new JsonResponse();
+        answer.writeAttribute("ready", contentSearch.isReady());
+        answer.writeAttribute("offset", offset);
+        answer.writeArray("data");
+        // Access is checked on the hits in order until the page is filled and one more is found
+        ResourceResolver resourceResolver = request.getResourceResolver();
+        int visible = 0;
+        boolean more = false;
+        for(Hit hit: hits) {
+            if(resourceResolver.getResource(hit.getPath()) == null) {
+                continue;
+            }
+            if(visible >= offset + limit) {
+                more = true;
+                break;
+            }
+            if(visible >= offset) {
+                answer.writeObject();
+                answer.writeAttribute("path", hit.getPath());
+                answer.writeAttribute("type", hit.getType());
+                answer.writeAttribute("title", hit.getTitle());
+                answer.writeAttributeRaw("score", String.valueOf(hit.getScore()));
+                answer.writeAttribute("highlight", hit.getHighlight());
+                answer.writeClose();
+            }
+            visible++;
+        }
+        answer.writeClose();
+        answer.writeAttribute("more", more);
+        return answer;
+    }
+}
@@ -29,6 +29,8 @@ import com.peregrine.admin.resource.AdminResourceHandler;
 import com.peregrine.admin.resource.AdminResourceHandler.DeletionResponse;
 import com.peregrine.admin.resource.AdminResourceHandler.ManagementException;
 import com.peregrine.commons.servlets.AbstractBaseServlet;
+import com.peregrine.commons.servlets.AsyncJobs;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.models.factory.ModelFactory;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
@@ -71,14 +73,32 @@ public class DeleteNodeServlet extends AbstractBaseServlet {
     @Reference
     AdminResourceHandler resourceManagement;
 
+    @Reference
+    AsyncJobs asyncJobs;
+
+    @Override
+    protected AsyncJobs getAsyncJobs() {
+        return asyncJobs;
+    }
+
     @Override
     protected Response handleRequest(Request request) throws IOException {
-        String path = request.getParameter("path");
-        String type = request.getParameter("type");
+        final String path = request.getParameter("path");
+        final String type = request.getParameter("type");
         logger.debug("Got Delete Node Type: '{}'", type);
+        // A deep delete can take a while and so it can be executed asynchronously
+        return handleAsync(request, "deleteNode", new AsyncHandler() {
+            @Override
+            public Response handle(ResourceResolver resourceResolver) throws IOException {
+                return deleteNode(resourceResolver, path, type);
+            }
+        });
+    }
+
+    private Response deleteNode(ResourceResolver resourceResolver, String path, String type) throws IOException {
         try {
-            DeletionResponse response = resourceManagement.deleteResource(request.getResourceResolver(), path, type);
-            request.getResourceResolver().commit();
+            DeletionResponse response = resourceManagement.deleteResource(resourceResolver, path, type);
+            resourceResolver.commit();
             return new JsonResponse()
                 .writeAttribute("type", "node")
                 .writeAttribute("status", "deleted")
@@ -29,7 +29,9 @@ import com.peregrine.admin.resource.AdminResourceHandler;
 import com.peregrine.admin.resource.AdminResourceHandler.DeletionResponse;
 import com.peregrine.admin.resource.AdminResourceHandler.ManagementException;
 import com.peregrine.commons.servlets.AbstractBaseServlet;
+import com.peregrine.commons.servlets.AsyncJobs;
 import com.peregrine.commons.util.PerUtil;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.models.factory.ModelFactory;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
@@ -73,12 +75,30 @@ public class DeletePageServlet extends AbstractBaseServlet {
     @Reference
     AdminResourceHandler resourceManagement;
 
+    @Reference
+    AsyncJobs asyncJobs;
+
+    @Override
+    protected AsyncJobs getAsyncJobs() {
+        return asyncJobs;
+    }
+
     @Override
     protected Response handleRequest(Request request) throws IOException {
-        String path = request.getParameter("path");
+        final String path = request.getParameter("path");
+        // Deleting a page tree can take a while and so it can be executed asynchronously
+        return handleAsync(request, "deletePage", new AsyncHandler() {
+            @Override
+            public Response handle(ResourceResolver resourceResolver) throws IOException {
+                return deletePage(resourceResolver, path);
+            }
+        });
+    }
+
+    private Response deletePage(ResourceResolver resourceResolver, String path) throws IOException {
         try {
-            DeletionResponse response = resourceManagement.deleteResource(request.getResourceResolver(), path, PAGE_PRIMARY_TYPE);
-            request.getResourceResolver().commit();
+            DeletionResponse response = resourceManagement.deleteResource(resourceResolver, path, PAGE_PRIMARY_TYPE);
+            resourceResolver.commit();
             return new JsonResponse()
                 .writeAttribute("type", "page")
                 .writeAttribute("status", "deleted")
@@ -25,12 +25,12 @@ package com.peregrine.admin.servlets;
  * #L%
  */
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.peregrine.admin.resource.AdminResourceHandler;
 import com.peregrine.admin.resource.AdminResourceHandler.ManagementException;
 import com.peregrine.admin.resource.ResourceRelocation;
 import com.peregrine.commons.servlets.AbstractBaseServlet;
 import com.peregrine.commons.servlets.ServletHelper;
+import com.peregrine.commons.util.PerJson;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.models.factory.ModelFactory;
 import org.osgi.service.component.annotations.Component;
@@ -142,8 +142,7 @@ public class InsertNodeAt extends AbstractBaseServlet {
         Map<String, Object> properties = new HashMap<>();
         String data = request.getParameter("content");
         if(data != null && !data.isEmpty()) {
-            ObjectMapper mapper = new ObjectMapper();
-            properties.putAll(mapper.readValue(data, Map.class));
+            properties.putAll(PerJson.readMap(data));
         }
         if(component != null && !component.isEmpty()) {
             // Component overrides the JSon component if provided
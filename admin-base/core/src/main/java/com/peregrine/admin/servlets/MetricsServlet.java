@@ -0,0 +1,172 @@
+package com.peregrine.admin.servlets;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.peregrine.commons.servlets.AbstractBaseServlet;
+import com.peregrine.commons.servlets.ServletMetrics;
+import com.peregrine.commons.servlets.ServletMetricsMXBean;
+import org.osgi.service.component.annotations.Component;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_METRICS;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.GET;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Provides the Request Metrics of all Peregrine Servlets as JSon
+ * or, with the 'txt' extension, in the Prometheus text format
+ *
+ * The API Definition can be found in the Swagger Editor configuration:
+ *    ui.apps/src/main/content/jcr_root/api/definintions/admin.yaml
+ */
+@Component(
+    service = Servlet.class,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Metrics Servlet",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        SLING_SERVLET_METHODS + EQUALS + GET,
+        SLING_SERVLET_RESOURCE_TYPES + EQUALS + RESOURCE_TYPE_METRICS
+    }
+)
+@SuppressWarnings("serial")
+public class MetricsServlet extends AbstractBaseServlet {
+
+    public static final String PROMETHEUS_EXTENSION = "txt";
+    public static final String PROMETHEUS_MIME_TYPE = "text/plain; version=0.0.4";
+
+    @Override
+    protected Response handleRequest(Request request) throws IOException {
+        List<ServletMetricsMXBean> metrics = ServletMetrics.findAll();
+        if(PROMETHEUS_EXTENSION.equals(request.getExtension())) {
+            return new TextResponse("prometheus", PROMETHEUS_MIME_TYPE).write(toPrometheus(metrics));
+        }
+        JsonResponse answer = new JsonResponse();
+        answer.writeArray("servlets");
+        for(ServletMetricsMXBean servlet: metrics) {
+            answer.writeObject();
+            answer.writeAttribute("name", servlet.getServletName());
+            answer.writeAttribute("requests", servlet.getRequestCount());
+            answer.writeAttribute("errors", servlet.getErrorCount());
+            answer.writeArray("errorCodes");
+            for(Map.Entry<String, Long> entry: servlet.getErrorCounts().entrySet()) {
+                String[] codes = entry.getKey().split("/");
+                answer.writeObject();
+                answer.writeAttribute("code", codes[0]);
+                if(codes.length > 1) {
+                    answer.writeAttribute("errorCode", codes[1]);
+                }
+                answer.writeAttribute("count", entry.getValue());
+                answer.writeClose();
+            }
+            answer.writeClose();
+            writeHistogram(answer, "handlerTime", servlet.getTimeBounds(), servlet.getHandlerTimes(), servlet.getHandlerTimeTotal());
+            writeHistogram(answer, "serializationTime", servlet.getTimeBounds(), servlet.getSerializationTimes(), servlet.getSerializationTimeTotal());
+            writeHistogram(answer, "responseSize", servlet.getSizeBounds(), servlet.getResponseSizes(), servlet.getResponseSizeTotal());
+            answer.writeClose();
+        }
+        answer.writeClose();
+        return answer;
+    }
+
+    private void writeHistogram(JsonResponse json, String name, long[] bounds, long[] counts, long total) throws IOException {
+        json.writeArray(name);
+        for(int i = 0; i < counts.length; i++) {
+            json.writeObject();
+            json.writeAttribute("le", i < bounds.length ? Long.toString(bounds[i]) : "+Inf");
+            json.writeAttribute("count", counts[i]);
+            json.writeClose();
+        }
+        json.writeClose();
+        json.writeAttribute(name + "Total", total);
+    }
+
+    private String toPrometheus(List<ServletMetricsMXBean> metrics) {
+        StringBuilder answer = new StringBuilder();
+        answer.append("# TYPE peregrine_servlet_requests_total counter\n");
+        for(ServletMetricsMXBean servlet: metrics) {
+            answer.append("peregrine_servlet_requests_total{servlet=\"").append(servlet.getServletName()).append("\"} ")
+                .append(servlet.getRequestCount()).append('\n');
+        }
+        answer.append("# TYPE peregrine_servlet_errors_total counter\n");
+        for(ServletMetricsMXBean servlet: metrics) {
+            for(Map.Entry<String, Long> entry: servlet.getErrorCounts().entrySet()) {
+                String[] codes = entry.getKey().split("/");
+                answer.append("peregrine_servlet_errors_total{servlet=\"").append(servlet.getServletName())
+                    .append("\",code=\"").append(codes[0]);
+                if(codes.length > 1) {
+                    answer.append("\",errorCode=\"").append(codes[1]);
+                }
+                answer.append("\"} ").append(entry.getValue()).append('\n');
+            }
+        }
+        answer.append("# TYPE peregrine_servlet_handler_seconds histogram\n");
+        for(ServletMetricsMXBean servlet: metrics) {
+            appendHistogram(answer, "peregrine_servlet_handler_seconds", servlet.getServletName(),
+                servlet.getTimeBounds(), servlet.getHandlerTimes(), servlet.getHandlerTimeTotal(), true);
+        }
+        answer.append("# TYPE peregrine_servlet_serialization_seconds histogram\n");
+        for(ServletMetricsMXBean servlet: metrics) {
+            appendHistogram(answer, "peregrine_servlet_serialization_seconds", servlet.getServletName(),
+                servlet.getTimeBounds(), servlet.getSerializationTimes(), servlet.getSerializationTimeTotal(), true);
+        }
+        answer.append("# TYPE peregrine_servlet_response_bytes histogram\n");
+        for(ServletMetricsMXBean servlet: metrics) {
+            appendHistogram(answer, "peregrine_servlet_response_bytes", servlet.getServletName(),
+                servlet.getSizeBounds(), servlet.getResponseSizes(), servlet.getResponseSizeTotal(), false);
+        }
+        return answer.toString();
+    }
+
+    /** Appends the cumulative buckets, sum and count of a histogram. Times are converted from micro seconds to seconds **/
+    private void appendHistogram(StringBuilder answer, String name, String servletName, long[] bounds, long[] counts, long total, boolean time) {
+        String label = "{servlet=\"" + servletName + "\"";
+        long cumulative = 0;
+        for(int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            String bound = i < bounds.length ? (time ? toSeconds(bounds[i]) : Long.toString(bounds[i])) : "+Inf";
+            answer.append(name).append("_bucket").append(label).append(",le=\"").append(bound).append("\"} ")
+                .append(cumulative).append('\n');
+        }
+        answer.append(name).append("_sum").append(label).append("} ")
+            .append(time ? toSeconds(total) : Long.toString(total)).append('\n');
+        answer.append(name).append("_count").append(label).append("} ").append(cumulative).append('\n');
+    }
+
+    /** Converts micro seconds to seconds **/
+    private String toSeconds(long micros) {
+        return Double.toString(micros / 1000000d);
+    }
+}
@@ -28,7 +28,6 @@ package com.peregrine.admin.servlets;
 import com.peregrine.commons.servlets.AbstractBaseServlet;
 import com.peregrine.commons.util.PerUtil;
 import org.apache.sling.api.resource.Resource;
-import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.models.factory.ModelFactory;
 import org.osgi.service.component.annotations.Component;
@@ -38,8 +37,18 @@ import javax.servlet.Servlet;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_NODES;
 import static com.peregrine.commons.util.PerConstants.*;
@@ -50,6 +59,7 @@ import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
 import static com.peregrine.commons.util.PerUtil.getProperties;
 import static com.peregrine.commons.util.PerUtil.isPrimaryType;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
 import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
 import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
@@ -80,71 +90,211 @@ public class NodesServlet extends AbstractBaseServlet {
 
     @Override
     protected Response handleRequest(Request request) throws IOException {
-        String path = request.getParameter("path");
-        if(path == null || path.isEmpty()) {
-            return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("No Path provided").setRequestPath(path);
+        List<String> paths = getPaths(request);
+        if(paths.isEmpty()) {
+            return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("No Path provided").setRequestPath(request.getParameter("path"));
+        }
+        String path = paths.get(0);
+        Paging paging = new Paging(request);
+        if(paging.limit < 0 || paging.offset < 0) {
+            return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Limit and Offset must not be negative").setRequestPath(path);
         }
         String[] segments = path.split("/");
-        logger.debug("lookup path {}, {}", path, segments.length);
+        if(segments.length < 2) {
+            return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Path must not be the root").setRequestPath(path);
+        }
+        // All paths are merged into one tree starting with the top level resource
+        String rootPath = "/" + segments[1];
+        Expansion expansion = new Expansion();
+        for(String aPath: paths) {
+            if(!aPath.equals(rootPath) && !aPath.startsWith(rootPath + "/")) {
+                return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("All paths must be below: " + rootPath).setRequestPath(aPath);
+            }
+            expansion.add(aPath);
+        }
+        logger.debug("lookup paths {}", paths);
+        Resource root = request.getResourceByPath(rootPath);
+        if(root == null) {
+            return new ErrorResponse().setHttpErrorCode(SC_NOT_FOUND).setErrorMessage("Resource not found").setRequestPath(rootPath);
+        }
+        if(paging.after != null) {
+            // A page that starts after a child that is gone cannot be found
+            for(String aPath: paths) {
+                Resource folder = request.getResourceByPath(aPath);
+                if(folder != null && folder.getChild(paging.after) == null) {
+                    return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Child given by 'after' not found: " + paging.after).setRequestPath(aPath);
+                }
+            }
+        }
         JsonResponse answer = new JsonResponse();
-        convertResource(answer, request.getResourceResolver(), segments, 1, path);
+        convertResource(answer, root, expansion, paging);
         return answer;
     }
 
-    private void convertResource(JsonResponse json, ResourceResolver rs, String[] segments, int pos, String fullPath) throws IOException {
-        String path = "";
-        for(int i = 1; i <= pos; i++) {
-            path += "/" + segments[i];
+    /** @return The path suffix and all the 'path' parameters without duplicates **/
+    private List<String> getPaths(Request request) {
+        Set<String> answer = new LinkedHashSet<>();
+        String suffix = request.getSuffix();
+        if(suffix != null) {
+            answer.add(suffix);
+        }
+        String[] values = request.getRequest().getParameterValues("path");
+        if(values != null) {
+            answer.addAll(Arrays.asList(values));
         }
-        logger.debug("looking up {}", path);
-        Resource res = rs.getResource(path);
+        List<String> paths = new ArrayList<>();
+        for(String path: answer) {
+            while(path.length() > 1 && path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            if(!path.isEmpty() && !paths.contains(path)) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    private void convertResource(JsonResponse json, Resource res, Expansion expansion, Paging paging) throws IOException {
+        logger.debug("converting {}", res.getPath());
         json.writeAttribute("name",res.getName());
         json.writeAttribute("path",res.getPath());
         writeProperties(res, json);
+        Set<String> expandedNames = expansion.getExpandedNames(res.getPath());
+        boolean requested = expansion.isRequested(res.getPath());
+        if(!requested && paging.ancestorChain) {
+            writeAncestorChain(json, res, expandedNames, expansion, paging);
+            return;
+        }
+        // Offset and keyset only apply to the requested folders, the ancestors are listed from their first child
+        int offset = requested ? paging.offset : 0;
+        String after = requested ? paging.after : null;
+        boolean afterFound = after == null;
+        int skipped = 0;
+        int listed = 0;
+        int count = 0;
+        int pending = expandedNames.size();
+        boolean hasMore = false;
+        String boundary = null;
         json.writeArray("children");
-        Iterable<Resource> children = res.getChildren();
-        for(Resource child : children) {
-            if(fullPath.startsWith(child.getPath())) {
+        Iterator<Resource> children = res.listChildren();
+        while(children.hasNext()) {
+            Resource child = children.next();
+            if(expandedNames.contains(child.getName())) {
+                count++;
+                pending--;
                 json.writeObject();
-                convertResource(json, rs, segments, pos+1, fullPath);
+                convertResource(json, child, expansion, paging);
                 json.writeClose();
-            } else {
-                if(!JCR_CONTENT.equals(child.getName())) {
-                    json.writeObject();
-                    json.writeAttribute("name",child.getName());
-                    json.writeAttribute("path",child.getPath());
-                    writeProperties(child, json);
-                    if(isPrimaryType(child, ASSET_PRIMARY_TYPE)) {
-                        String mimeType = child.getChild(JCR_CONTENT).getValueMap().get(JCR_MIME_TYPE, String.class);
-                        json.writeAttribute("mimeType", mimeType);
+            } else if(!JCR_CONTENT.equals(child.getName())) {
+                count++;
+                if(!afterFound) {
+                    afterFound = child.getName().equals(after);
+                } else if(skipped < offset) {
+                    skipped++;
+                } else if(paging.limit == 0 || listed < paging.limit) {
+                    writeChild(json, child);
+                    listed++;
+                } else {
+                    if(!hasMore) {
+                        boundary = child.getName();
+                    }
+                    hasMore = true;
+                    // Keep going if the children need to be counted or a child on a path is still to come
+                    if(!paging.count && pending == 0) {
+                        break;
+                    }
+                }
+            }
+        }
+        json.writeClose();
+        json.writeAttribute("hasMore", hasMore);
+        if(paging.count) {
+            json.writeAttribute("childCount", count);
+        }
+        addListingValidator(json, res, count, hasMore, boundary);
+    }
+
+    /**
+     * Children outside of the page are not validators so the count, the more flag and the first child
+     * after the page are so that adding or removing them changes the ETag. The parent's last modification
+     * date does not change with its children and so no Last Modified header is provided
+     */
+    private void addListingValidator(JsonResponse json, Resource res, int count, boolean hasMore, String boundary) {
+        json.addValidator(res.getPath() + ":" + count + ":" + hasMore + ":" + boundary, -1);
+    }
+
+    /** Writes only the children on a path instead of all the children **/
+    private void writeAncestorChain(JsonResponse json, Resource res, Set<String> expandedNames, Expansion expansion, Paging paging) throws IOException {
+        json.writeArray("children");
+        for(String name: expandedNames) {
+            Resource child = res.getChild(name);
+            if(child != null) {
+                json.writeObject();
+                convertResource(json, child, expansion, paging);
+                json.writeClose();
+            }
+        }
+        json.writeClose();
+        int count = 0;
+        boolean hasMore = false;
+        String boundary = null;
+        Iterator<Resource> children = res.listChildren();
+        while(children.hasNext()) {
+            Resource child = children.next();
+            if(!JCR_CONTENT.equals(child.getName())) {
+                count++;
+                if(!expandedNames.contains(child.getName())) {
+                    if(!hasMore) {
+                        boundary = child.getName();
+                    }
+                    hasMore = true;
+                    if(!paging.count) {
+                        break;
                     }
-                    if(isPrimaryType(child, PAGE_PRIMARY_TYPE)) {
-                        Resource content = child.getChild(JCR_CONTENT);
-                        if(content != null) {
-                            for (String key: content.getValueMap().keySet()) {
-                                if(key.equals(JCR_TITLE)) {
-                                    String title = content.getValueMap().get(JCR_TITLE, String.class);
-                                    json.writeAttribute("title", title);
-                                } else {
-                                    if(key.indexOf(":") < 0) {
-                                        json.writeAttribute(key, content.getValueMap().get(key, String.class));
-                                    }
-                                }
-                            }
-                            String component = PerUtil.getComponentNameFromResource(content);
-                            json.writeAttribute("component", component);
-                        } else {
-                            logger.debug("No Content Child found for: '{}'", child.getPath());
+                }
+            }
+        }
+        json.writeAttribute("hasMore", hasMore);
+        if(paging.count) {
+            json.writeAttribute("childCount", count);
+        }
+        addListingValidator(json, res, count, hasMore, boundary);
+    }
+
+    private void writeChild(JsonResponse json, Resource child) throws IOException {
+        json.writeObject();
+        json.writeAttribute("name",child.getName());
+        json.writeAttribute("path",child.getPath());
+        writeProperties(child, json);
+        if(isPrimaryType(child, ASSET_PRIMARY_TYPE)) {
+            String mimeType = child.getChild(JCR_CONTENT).getValueMap().get(JCR_MIME_TYPE, String.class);
+            json.writeAttribute("mimeType", mimeType);
+        }
+        if(isPrimaryType(child, PAGE_PRIMARY_TYPE)) {
+            Resource content = child.getChild(JCR_CONTENT);
+            if(content != null) {
+                for (String key: content.getValueMap().keySet()) {
+                    if(key.equals(JCR_TITLE)) {
+                        String title = content.getValueMap().get(JCR_TITLE, String.class);
+                        json.writeAttribute("title", title);
+                    } else {
+                        if(key.indexOf(":") < 0) {
+                            json.writeAttribute(key, content.getValueMap().get(key, String.class));
                         }
                     }
-                    json.writeClose();
                 }
+                String component = PerUtil.getComponentNameFromResource(content);
+                json.writeAttribute("component", component);
+            } else {
+                logger.debug("No Content Child found for: '{}'", child.getPath());
             }
         }
         json.writeClose();
     }
 
     private void writeProperties(Resource resource, JsonResponse json) throws IOException {
+        // Every listed resource is a validator so that an unchanged tree is answered with Not Modified
+        json.addValidator(resource);
         ValueMap properties = resource.getValueMap();
         writeIfFound(json, JCR_PRIMARY_TYPE, properties, "resourceType");
         writeIfFound(json, JCR_CREATED, properties);
@@ -161,6 +311,8 @@ public class NodesServlet extends AbstractBaseServlet {
             writeIfFound(json, PER_REPLICATED_BY, contentProperties);
             //        String replicationLocation = writeIfFound(json, PER_REPLICATION, properties);
             String replicationLocationRef = writeIfFound(json, PER_REPLICATION_REF, contentProperties);
+            // Replication does not update the Last Modified date
+            json.addValidator(replicationDate + "@" + replicationLocationRef, 0);
             if(replicationDate != null && !replicationDate.isEmpty()) {
                 String status = "activated";
                 if(replicationLocationRef == null || replicationLocationRef.isEmpty()) {
@@ -175,6 +327,64 @@ public class NodesServlet extends AbstractBaseServlet {
         return writeIfFound(json, propertyName, properties, propertyName);
     }
 
+    /**
+     * Requested Paths and their ancestors so that the ancestors shared
+     * by several paths are only walked once
+     **/
+    private static class Expansion {
+        private final Set<String> requested = new HashSet<>();
+        /** Names of the children to expand by the path of their parent **/
+        private final Map<String, Set<String>> expanded = new HashMap<>();
+
+        private void add(String path) {
+            requested.add(path);
+            String child = path;
+            int index;
+            while((index = child.lastIndexOf('/')) > 0) {
+                String parent = child.substring(0, index);
+                Set<String> names = expanded.get(parent);
+                if(names == null) {
+                    names = new LinkedHashSet<>();
+                    expanded.put(parent, names);
+                }
+                names.add(child.substring(index + 1));
+                child = parent;
+            }
+        }
+
+        private boolean isRequested(String path) {
+            return requested.contains(path);
+        }
+
+        private Set<String> getExpandedNames(String path) {
+            Set<String> answer = expanded.get(path);
+            return answer == null ? Collections.<String>emptySet() : answer;
+        }
+    }
+
+    /** Paging of the children of each level **/
+    private static class Paging {
+        /** Maximum number of children listed per level (0 = all) **/
+        private final int limit;
+        /** Number of children of the requested folders that are skipped **/
+        private final int offset;
+        /** Name of the child of the requested folders after which the listing starts (keyset paging) **/
+        private final String after;
+        /** If true the ancestors only list the child on the path **/
+        private final boolean ancestorChain;
+        /** If true the number of children of each level is provided **/
+        private final boolean count;
+
+        private Paging(Request request) {
+            limit = request.getIntParameter("limit", 0);
+            offset = request.getIntParameter("offset", 0);
+            String afterParameter = request.getParameter("after");
+            after = afterParameter == null || afterParameter.isEmpty() ? null : afterParameter;
+            ancestorChain = "true".equals(request.getParameter("ancestorChain"));
+            count = "true".equals(request.getParameter("count"));
+        }
+    }
+
     private static final String[] OMIT_PREFIXES = new String[] { "jcr:", "per:" };
 
     private String writeIfFound(JsonResponse json, String propertyName, ValueMap properties, String responseName) throws IOException {
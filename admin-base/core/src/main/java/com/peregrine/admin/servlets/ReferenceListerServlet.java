@@ -74,21 +74,24 @@ public class ReferenceListerServlet extends AbstractBaseServlet {
     @Override
     protected Response handleRequest(Request request) throws IOException {
         String sourcePath = request.getParameter("path");
-        Resource source = request.getResourceResolver().getResource(sourcePath);
+        final Resource source = request.getResourceResolver().getResource(sourcePath);
         if(source != null) {
-            List<Resource> references = referenceLister.getReferenceList(true, source, true);
-            JsonResponse answer = new JsonResponse();
-            answer.writeAttribute("sourceName", source.getName());
-            answer.writeAttribute("sourcePath", source.getPath());
-            answer.writeArray("references");
-            for(Resource child : references) {
-                answer.writeObject();
-                answer.writeAttribute("name", child.getName());
-                answer.writeAttribute("path", child.getPath());
-                answer.writeClose();
-            }
-            answer.writeClose();
-            return answer;
+            final List<Resource> references = referenceLister.getReferenceList(true, source, true);
+            return new StreamingJsonResponse() {
+                @Override
+                protected void writeContent() throws IOException {
+                    writeAttribute("sourceName", source.getName());
+                    writeAttribute("sourcePath", source.getPath());
+                    writeArray("references");
+                    for(Resource child : references) {
+                        writeObject();
+                        writeAttribute("name", child.getName());
+                        writeAttribute("path", child.getPath());
+                        writeClose();
+                    }
+                    writeClose();
+                }
+            };
         } else {
             return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Given Path does not yield a resource").setRequestPath(sourcePath);
         }
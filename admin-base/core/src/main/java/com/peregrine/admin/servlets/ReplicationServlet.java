@@ -28,14 +28,20 @@ package com.peregrine.admin.servlets;
 import com.peregrine.admin.replication.ReferenceLister;
 import com.peregrine.admin.replication.Replication;
 import com.peregrine.admin.replication.Replication.ReplicationException;
+import com.peregrine.admin.replication.ReplicationQueue;
 import com.peregrine.commons.servlets.AbstractBaseServlet;
+import com.peregrine.commons.servlets.AsyncJobs;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.event.jobs.Job;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
 import org.osgi.service.component.annotations.ReferencePolicyOption;
 
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 import javax.servlet.Servlet;
 import java.io.IOException;
 import java.util.HashMap;
@@ -47,7 +53,10 @@ import static com.peregrine.commons.util.PerUtil.EQUALS;
 import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
 import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
 import static com.peregrine.commons.util.PerUtil.POST;
+import static javax.servlet.http.HttpServletResponse.SC_ACCEPTED;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
+import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
 import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
 import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
 import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
@@ -71,12 +80,30 @@ import static org.osgi.framework.Constants.SERVICE_VENDOR;
  *    ui.apps/src/main/content/jcr_root/api/definintions/admin.yaml
  *
  * It is invoked like this: curl -u admin:admin -X POST http://localhost:8080/api/admin/repl.json/path///content/sites/example//name//local
+ *
+ * With 'queue=true' the replication is queued as a persisted job and its
+ * status is available through the Replication Status Servlet.
  */
 public class ReplicationServlet extends AbstractBaseServlet {
 
     @Reference
     private ReferenceLister referenceLister;
 
+    @Reference(
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    private volatile ReplicationQueue replicationQueue;
+
+    @Reference
+    AsyncJobs asyncJobs;
+
+    @Override
+    protected AsyncJobs getAsyncJobs() {
+        return asyncJobs;
+    }
+
     private Map<String, Replication> replications = new HashMap<>();
 
     @Reference(
@@ -107,53 +134,97 @@ public class ReplicationServlet extends AbstractBaseServlet {
 
     @Override
     protected Response handleRequest(Request request) throws IOException {
-        JsonResponse answer;
         logger.trace("Request Path: '{}'", request.getRequestPath());
         logger.trace("Request URI: '{}'", request.getRequest().getRequestURI());
         logger.trace("Request URL: '{}'", request.getRequest().getRequestURL());
-        String sourcePath = request.getParameter("path");
+        final String sourcePath = request.getParameter("path");
         String replicationName = request.getParameter("name");
         if(replicationName == null || replicationName.isEmpty()) {
             return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Parameter 'name' for the replication name is not provided");
         }
         String deepParameter = request.getParameter("deep");
-        boolean deep = deepParameter != null && "true".equals(deepParameter.toLowerCase());
+        final boolean deep = deepParameter != null && "true".equals(deepParameter.toLowerCase());
         String deactivateParameter = request.getParameter("deactivate");
-        boolean deactivate = deactivateParameter != null && "true".equals(deactivateParameter.toLowerCase());
-        Replication replication = replications.get(replicationName);
+        final boolean deactivate = deactivateParameter != null && "true".equals(deactivateParameter.toLowerCase());
+        final Replication replication = replications.get(replicationName);
         if(replication == null) {
             return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Replication not found for name: " + replicationName);
         }
-        Resource source = request.getResourceResolver().getResource(sourcePath);
-        if(source != null) {
-            List<Resource> replicates;
-            try {
-                if(!deactivate) {
-                    // Replication can be local or remote and so the commit of the changes is done inside the Replication Service
-                    replicates = replication.replicate(source, deep);
-                } else {
-                    replicates = replication.deactivate(source);
-                }
-            } catch(ReplicationException e) {
-                return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Replication Failed").setException(e);
+        if(request.getResourceResolver().getResource(sourcePath) == null) {
+            return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Suffix: " + sourcePath + " is not a resource");
+        }
+        if("true".equals(request.getParameter("queue"))) {
+            return enqueue(request, sourcePath, replicationName, deep, deactivate);
+        }
+        // A deep replication can take minutes and so it can be executed asynchronously
+        return handleAsync(request, "replication:" + replicationName, new AsyncHandler() {
+            @Override
+            public Response handle(ResourceResolver resourceResolver) throws IOException {
+                return replicate(resourceResolver, sourcePath, replication, deep, deactivate);
             }
-            answer = new JsonResponse();
-            answer.writeAttribute("sourceName", source.getName());
-            answer.writeAttribute("sourcePath", source.getPath());
-            answer.writeArray("replicates");
-            if(replicates != null) {
-                for(Resource child : replicates) {
-                    answer.writeObject();
-                    answer.writeAttribute("name", child.getName());
-                    answer.writeAttribute("path", child.getPath());
-                    answer.writeClose();
-                }
+        });
+    }
+
+    /**
+     * Queues the replication as a persisted job which is executed with the Replication Service User.
+     * Therefore only users that can modify the source can queue its replication and the job checks
+     * the user's permissions on everything it replicates when it runs.
+     */
+    private Response enqueue(Request request, String sourcePath, String replicationName, boolean deep, boolean deactivate) throws IOException {
+        ReplicationQueue queue = replicationQueue;
+        if(queue == null) {
+            return new ErrorResponse().setHttpErrorCode(SC_SERVICE_UNAVAILABLE).setErrorMessage("Replication Queue is not available");
+        }
+        ResourceResolver resourceResolver = request.getResourceResolver();
+        Session session = resourceResolver.adaptTo(Session.class);
+        try {
+            if(session == null || !session.hasPermission(sourcePath, Session.ACTION_SET_PROPERTY)) {
+                return new ErrorResponse().setHttpErrorCode(SC_FORBIDDEN).setErrorMessage("Not allowed to replicate: " + sourcePath);
             }
-            answer.writeClose();
-        } else {
+        } catch(RepositoryException e) {
+            return new ErrorResponse().setHttpErrorCode(SC_FORBIDDEN).setErrorMessage("Not allowed to replicate: " + sourcePath).setException(e);
+        }
+        Job job = queue.enqueue(replicationName, sourcePath, deep, deactivate, resourceResolver.getUserID());
+        if(job == null) {
+            return new ErrorResponse().setHttpErrorCode(SC_SERVICE_UNAVAILABLE).setErrorMessage("Replication could not be queued for: " + sourcePath);
+        }
+        request.getResponse().setStatus(SC_ACCEPTED);
+        return new JsonResponse()
+            .writeAttribute("jobId", job.getId())
+            .writeAttribute("name", replicationName)
+            .writeAttribute("sourcePath", sourcePath)
+            .writeAttribute("status", job.getJobState().name());
+    }
+
+    private Response replicate(ResourceResolver resourceResolver, String sourcePath, Replication replication, boolean deep, boolean deactivate) throws IOException {
+        Resource source = resourceResolver.getResource(sourcePath);
+        if(source == null) {
             return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Suffix: " + sourcePath + " is not a resource");
         }
+        List<Resource> replicates;
+        try {
+            if(!deactivate) {
+                // Replication can be local or remote and so the commit of the changes is done inside the Replication Service
+                replicates = replication.replicate(source, deep);
+            } else {
+                replicates = replication.deactivate(source);
+            }
+        } catch(ReplicationException e) {
+            return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Replication Failed").setException(e);
+        }
+        JsonResponse answer = new JsonResponse();
+        answer.writeAttribute("sourceName", source.getName());
+        answer.writeAttribute("sourcePath", source.getPath());
+        answer.writeArray("replicates");
+        if(replicates != null) {
+            for(Resource child : replicates) {
+                answer.writeObject();
+                answer.writeAttribute("name", child.getName());
+                answer.writeAttribute("path", child.getPath());
+                answer.writeClose();
+            }
+        }
+        answer.writeClose();
         return answer;
     }
 }
-
@@ -0,0 +1,162 @@
+package com.peregrine.admin.servlets;
+
+/*-
+ * #%L
+ * admin base - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.peregrine.admin.replication.ReplicationQueue;
+import com.peregrine.commons.servlets.AbstractBaseServlet;
+import org.apache.sling.event.jobs.Job;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.peregrine.admin.replication.ReplicationQueue.PROPERTY_DEACTIVATE;
+import static com.peregrine.admin.replication.ReplicationQueue.PROPERTY_DEEP;
+import static com.peregrine.admin.replication.ReplicationQueue.PROPERTY_NAME;
+import static com.peregrine.admin.replication.ReplicationQueue.PROPERTY_PATH;
+import static com.peregrine.admin.replication.ReplicationQueue.PROPERTY_USER_ID;
+import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_REPLICATION_STATUS;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.GET;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Provides the Status and Progress of the queued replications
+ * of the current user. With an id only that job is provided
+ * otherwise the latest jobs, optionally of a path, are listed.
+ *
+ * The API Definition can be found in the Swagger Editor configuration:
+ *    ui.apps/src/main/content/jcr_root/api/definintions/admin.yaml
+ */
+@Component(
+    service = Servlet.class,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Replication Status Servlet",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        SLING_SERVLET_METHODS + EQUALS + GET,
+        SLING_SERVLET_RESOURCE_TYPES + EQUALS + RESOURCE_TYPE_REPLICATION_STATUS
+    }
+)
+@SuppressWarnings("serial")
+public class ReplicationStatusServlet extends AbstractBaseServlet {
+
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 100;
+
+    @Reference(
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    private volatile ReplicationQueue replicationQueue;
+
+    @Override
+    protected Response handleRequest(Request request) throws IOException {
+        ReplicationQueue queue = replicationQueue;
+        if(queue == null) {
+            return new ErrorResponse().setHttpErrorCode(SC_SERVICE_UNAVAILABLE).setErrorMessage("Replication Queue is not available");
+        }
+        String userId = request.getResourceResolver().getUserID();
+        String id = request.getParameter("id");
+        if(id != null && !id.isEmpty()) {
+            Job job = queue.getJob(id);
+            // Jobs of other users are not disclosed
+            if(job == null || userId == null || !userId.equals(job.getProperty(PROPERTY_USER_ID, String.class))) {
+                return new ErrorResponse().setHttpErrorCode(SC_NOT_FOUND).setErrorMessage("Replication Job not found").setCustom("jobId", id);
+            }
+            JsonResponse answer = new JsonResponse();
+            writeJob(answer, job);
+            return answer;
+        }
+        String path = request.getParameter("path");
+        int limit = Math.max(1, Math.min(MAX_LIMIT, request.getIntParameter("limit", DEFAULT_LIMIT)));
+        List<Job> jobs = new ArrayList<>(queue.findJobs(userId, path == null || path.isEmpty() ? null : path, limit));
+        // Latest jobs first
+        Collections.sort(jobs, new Comparator<Job>() {
+            @Override
+            public int compare(Job one, Job two) {
+                return Long.compare(getTime(two.getCreated()), getTime(one.getCreated()));
+            }
+        });
+        JsonResponse answer = new JsonResponse();
+        answer.writeArray("data");
+        for(Job job: jobs.subList(0, Math.min(limit, jobs.size()))) {
+            answer.writeObject();
+            writeJob(answer, job);
+            answer.writeClose();
+        }
+        answer.writeClose();
+        return answer;
+    }
+
+    private void writeJob(JsonResponse answer, Job job) throws IOException {
+        answer.writeAttribute("jobId", job.getId());
+        answer.writeAttribute("name", job.getProperty(PROPERTY_NAME, ""));
+        answer.writeAttribute("path", job.getProperty(PROPERTY_PATH, ""));
+        answer.writeAttribute("deep", job.getProperty(PROPERTY_DEEP, false));
+        answer.writeAttribute("deactivate", job.getProperty(PROPERTY_DEACTIVATE, false));
+        answer.writeAttribute("status", job.getJobState().name());
+        answer.writeAttribute("created", getTime(job.getCreated()));
+        if(job.getProcessingStarted() != null) {
+            answer.writeAttribute("started", getTime(job.getProcessingStarted()));
+        }
+        if(job.getFinishedDate() != null) {
+            answer.writeAttribute("finished", getTime(job.getFinishedDate()));
+        }
+        answer.writeAttribute("retries", job.getRetryCount());
+        answer.writeAttribute("maxRetries", job.getNumberOfRetries());
+        if(job.getProgressStepCount() > 0) {
+            answer.writeAttribute("progressSteps", job.getProgressStepCount());
+            answer.writeAttribute("progressFinished", job.getFinishedProgressStep());
+        }
+        if(job.getProgressETA() != null) {
+            answer.writeAttribute("eta", getTime(job.getProgressETA()));
+        }
+        if(job.getResultMessage() != null) {
+            answer.writeAttribute("message", job.getResultMessage());
+        }
+    }
+
+    private static long getTime(Calendar calendar) {
+        return calendar == null ? 0 : calendar.getTimeInMillis();
+    }
+}
@@ -25,19 +25,17 @@ package com.peregrine.admin.servlets;
  * #L%
  */
 
+import com.peregrine.admin.resource.DefinitionRegistry;
+import com.peregrine.admin.resource.DefinitionRegistry.Definition;
 import com.peregrine.commons.servlets.AbstractBaseServlet;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 
-import javax.jcr.Node;
-import javax.jcr.NodeIterator;
-import javax.jcr.Property;
-import javax.jcr.Session;
-import javax.jcr.query.Query;
-import javax.jcr.query.QueryManager;
-import javax.jcr.query.QueryResult;
 import javax.servlet.Servlet;
 import java.io.IOException;
+import java.util.List;
 
 import static com.peregrine.admin.servlets.AdminPaths.RESOURCE_TYPE_SEARCH;
 import static com.peregrine.commons.util.PerUtil.EQUALS;
@@ -56,6 +54,8 @@ import static org.osgi.framework.Constants.SERVICE_VENDOR;
  * - Templates
  * - Objects
  *
+ * The definitions are served from the in memory Definition Registry.
+ *
  * The API Definition can be found in the Swagger Editor configuration:
  *    ui.apps/src/main/content/jcr_root/api/definintions/admin.yaml
  */
@@ -71,12 +71,19 @@ import static org.osgi.framework.Constants.SERVICE_VENDOR;
 @SuppressWarnings("serial")
 public class RestrictedSearchServlet extends AbstractBaseServlet {
 
-    private static final long ROWS_PER_PAGE = 1000;
+    private static final int ROWS_PER_PAGE = 1000;
+
+    /** Queries of the Definition Registry. They must be served by the Peregrine Query Index and not traverse **/
+    public static final String OBJECTS_QUERY = DefinitionRegistry.OBJECTS_QUERY;
+    public static final String COMPONENTS_QUERY = DefinitionRegistry.COMPONENTS_QUERY;
+    public static final String TEMPLATES_QUERY = DefinitionRegistry.TEMPLATES_QUERY;
+
+    @Reference
+    @SuppressWarnings("unused")
+    private DefinitionRegistry definitionRegistry;
 
     @Override
     protected Response handleRequest(Request request) throws IOException {
-        // Path / Suffix is obtained but not used ?
-        String path = request.getParameter("path");
         Resource res = request.getResource();
         String type = res.getValueMap().get("type", String.class);
         Response answer;
@@ -93,84 +100,76 @@ public class RestrictedSearchServlet extends AbstractBaseServlet {
     }
 
     private Response findObjects(Request request) throws IOException {
-
-        String query = "select * from per:ObjectDefinition order by jcr:path";
-        return findAndOutputToWriterAsJSON(request, query);
+        return outputToWriterAsJSON(request, definitionRegistry.getObjects());
     }
 
     private Response findComponents(Request request) throws IOException {
-
-        String query = "select * from per:Component order by jcr:path";
-        return findAndOutputToWriterAsJSON(request, query);
+        return outputToWriterAsJSON(request, definitionRegistry.getComponents());
     }
 
     private Response findTemplates(Request request) throws IOException {
-
-        String query = "select * from per:Page where jcr:path like '/content/templates/%' order by jcr:path";
-        return findAndOutputToWriterAsJSON(request, query);
+        return outputToWriterAsJSON(request, definitionRegistry.getTemplates());
     }
 
-    private Response findAndOutputToWriterAsJSON(Request request, String query) throws IOException {
-        JsonResponse answer = new JsonResponse();
-        if(query.length() == 0) {
-            answer.writeAttribute("current", 1).writeAttribute("more", false).writeArray("data").writeClose();
-        } else {
-            Session session = request.getResourceResolver().adaptTo(Session.class);
+    private Response outputToWriterAsJSON(Request request, List<Definition> definitions) throws IOException {
+        int page = 0;
+        String pageParam = request.getParameter("page");
+        if(pageParam != null) {
             try {
-                if (query != null && query.trim().length() > 0) {
-                    QueryManager qm = session.getWorkspace().getQueryManager();
-                    Query q = qm.createQuery(query, Query.SQL);
-                    q.setLimit(ROWS_PER_PAGE+1);
-                    String pageParam = request.getParameter("page");
-                    int page = 0;
-                    if(pageParam != null) {
-                        page = Integer.parseInt(pageParam);
-                    }
-                    q.setOffset(page*ROWS_PER_PAGE);
+                page = Math.max(0, Integer.parseInt(pageParam));
+            } catch(NumberFormatException e) {
+                return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Invalid Page: " + pageParam);
+            }
+        }
+        return writeDefinitions(request.getResourceResolver(), definitions, page);
+    }
 
-                    QueryResult res = q.execute();
-                    NodeIterator nodes = res.getNodes();
-                    answer.writeAttribute("current", 1);
-                    answer.writeAttribute("more", nodes.getSize() > ROWS_PER_PAGE);
-                    answer.writeArray("data");
-                    while(nodes.hasNext()) {
-                        Node node = nodes.nextNode();
-                        answer.writeObject();
-                        answer.writeAttribute("name", node.getName());
-                        answer.writeAttribute("path", node.getPath());
-                        if(node.getPrimaryNodeType().toString().equals("per:Component")) {
-                            if(node.hasProperty("group")) {
-                                Property group = node.getProperty("group");
-                                if(group != null) {
-                                    answer.writeAttribute("group", group.getString());
-                                }
-                            }
-                            if(node.hasProperty("jcr:title")) {
-                                Property title = node.getProperty("jcr:title");
-                                if(title != null) {
-                                    answer.writeAttribute("title", title.getString());
-                                }
-                            }
-                            if(node.hasProperty("templateComponent")) {
-                                Property templateComponent = node.getProperty("templateComponent");
-                                if(templateComponent != null) {
-                                    answer.writeAttribute("templateComponent", templateComponent.getBoolean());
-                                }
-                            }
-                            if(node.hasNode("thumbnail.png")) {
-                                answer.writeAttribute("thumbnail", node.getPath() + "/thumbnail.png");
-                            }
-                        }
-                        answer.writeAttribute("nodeType", node.getPrimaryNodeType() + "");
-                        answer.writeClose();
-                    }
-                    answer.writeClose();
-                }
-            } catch(Exception e) {
-                answer = new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Unable to get query manager").setException(e);
+    /**
+     * Writes a page of the definitions the given resource resolver can read
+     * @param resourceResolver Resource Resolver of the user
+     * @param definitions Definitions of the registry
+     * @param page Zero based page number
+     * @return Response with the definitions
+     * @throws IOException If writing the response failed
+     */
+    static JsonResponse writeDefinitions(ResourceResolver resourceResolver, List<Definition> definitions, int page) throws IOException {
+        JsonResponse answer = new JsonResponse();
+        answer.writeAttribute("current", 1);
+        answer.writeArray("data");
+        // The definitions are loaded with a service user and so only the readable ones are returned
+        int visible = 0;
+        boolean more = false;
+        for(Definition definition: definitions) {
+            if(resourceResolver.getResource(definition.getPath()) == null) {
+                continue;
+            }
+            if(visible >= (page + 1) * ROWS_PER_PAGE) {
+                more = true;
+                break;
+            }
+            if(visible++ < page * ROWS_PER_PAGE) {
+                continue;
+            }
+            answer.writeObject();
+            answer.writeAttribute("name", definition.getName());
+            answer.writeAttribute("path", definition.getPath());
+            if(definition.getGroup() != null) {
+                answer.writeAttribute("group", definition.getGroup());
             }
+            if(definition.getTitle() != null) {
+                answer.writeAttribute("title", definition.getTitle());
+            }
+            if(definition.getTemplateComponent() != null) {
+                answer.writeAttribute("templateComponent", definition.getTemplateComponent());
+            }
+            if(definition.getThumbnail() != null) {
+                answer.writeAttribute("thumbnail", definition.getThumbnail());
+            }
+            answer.writeAttribute("nodeType", definition.getNodeType());
+            answer.writeClose();
         }
+        answer.writeClose();
+        answer.writeAttribute("more", more);
         return answer;
     }
 }
-
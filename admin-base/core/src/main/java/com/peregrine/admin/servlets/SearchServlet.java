@@ -29,10 +29,14 @@ import java.io.IOException;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.ValueFactory;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
 import javax.servlet.Servlet;
 
 import com.peregrine.commons.servlets.AbstractBaseServlet;
@@ -50,6 +54,14 @@ import static org.osgi.framework.Constants.SERVICE_VENDOR;
 
 /**
  * Raw Query Based Search. This is not part of the '/api/admin' but rather '/bin'.
+ *
+ * Queries are either given as JCR-SQL2 statement ('q', or 'lang=sql' for the
+ * deprecated SQL) and paged by offset or built from a node type, path, condition
+ * and ordering property and then paged by a cursor (keyset) on the ordering property
+ * so that deep pages do not have to skip all the rows before them.
+ *
+ * With 'explain=true' the query plan is returned instead of the result which
+ * shows if an index is used or the repository is traversed.
  */
 @Component(
     service = Servlet.class,
@@ -64,46 +76,210 @@ import static org.osgi.framework.Constants.SERVICE_VENDOR;
 public class SearchServlet extends AbstractBaseServlet {
 
     private static final long ROWS_PER_PAGE = 100;
+    /** Maximum number of rows counted for the total **/
+    private static final long COUNT_LIMIT = 10000;
+    private static final String DEFAULT_ORDER_BY = "jcr:created";
 
     @Override
     protected Response handleRequest(Request request) throws IOException {
         String query = request.getParameter("q", "");
-        if(query.trim().length() == 0) {
+        String type = request.getParameter("type");
+        if(query.trim().length() == 0 && type == null) {
             return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("No Query Provided");
         } else {
             Session session = request.getResourceResolver().adaptTo(Session.class);
-            JsonResponse answer = new JsonResponse();
             try {
                 QueryManager qm = session.getWorkspace().getQueryManager();
-                Query q = qm.createQuery(query, Query.SQL);
-                q.setLimit(ROWS_PER_PAGE+1);
-                String pageParam = request.getParameter("page", "0");
-                int page = 0;
-                try {
-                    page = Integer.parseInt(pageParam);
-                } catch(NumberFormatException e) {
-                    logger.warn("Given Page: '" + pageParam + "' could not be converted to an integer -> ignored", e);
+                SearchQuery searchQuery;
+                if(query.trim().length() > 0) {
+                    String language = "sql".equalsIgnoreCase(request.getParameter("lang")) ? Query.SQL : Query.JCR_SQL2;
+                    String pageParam = request.getParameter("page", "0");
+                    int page = 0;
+                    try {
+                        page = Integer.parseInt(pageParam);
+                    } catch(NumberFormatException e) {
+                        logger.warn("Given Page: '" + pageParam + "' could not be converted to an integer -> ignored", e);
+                    }
+                    searchQuery = new SearchQuery(query, language, Math.max(0, page));
+                } else {
+                    searchQuery = new SearchQuery(type, request.getParameter("path"), request.getParameter("where"),
+                        request.getParameter("orderBy", DEFAULT_ORDER_BY), request.getParameter("after"));
                 }
-                q.setOffset(page*ROWS_PER_PAGE);
-
-                QueryResult res = q.execute();
-                NodeIterator nodes = res.getNodes();
-                answer.writeAttribute("current", 1);
-                answer.writeAttribute("more", nodes.getSize() > ROWS_PER_PAGE);
-                answer.writeArray("data");
-                while(nodes.hasNext()) {
-                    Node node = nodes.nextNode();
-                    answer.writeObject();
-                    answer.writeAttribute("name", node.getName());
-                    answer.writeAttribute("path", node.getPath());
-                    answer.writeClose();
+                ValueFactory valueFactory = session.getValueFactory();
+                if("true".equals(request.getParameter("explain"))) {
+                    return explain(qm, valueFactory, searchQuery);
                 }
-                answer.writeClose();
-                return answer;
+                final Long total;
+                final boolean totalApproximate;
+                if("true".equals(request.getParameter("count"))) {
+                    RowIterator rows = searchQuery.createCountQuery(qm).execute().getRows();
+                    long size = rows.getSize();
+                    if(size >= 0) {
+                        // The size is only known if Oak's fast query size is enabled and then it is an estimate
+                        totalApproximate = true;
+                    } else {
+                        size = 0;
+                        while(rows.hasNext() && size < COUNT_LIMIT) {
+                            rows.nextRow();
+                            size++;
+                        }
+                        // The count is exact unless it stopped at the limit
+                        totalApproximate = rows.hasNext();
+                    }
+                    total = size;
+                } else {
+                    total = null;
+                    totalApproximate = false;
+                }
+                final SearchQuery result = searchQuery;
+                QueryResult res = searchQuery.createQuery(qm, valueFactory).execute();
+                final NodeIterator nodes = res.getNodes();
+                // The result is streamed as it is read from the query result
+                return new StreamingJsonResponse() {
+                    @Override
+                    protected void writeContent() throws IOException {
+                        writeAttribute("current", result.page + 1);
+                        if(total != null) {
+                            writeAttribute("total", total);
+                            writeAttribute("totalApproximate", totalApproximate);
+                        }
+                        writeArray("data");
+                        String next = null;
+                        try {
+                            String lastValue = result.afterValue;
+                            long sameValue = result.afterSkip;
+                            long count = 0;
+                            while(nodes.hasNext() && count < ROWS_PER_PAGE) {
+                                Node node = nodes.nextNode();
+                                if(result.orderBy != null) {
+                                    Property property = node.getProperty(result.orderBy);
+                                    String value = property.isMultiple() ? property.getValues()[0].getString() : property.getString();
+                                    sameValue = value.equals(lastValue) ? sameValue + 1 : 1;
+                                    lastValue = value;
+                                }
+                                writeObject();
+                                writeAttribute("name", node.getName());
+                                writeAttribute("path", node.getPath());
+                                writeClose();
+                                count++;
+                            }
+                            if(nodes.hasNext() && result.orderBy != null) {
+                                next = sameValue + ":" + lastValue;
+                            }
+                        } catch(RepositoryException e) {
+                            throw new IOException("Failed to read the query result", e);
+                        }
+                        writeClose();
+                        writeAttribute("more", nodes.hasNext());
+                        if(next != null) {
+                            writeAttribute("next", next);
+                        }
+                    }
+                };
             } catch(Exception e) {
                 return new ErrorResponse().setHttpErrorCode(SC_BAD_REQUEST).setErrorMessage("Failed to execute the query").setException(e);
             }
         }
     }
-}
 
+    private Response explain(QueryManager qm, ValueFactory valueFactory, SearchQuery searchQuery) throws RepositoryException, IOException {
+        Query query = searchQuery.createQuery(qm, valueFactory, "explain ", false);
+        RowIterator rows = query.execute().getRows();
+        JsonResponse answer = new JsonResponse();
+        answer.writeAttribute("statement", searchQuery.statement);
+        answer.writeAttribute("language", searchQuery.language);
+        if(rows.hasNext()) {
+            answer.writeAttribute("plan", rows.nextRow().getValue("plan").getString());
+        }
+        return answer;
+    }
+
+    /** Query Statement and its Paging **/
+    private static class SearchQuery {
+        private final String statement;
+        /** Statement without the cursor condition **/
+        private final String countStatement;
+        private final String language;
+        private final int page;
+        /** Ordering Property of a keyset paged query or null if paged by offset **/
+        private final String orderBy;
+        private final String afterValue;
+        /** Number of rows with the after value already returned **/
+        private final long afterSkip;
+
+        /** Query paged by offset **/
+        private SearchQuery(String statement, String language, int page) {
+            this.statement = statement;
+            this.countStatement = statement;
+            this.language = language;
+            this.page = page;
+            this.orderBy = null;
+            this.afterValue = null;
+            this.afterSkip = 0;
+        }
+
+        /** JCR-SQL2 Query paged by cursor on the ordering property. Nodes without it are not found **/
+        private SearchQuery(String type, String path, String condition, String orderBy, String after) {
+            checkName(type);
+            checkName(orderBy);
+            StringBuilder builder = new StringBuilder("SELECT * FROM [").append(type).append("] AS s WHERE s.[")
+                .append(orderBy).append("] IS NOT NULL");
+            if(path != null && !path.isEmpty()) {
+                checkName(path);
+                builder.append(" AND ISDESCENDANTNODE(s, [").append(path).append("])");
+            }
+            if(condition != null && !condition.trim().isEmpty()) {
+                builder.append(" AND (").append(condition).append(")");
+            }
+            this.countStatement = builder + " ORDER BY s.[" + orderBy + "]";
+            long skip = 0;
+            String value = null;
+            if(after != null && !after.isEmpty()) {
+                int index = after.indexOf(':');
+                if(index <= 0) {
+                    throw new IllegalArgumentException("Invalid Cursor: " + after);
+                }
+                skip = Long.parseLong(after.substring(0, index));
+                value = after.substring(index + 1);
+                builder.append(" AND s.[").append(orderBy).append("] >= $after");
+            }
+            builder.append(" ORDER BY s.[").append(orderBy).append("]");
+            this.statement = builder.toString();
+            this.language = Query.JCR_SQL2;
+            this.page = 0;
+            this.orderBy = orderBy;
+            this.afterValue = value;
+            this.afterSkip = skip;
+        }
+
+        private static void checkName(String name) {
+            if(name == null || name.isEmpty() || name.contains("]")) {
+                throw new IllegalArgumentException("Invalid Name: " + name);
+            }
+        }
+
+        private Query createQuery(QueryManager qm, ValueFactory valueFactory) throws RepositoryException {
+            return createQuery(qm, valueFactory, "", true);
+        }
+
+        /** The count query does not skip the rows of the previous pages **/
+        private Query createCountQuery(QueryManager qm) throws RepositoryException {
+            Query answer = qm.createQuery(countStatement, language);
+            answer.setLimit(COUNT_LIMIT + 1);
+            return answer;
+        }
+
+        private Query createQuery(QueryManager qm, ValueFactory valueFactory, String prefix, boolean paged) throws RepositoryException {
+            Query answer = qm.createQuery(prefix + statement, language);
+            if(afterValue != null) {
+                answer.bindValue("after", valueFactory.createValue(afterValue));
+            }
+            if(paged) {
+                // The rows with the after value that were already returned are skipped
+                answer.setLimit(ROWS_PER_PAGE + 1);
+                answer.setOffset(orderBy != null ? afterSkip : page * ROWS_PER_PAGE);
+            }
+            return answer;
+        }
+    }
+}
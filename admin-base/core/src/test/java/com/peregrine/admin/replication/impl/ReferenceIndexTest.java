@@ -0,0 +1,46 @@
+package com.peregrine.admin.replication.impl;
+
+import com.peregrine.admin.replication.impl.ReferenceIndex.Link;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReferenceIndexTest {
+
+    private static final String IMAGE = "/content/assets/example/logo.png";
+
+    @Test
+    public void testReverseLookup() {
+        ReferenceIndex index = new ReferenceIndex();
+        Map<String, Collection<String>> references = new LinkedHashMap<>();
+        references.put("image", Collections.singletonList(IMAGE));
+        references.put("link", Collections.singletonList("/content/sites/example/contact"));
+        index.put("/content/sites/example/index/jcr:content/n1", references);
+        index.put("/content/sites/example/about/jcr:content/n2", Collections.singletonMap("image", Collections.singletonList(IMAGE)));
+
+        List<Link> links = index.get(IMAGE);
+        assertEquals("Both references expected", 2, links.size());
+        assertEquals("Links must be ordered by path", "/content/sites/example/about/jcr:content/n2", links.get(0).getSourcePath());
+        assertEquals("Property Name expected", "image", links.get(0).getPropertyName());
+
+        index.put("/content/sites/example/index/jcr:content/n1", Collections.singletonMap("link", Collections.singletonList("/content/sites/example/contact")));
+        assertEquals("Replaced reference must be gone", 1, index.get(IMAGE).size());
+
+        index.put("/content/sites/example/news/jcr:content/n3", Collections.singletonMap("text", Arrays.asList(IMAGE, "/content/sites/example/contact")));
+        assertEquals("Every reference of a property must be found", 2, index.get(IMAGE).size());
+        assertEquals("Every reference of a property must be found", 2, index.get("/content/sites/example/contact").size());
+        index.remove("/content/sites/example/news");
+
+        index.remove("/content/sites/example/about");
+        assertTrue("References below a removed resource must be gone", index.get(IMAGE).isEmpty());
+        assertEquals("Other references must be kept", 1, index.get("/content/sites/example/contact").size());
+    }
+}
@@ -0,0 +1,127 @@
+package com.peregrine.admin.replication.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the Reference Matcher with the former prefix loop on the property
+ * values of the content packages in this project.
+ *
+ * Run it from the admin-base/core folder with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.peregrine.admin.replication.impl.ReferenceMatcherBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReferenceMatcherBenchmark {
+
+    private static final Pattern ATTRIBUTE = Pattern.compile("\\s[\\w:]+=\"([^\"]*)\"");
+
+    /** Folder that is scanned for the content packages **/
+    @Param({"../.."})
+    public String root;
+
+    /** Reference Prefixes separated by commas **/
+    @Param({"/content/", "/content/,/apps/"})
+    public String prefixes;
+
+    private List<String> prefixList;
+    private List<String> values;
+    private ReferenceMatcher matcher;
+
+    @Setup
+    public void setup() throws IOException {
+        prefixList = Arrays.asList(prefixes.split(","));
+        matcher = new ReferenceMatcher(prefixList);
+        values = readValues(Paths.get(root));
+        if(values.isEmpty()) {
+            throw new IllegalStateException("No property values found below: " + Paths.get(root).toAbsolutePath());
+        }
+    }
+
+    @Benchmark
+    public void prefixLoop(Blackhole blackhole) {
+        for(Object value: values) {
+            String text = value + "";
+            for(String prefix: prefixList) {
+                if(text.startsWith(prefix)) {
+                    blackhole.consume(text);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void referenceMatcher(Blackhole blackhole) {
+        List<String> found = new ArrayList<>();
+        for(Object value: values) {
+            matcher.find(value, found);
+        }
+        blackhole.consume(found);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(
+            new OptionsBuilder().include(ReferenceMatcherBenchmark.class.getSimpleName()).build()
+        ).run();
+    }
+
+    /** @return Attribute Values of the .content.xml files in the content packages below the given folder **/
+    private static List<String> readValues(Path root) throws IOException {
+        final List<String> answer = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+                return name.equals("node_modules") || name.equals("target") || name.startsWith(".git") ?
+                    FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if(file.toString().contains("jcr_root/content") && file.getFileName().toString().equals(".content.xml")) {
+                    Matcher matcher = ATTRIBUTE.matcher(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                    while(matcher.find()) {
+                        answer.add(unescape(matcher.group(1)));
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return answer;
+    }
+
+    private static String unescape(String value) {
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+    }
+}
@@ -0,0 +1,53 @@
+package com.peregrine.admin.replication.impl;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReferenceMatcherTest {
+
+    private final ReferenceMatcher matcher = new ReferenceMatcher(Arrays.asList("/content/", "/apps/", "images/"));
+
+    @Test
+    public void testWholeValues() {
+        assertEquals("Absolute Reference expected", Arrays.asList("/content/assets/logo.png"), find("/content/assets/logo.png"));
+        assertEquals("Relative Reference expected", Arrays.asList("images/logo.png"), find("images/logo.png"));
+        assertEquals("Values of a String Array expected",
+            Arrays.asList("/content/sites/a", "/apps/example/b"),
+            find(new String[] { "/content/sites/a", "text", "/apps/example/b" })
+        );
+    }
+
+    @Test
+    public void testEmbeddedReferences() {
+        assertEquals("HTML Links expected",
+            Arrays.asList("/content/sites/example/about.html", "/content/assets/logo.png"),
+            find("<p>See <a href=\"/content/sites/example/about.html?x=1#top\">about</a> <img src='/content/assets/logo.png'></p>")
+        );
+        assertEquals("Markdown Link and Text Path expected",
+            Arrays.asList("/content/sites/example/contact", "/apps/example/components/text"),
+            find("Call [us](/content/sites/example/contact) or see /apps/example/components/text.")
+        );
+        assertTrue("Relative Prefixes are not searched in text", find("see images/logo.png").isEmpty());
+        assertTrue("Paths inside URLs are not references", find("<a href=\"https://example.com/content/sites/a\">a</a>").isEmpty());
+    }
+
+    @Test
+    public void testOtherValuesAreSkipped() {
+        assertTrue("Non String Value must be skipped", find(42L).isEmpty());
+        assertTrue("Binary Value must be skipped", find(new ByteArrayInputStream("/content/sites/a".getBytes())).isEmpty());
+        assertTrue("Value without a Reference expected to be skipped", find("plain text").isEmpty());
+    }
+
+    private List<String> find(Object value) {
+        List<String> answer = new ArrayList<>();
+        matcher.find(value, answer);
+        return answer;
+    }
+}
@@ -0,0 +1,47 @@
+package com.peregrine.admin.resource;
+
+import com.peregrine.admin.resource.ChangeJournal.Changes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeJournalServiceTest {
+
+    @Test
+    public void testChangesSince() throws Exception {
+        ChangeJournalService journal = new ChangeJournalService();
+        long cursor = journal.getCursor();
+        journal.record("/content/sites/example/a", "ADDED");
+        journal.record("/content/assets/b", "CHANGED");
+        journal.record("/content/sites/example", "REMOVED");
+
+        Changes changes = journal.getChanges(cursor, "/content/sites/example/a", 10);
+        assertFalse("Changes must not be reset", changes.isReset());
+        assertEquals("Change and removed ancestor expected", 2, changes.getChanges().size());
+        assertEquals("Cursor must be at the end", cursor + 3, changes.getCursor());
+
+        changes = journal.getChanges(cursor, null, 1);
+        assertEquals("Limit not applied", 1, changes.getChanges().size());
+        assertTrue("More changes expected", changes.hasMore());
+        assertEquals("Cursor must point to the next change", cursor + 1, changes.getCursor());
+
+        changes = journal.getChanges(journal.getCursor(), null, 10);
+        assertTrue("No changes expected", changes.getChanges().isEmpty());
+        assertFalse("No changes expected while waiting", journal.awaitChanges(journal.getCursor(), 10));
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        ChangeJournalService journal = new ChangeJournalService();
+        long cursor = journal.getCursor();
+        for(int i = 0; i < 5000; i++) {
+            journal.record("/content/sites/page" + i, "ADDED");
+        }
+        Changes changes = journal.getChanges(cursor, null, 10);
+        assertTrue("Lost changes must reset the client", changes.isReset());
+        assertEquals("Reset must provide the current cursor", journal.getCursor(), changes.getCursor());
+        assertTrue("Unknown cursor must reset the client", journal.getChanges(journal.getCursor() + 1, null, 10).isReset());
+    }
+}
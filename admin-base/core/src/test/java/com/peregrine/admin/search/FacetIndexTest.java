@@ -0,0 +1,57 @@
+package com.peregrine.admin.search;
+
+import com.peregrine.admin.search.ContentSearch.Asset;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FacetIndexTest {
+
+    @Test
+    public void testExtract() {
+        Map<String, Map<String, Object>> tags = new HashMap<>();
+        tags.put("exif_ifd0", Collections.<String, Object>singletonMap("model", "Canon EOS 5D"));
+        tags.put("iptc", Collections.<String, Object>singletonMap("keywords", "Beach; Sunset"));
+        tags.put("png-ihdr", Collections.<String, Object>singletonMap("raw_tags", "{\"Image Width\":\"1600\",\"Image Height\":\"480\"}"));
+        Map<String, Set<String>> facets = FacetIndex.extract("image/PNG", tags);
+        assertEquals("Mime Type expected", Collections.singleton("image/png"), facets.get(FacetIndex.FACET_MIME_TYPE));
+        assertEquals("Camera expected", Collections.singleton("Canon EOS 5D"), facets.get(FacetIndex.FACET_CAMERA));
+        assertTrue("Keywords must be split", facets.get(FacetIndex.FACET_KEYWORDS).containsAll(Arrays.asList("beach", "sunset")));
+        assertEquals("Width bucket expected", Collections.singleton("1280-1919"), facets.get(FacetIndex.FACET_WIDTH));
+        assertEquals("Height bucket expected", Collections.singleton("0-639"), facets.get(FacetIndex.FACET_HEIGHT));
+        assertEquals("Largest bucket expected", "3840+", FacetIndex.toBucket(5000));
+    }
+
+    @Test
+    public void testFind() {
+        FacetIndex index = new FacetIndex();
+        index.put("/content/assets/a.png", FacetIndex.extract("image/png", null));
+        index.put("/content/assets/b.jpg", FacetIndex.extract("image/jpeg", null));
+        index.put("/content/assets/sub/c.png", FacetIndex.extract("image/png", null));
+        index.put("/content/assets2/d.png", FacetIndex.extract("image/png", null));
+
+        Map<String, Collection<String>> filters = new HashMap<>();
+        filters.put(FacetIndex.FACET_MIME_TYPE, Collections.singleton("image/png"));
+        List<Asset> assets = index.find("/content/assets", filters);
+        assertEquals("Filter and path not applied", 2, assets.size());
+        assertEquals("Assets must be ordered by path", "/content/assets/a.png", assets.get(0).getPath());
+        assertEquals("All assets below the path expected", 3, index.find("/content/assets", null).size());
+
+        filters.put(FacetIndex.FACET_MIME_TYPE, Arrays.asList("image/png", "image/jpeg"));
+        assertEquals("Values of a facet are alternatives", 4, index.find(null, filters).size());
+        filters.put(FacetIndex.FACET_CAMERA, Collections.singleton("Canon"));
+        assertTrue("All facets must match", index.find(null, filters).isEmpty());
+
+        index.remove("/content/assets");
+        assertEquals("Assets below the removed path must be gone", 1, index.size());
+    }
+}
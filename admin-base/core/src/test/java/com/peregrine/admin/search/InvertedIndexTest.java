@@ -0,0 +1,53 @@
+package com.peregrine.admin.search;
+
+import com.peregrine.admin.search.ContentSearch.Hit;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InvertedIndexTest {
+
+    @Test
+    public void testRanking() {
+        InvertedIndex index = new InvertedIndex();
+        index.put("/content/sites/example/about", "page", "About Us", "We build a content management system");
+        index.put("/content/sites/example/contact", "page", "Contact", "Write us about the Caf\u00e9");
+        index.put("/content/assets/cafe.jpg", "asset", "cafe.jpg", "location paris");
+
+        List<Hit> hits = index.search("about", null);
+        assertEquals("Unexpected number of hits", 2, hits.size());
+        assertEquals("Title match must rank first", "/content/sites/example/about", hits.get(0).getPath());
+
+        hits = index.search("CAFE", null);
+        assertEquals("Diacritics and case must be ignored", 2, hits.size());
+
+        hits = index.search("cafe", "/content/assets");
+        assertEquals("Path must restrict the hits", 1, hits.size());
+        assertEquals("Unexpected type", "asset", hits.get(0).getType());
+    }
+
+    @Test
+    public void testUpdateAndRemove() {
+        InvertedIndex index = new InvertedIndex();
+        index.put("/content/sites/example", "page", "Example", "first version");
+        index.put("/content/sites/example/child", "page", "Child", "first child");
+        index.put("/content/sites/example", "page", "Example", "second version");
+        assertEquals("Replaced text must not be found", 1, index.search("first", null).size());
+        assertEquals("New text must be found", 1, index.search("second", null).size());
+
+        index.remove("/content/sites/example");
+        assertEquals("Removal must include the children", 0, index.size());
+        assertTrue("Removed documents must not be found", index.search("child", null).isEmpty());
+    }
+
+    @Test
+    public void testHighlight() {
+        InvertedIndex index = new InvertedIndex();
+        index.put("/content/sites/example", "page", "Example", "Peregrine is a <head-less> CMS");
+        Hit hit = index.search("cms", null).get(0);
+        assertEquals("Unexpected highlight", "Peregrine is a &lt;head-less&gt; <em>CMS</em>", hit.getHighlight());
+    }
+}
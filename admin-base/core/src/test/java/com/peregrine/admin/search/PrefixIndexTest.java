@@ -0,0 +1,46 @@
+package com.peregrine.admin.search;
+
+import com.peregrine.admin.search.ContentSearch.Suggestion;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PrefixIndexTest {
+
+    @Test
+    public void testLookup() {
+        PrefixIndex index = new PrefixIndex();
+        index.put("/content/sites/example/about", "page", "About Us", "about");
+        index.put("/content/sites/example/contact", "page", "Contact", "contact");
+        index.put("/content/assets/example/usage.png", "asset", null, "usage.png");
+        index.put("/content/objects/example/caf\u00e9", "object", "Caf\u00e9 Menu", "caf\u00e9");
+
+        assertEquals("Word and name prefixes expected", 2, paths(index.lookup("us", null)).size());
+        assertEquals("Title prefix with a space expected", "/content/sites/example/about", paths(index.lookup("About U", null)).get(0));
+        assertEquals("Name is the title if there is none", "usage.png", index.lookup("usa", null).next().getTitle());
+        assertEquals("Diacritics must be ignored", 1, paths(index.lookup("CAFE", null)).size());
+        assertEquals("Path restriction not applied", 1, paths(index.lookup("us", "/content/assets")).size());
+        assertFalse("Empty prefix must not match", index.lookup(" ", null).hasNext());
+
+        index.put("/content/sites/example/contact", "page", "Imprint", "contact");
+        assertEquals("Replaced title must be found", 1, paths(index.lookup("impr", null)).size());
+        assertEquals("Only the name is left", 1, paths(index.lookup("cont", null)).size());
+
+        index.remove("/content/sites/example");
+        assertFalse("Removed children must not be found", index.lookup("about", null).hasNext());
+        assertEquals("Other documents must be kept", 2, index.size());
+    }
+
+    private List<String> paths(Iterator<Suggestion> suggestions) {
+        List<String> answer = new ArrayList<>();
+        while(suggestions.hasNext()) {
+            answer.add(suggestions.next().getPath());
+        }
+        return answer;
+    }
+}
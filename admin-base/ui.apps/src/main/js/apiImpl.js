@@ -35,6 +35,7 @@ const postConfig = {
 }
 
 let callbacks
+let bootstrap
 
 function fetch(path) {
 
@@ -141,6 +142,28 @@ function populateView(path, name, data) {
 }
 
 
+/**
+ * provides the named part of the bootstrap document the first time it is
+ * requested so that the admin shell starts with a single request. Later
+ * requests fetch the given path to get the current data
+ */
+function fetchBootstrapped(name, path) {
+    if(!bootstrap) {
+        bootstrap = fetch('/admin/bootstrap.json').catch( (error) => {
+            logger.error('bootstrap request failed, loading the data one by one')
+            return {}
+        })
+    }
+    return bootstrap.then( (data) => {
+        if(data[name] !== undefined) {
+            const answer = data[name]
+            delete data[name]
+            return answer
+        }
+        return fetch(path)
+    })
+}
+
 class PerAdminImpl {
 
     constructor(cb) {
@@ -149,7 +172,7 @@ class PerAdminImpl {
 
     populateTools() {
         return new Promise( (resolve, reject) => {
-            fetch('/admin/list.json/tools')
+            fetchBootstrapped('tools', '/admin/list.json/tools')
                 .then( (data) => populateView('/admin', 'tools', data.children) )
                 .then(() => resolve() )
                 .catch( (error) => {
@@ -161,7 +184,7 @@ class PerAdminImpl {
 
     populateToolsConfig() {
         return new Promise( (resolve, reject) => {
-            fetch('/admin/list.json/tools/config')
+            fetchBootstrapped('toolsConfig', '/admin/list.json/tools/config')
                 .then( (data) => populateView('/admin', 'toolsConfig', data.children) )
                 .then(() => resolve() )
         })
@@ -192,7 +215,7 @@ class PerAdminImpl {
 
     populateComponents() {
         return new Promise( (resolve, reject) => {
-            fetch('/admin/components.json')
+            fetchBootstrapped('components', '/admin/components.json')
                 .then( (data) => populateView('/admin', 'components', data) )
                 .then( () => resolve() )
         })
@@ -200,7 +223,7 @@ class PerAdminImpl {
 
     populateObjects() {
         return new Promise( (resolve, reject) => {
-            fetch('/admin/objects.json')
+            fetchBootstrapped('objects', '/admin/objects.json')
                 .then( (data) => populateView('/admin', 'objects', data) )
                 .then( () => resolve() )
         })
@@ -208,7 +231,7 @@ class PerAdminImpl {
 
     populateTemplates() {
         return new Promise( (resolve, reject) => {
-            fetch('/admin/templates.json')
+            fetchBootstrapped('templates', '/admin/templates.json')
                 .then( (data) => populateView('/admin', 'templates', data) )
                 .then( () => resolve() )
         })
@@ -0,0 +1,228 @@
+package com.peregrine.nodetypes.merge;
+
+/*-
+ * #%L
+ * peregrine default node types - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Merges the data of a page onto the data of its template.
+ *
+ * Scalar values of the page replace the ones of the template and
+ * arrays are merged by the 'path' of their objects: an object of the
+ * page is merged onto the template object with the same path (recursively
+ * for nested containers) and otherwise appended. Template arrays are
+ * indexed by path so that merging is linear in the size of the arrays.
+ *
+ * The template is never modified so that it can be shared.
+ */
+public final class MergeEngine {
+
+    public static final String PATH = "path";
+    public static final String COMPONENT = "component";
+
+    private MergeEngine() {
+    }
+
+    /**
+     * Merges the page onto the template
+     * @param template Template Object which is not modified
+     * @param page Page Object
+     * @return New Object which shares all the unchanged values with the template
+     */
+    public static Map merge(Map template, Map page) {
+        TreeMap answer = new TreeMap(template);
+        for(Object key: page.keySet()) {
+            Object value = page.get(key);
+            if(!isOverlay(key, value)) {
+                continue;
+            }
+            if(value instanceof List) {
+                // Lists of the template are shared and so the merge creates a new one
+                Object target = answer.get(key);
+                answer.put(key, mergeArrays(target instanceof List ? (List) target : Collections.emptyList(), (List) value));
+            } else {
+                answer.put(key, value);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Merges the page array onto the template array
+     * @param source Template Array which is not modified
+     * @param value Page Array
+     * @return New Array with the template entries (merged if found in the page) followed by the new page entries
+     */
+    public static List mergeArrays(List source, List value) {
+        List answer = new ArrayList(source);
+        Map<Object, Integer> index = indexByPath(answer);
+        Set seen = null;
+        for(Object val: value) {
+            Object path = getPath(val);
+            if(path != null) {
+                Integer position = index.get(path);
+                if(position != null) {
+                    answer.set(position, merge((Map) answer.get(position), (Map) val));
+                } else {
+                    index.put(path, answer.size());
+                    answer.add(val);
+                }
+            } else {
+                // Entries without a path are only added if not already present
+                if(seen == null) {
+                    seen = new HashSet(answer);
+                }
+                if(seen.add(val)) {
+                    answer.add(val);
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Writes the merge of the page onto the template. This yields the same
+     * output as merge() but no merged copy is created.
+     * @param generator JSon Generator the merged object is written to. It must have a codec
+     * @param template Template Object
+     * @param page Page Object
+     * @throws IOException If writing the JSon failed
+     */
+    public static void write(JsonGenerator generator, Map template, Map page) throws IOException {
+        TreeSet keys = new TreeSet(template.keySet());
+        for(Object key: page.keySet()) {
+            if(isOverlay(key, page.get(key))) {
+                keys.add(key);
+            }
+        }
+        generator.writeStartObject();
+        for(Object key: keys) {
+            generator.writeFieldName(key.toString());
+            Object value = page.get(key);
+            if(page.containsKey(key) && isOverlay(key, value)) {
+                if(value instanceof List) {
+                    Object target = template.get(key);
+                    writeArrays(generator, target instanceof List ? (List) target : Collections.emptyList(), (List) value);
+                } else {
+                    generator.writeObject(value);
+                }
+            } else {
+                generator.writeObject(template.get(key));
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeArrays(JsonGenerator generator, List target, List value) throws IOException {
+        Map<Object, Integer> index = indexByPath(target);
+        // Page Objects to be merged onto the template entry at the same position
+        List[] overlays = new List[target.size()];
+        List appended = new ArrayList();
+        Map<Object, Integer> appendedIndex = new HashMap<>();
+        Set seen = null;
+        for(Object val: value) {
+            Object path = getPath(val);
+            if(path != null) {
+                Integer position = index.get(path);
+                if(position != null) {
+                    if(overlays[position] == null) {
+                        overlays[position] = new ArrayList();
+                    }
+                    overlays[position].add(val);
+                } else {
+                    position = appendedIndex.get(path);
+                    if(position != null) {
+                        appended.set(position, merge((Map) appended.get(position), (Map) val));
+                    } else {
+                        appendedIndex.put(path, appended.size());
+                        appended.add(val);
+                    }
+                }
+            } else {
+                if(seen == null) {
+                    seen = new HashSet(target);
+                }
+                if(seen.add(val)) {
+                    appended.add(val);
+                }
+            }
+        }
+        generator.writeStartArray();
+        for(int i = 0; i < target.size(); i++) {
+            Object item = target.get(i);
+            if(overlays[i] == null) {
+                generator.writeObject(item);
+            } else {
+                Map merged = (Map) item;
+                // Only multiple page objects with the same path need an intermediate merge
+                for(int j = 0; j < overlays[i].size() - 1; j++) {
+                    merged = merge(merged, (Map) overlays[i].get(j));
+                }
+                write(generator, merged, (Map) overlays[i].get(overlays[i].size() - 1));
+            }
+        }
+        for(Object item: appended) {
+            generator.writeObject(item);
+        }
+        generator.writeEndArray();
+    }
+
+    /** @return Map of the positions of the objects in the list by their path. Paths are unique within a container **/
+    private static Map<Object, Integer> indexByPath(List list) {
+        Map<Object, Integer> answer = new HashMap<>(list.size() * 2);
+        for(int i = 0; i < list.size(); i++) {
+            Object path = getPath(list.get(i));
+            if(path != null && !answer.containsKey(path)) {
+                answer.put(path, i);
+            }
+        }
+        return answer;
+    }
+
+    /** @return The path of the object if it is a Map and has a path otherwise null **/
+    private static Object getPath(Object item) {
+        return item instanceof Map ? ((Map) item).get(PATH) : null;
+    }
+
+    /** @return True if the page value of the given key is put onto the template **/
+    private static boolean isOverlay(Object key, Object value) {
+        if(COMPONENT.equals(key) && "nt:unstructured".equals(value)) {
+            return false;
+        }
+        return !(value instanceof Map);
+    }
+}
@@ -27,10 +27,11 @@ package com.peregrine.nodetypes.merge;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.peregrine.commons.util.PerJson;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.request.RequestDispatcherOptions;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.scripting.SlingScriptHelper;
 import org.apache.sling.models.factory.ExportException;
 import org.apache.sling.models.factory.MissingExporterException;
@@ -45,9 +46,13 @@ import org.slf4j.LoggerFactory;
 import javax.script.Bindings;
 import javax.servlet.Servlet;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.*;
 
+import static com.peregrine.commons.util.PerConstants.JCR_CONTENT;
+import static com.peregrine.commons.util.PerConstants.JCR_LAST_MODIFIED;
+import static com.peregrine.commons.util.PerConstants.PAGE_PRIMARY_TYPE;
+import static com.peregrine.commons.util.PerUtil.TEMPLATE;
+
 /**
  * Created by rr on 5/8/2017.
  */
@@ -61,8 +66,28 @@ public class PageMerge implements Use {
 //    @Reference
     ModelFactory modelFactory;
 
+    PageMergeCache pageMergeCache;
+
     private SlingHttpServletRequest request;
 
+    public static final String FROM_TEMPLATE = "fromTemplate";
+
+    public PageMerge() {
+    }
+
+    /**
+     * Creates a Page Merge outside of a script (servlets)
+     * @param request Request of the Page
+     * @param modelFactory Model Factory to export the page models
+     * @param pageMergeCache Page Merge Cache which can be null
+     */
+    public PageMerge(SlingHttpServletRequest request, ModelFactory modelFactory, PageMergeCache pageMergeCache) {
+        this.request = request;
+        this.modelFactory = modelFactory;
+        this.pageMergeCache = pageMergeCache;
+        renderContext.set(new RenderContext(request));
+    }
+
     public static RenderContext getRenderContext() {
         return renderContext.get();
     }
@@ -77,26 +102,123 @@ public class PageMerge implements Use {
     }
 
     public Map getMerged(Resource resource) {
+        if(pageMergeCache == null) {
+            return mergePage(resource, new ArrayList<String>());
+        }
+        List<String> dependencies = new ArrayList<>();
+        String revision = getRevision(resource, dependencies);
+        Map answer = pageMergeCache.get(resource.getPath(), revision);
+        if(answer == null) {
+            boolean previous = startRequestTracking();
+            answer = mergePage(resource, dependencies);
+            if(endRequestTracking(previous)) {
+                addDependency(dependencies, getSitePath());
+            }
+            if(!answer.isEmpty()) {
+                pageMergeCache.put(resource.getPath(), revision, dependencies, answer);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Creates the revision of the given page which is made up of the path and
+     * last modification date of the page and all templates in its chain
+     * @param resource Page Resource
+     * @param dependencies List to which the paths of the page and its templates are added
+     * @return Revision of the Page
+     */
+    private String getRevision(Resource resource, List<String> dependencies) {
+        StringBuilder answer = new StringBuilder();
+        Resource current = resource;
+        while(current != null && !dependencies.contains(current.getPath())) {
+            dependencies.add(current.getPath());
+            Resource content = current.getChild(JCR_CONTENT);
+            ValueMap properties = content == null ? null : content.getValueMap();
+            Calendar lastModified = properties == null ? null : properties.get(JCR_LAST_MODIFIED, Calendar.class);
+            answer.append(current.getPath()).append('@')
+                .append(lastModified == null ? "-" : lastModified.getTimeInMillis()).append(';');
+            String templatePath = properties == null ? null : properties.get(TEMPLATE, String.class);
+            if(templatePath == null) {
+                templatePath = getParentTemplatePath(current);
+            }
+            current = templatePath == null ? null : request.getResourceResolver().getResource(templatePath);
+        }
+        return answer.toString();
+    }
+
+    /** @return The previous tracking state that must be handed to endRequestTracking() **/
+    private boolean startRequestTracking() {
+        RenderContext context = renderContext.get();
+        return context != null && context.setRequestRead(false);
+    }
+
+    /**
+     * Models like a navigation read the request through the Render Context and so their data
+     * depends on the site of the requested page. Such an entry must depend on the site so
+     * that adding, removing or changing any of its pages evicts it
+     * @param previous Tracking state returned by startRequestTracking()
+     * @return True if the request was read since the tracking started
+     */
+    private boolean endRequestTracking(boolean previous) {
+        RenderContext context = renderContext.get();
+        if(context == null) {
+            return false;
+        }
+        boolean answer = context.setRequestRead(previous);
+        if(answer) {
+            context.setRequestRead(true);
+        }
+        return answer;
+    }
+
+    /** @return Path of the site of the requested page (like /content/sites/example) **/
+    private String getSitePath() {
+        String path = request.getResource().getPath();
+        int index = 0;
+        for(int i = 0; i < 3 && index >= 0; i++) {
+            index = path.indexOf('/', index + 1);
+        }
+        return index < 0 ? path : path.substring(0, index);
+    }
+
+    private static void addDependency(List<String> dependencies, String path) {
+        if(!dependencies.contains(path)) {
+            dependencies.add(path);
+        }
+    }
+
+    /** @return The path of the parent if it is a template page otherwise null **/
+    private String getParentTemplatePath(Resource resource) {
+        Resource parent = resource.getParent();
+        // only use the parent as a template of a template if it is in fact a page
+        if(parent != null && parent.getPath().startsWith("/content/templates/") && PAGE_PRIMARY_TYPE.equals(parent.getResourceType())) {
+            return parent.getPath();
+        }
+        return null;
+    }
+
+    /**
+     * Merges the page with its template
+     * @param resource Page Resource
+     * @param dependencies List to which the dependencies of the used template snapshot are added
+     * @return Merged Page Data which is empty if the page could not be exported
+     */
+    private Map mergePage(Resource resource, List<String> dependencies) {
         try {
             Map page = modelFactory.exportModelForResource(resource.getChild("jcr:content"),
                     "jackson", Map.class,
                     Collections.<String, String> emptyMap());
             String templatePath = (String) page.get("template");
             if(templatePath == null) {
-                if(resource.getParent().getPath().startsWith("/content/templates/")) {
-                    // only use the parent as a template of a template if it is in fact a page
-                    if(resource.getParent().getResourceType().equals("per:Page")) {
-                        templatePath = resource.getParent().getPath();
-                    }
-                }
+                templatePath = getParentTemplatePath(resource);
             }
             if(templatePath != null) {
 //                Map template = modelFactory.exportModelForResource(request.getResourceResolver().getResource(templatePath).getChild("jcr:content"),
 //                        "jackson", Map.class,
 //                        Collections.<String, String> emptyMap());
-                Map template = getMerged(request.getResourceResolver().getResource(templatePath));
-                flagFromTemplate(template);
-                return merge(template, page);
+                Map template = getTemplateSnapshot(request.getResourceResolver().getResource(templatePath), dependencies);
+                return MergeEngine.merge(template, page);
             }
             return page;
         } catch (ExportException e) {
@@ -107,81 +229,130 @@ public class PageMerge implements Use {
         return Collections.<String, String> emptyMap();
     }
 
-    private void flagFromTemplate(Map template) {
-        template.put("fromTemplate", Boolean.TRUE);
-        for(Object key: template.keySet()) {
-            Object value = template.get(key);
-            if(value instanceof ArrayList) {
-                ArrayList arr = (ArrayList) value;
-                for(int i = 0; i < arr.size(); i++) {
-                    Object item = arr.get(i);
-                    if(item instanceof Map) {
-                        flagFromTemplate((Map)arr.get(i));
-                    }
-                }
+    /**
+     * Provides the compiled template which is the template merged with its own templates and
+     * flagged as 'fromTemplate'. The snapshot is immutable and shared by all pages of that template
+     * within the site of the requested page as models like a navigation render site specific data.
+     * @param template Template Page Resource
+     * @param pageDependencies List to which the dependencies of the snapshot are added
+     * @return Immutable Template Snapshot which is empty if the template could not be exported
+     */
+    private Map getTemplateSnapshot(Resource template, List<String> pageDependencies) {
+        if(template == null) {
+            return Collections.emptyMap();
+        }
+        String revision = null;
+        List<String> dependencies = new ArrayList<>();
+        if(pageMergeCache != null) {
+            revision = getRevision(template, dependencies);
+            Map answer = pageMergeCache.getTemplateSnapshot(template.getPath(), getSitePath(), revision, pageDependencies);
+            if(answer != null) {
+                return answer;
             }
         }
+        boolean previous = startRequestTracking();
+        Map merged = mergePage(template, dependencies);
+        if(endRequestTracking(previous)) {
+            addDependency(dependencies, getSitePath());
+        }
+        for(String dependency: dependencies) {
+            addDependency(pageDependencies, dependency);
+        }
+        if(merged.isEmpty()) {
+            return merged;
+        }
+        Map answer = freeze(merged, true);
+        if(pageMergeCache != null) {
+            pageMergeCache.putTemplateSnapshot(template.getPath(), getSitePath(), revision, dependencies, answer);
+        }
+        return answer;
     }
 
-    private Map merge(Map template, Map page) {
-        TreeMap res = new TreeMap();
-        res.putAll(template);
+    /**
+     * Creates an immutable copy of the given object. If flagged the object and all objects in
+     * its arrays are flagged as 'fromTemplate'
+     * @param object Object to be copied
+     * @param flag If true the 'fromTemplate' flag is set
+     * @return Unmodifiable copy of the object
+     */
+    private Map freeze(Map object, boolean flag) {
+        Map answer = new LinkedHashMap();
+        for(Object key: object.keySet()) {
+            answer.put(key, freezeValue(object.get(key), flag));
+        }
+        if(flag) {
+            answer.put(FROM_TEMPLATE, Boolean.TRUE);
+        }
+        return Collections.unmodifiableMap(answer);
+    }
 
-        for (Object key: page.keySet()) {
-            Object value = page.get(key);
-            log.debug("key is {}", key);
-            log.debug("value is {}", value == null ? value : value.getClass());
-            if(key.equals("component") && value.equals("nt:unstructured")) continue;
-            if(value instanceof Map) {
+    private Object freezeValue(Object value, boolean flag) {
+        if(value instanceof Map) {
+            return freeze((Map) value, false);
+        } else if(value instanceof List) {
+            List answer = new ArrayList();
+            for(Object item: (List) value) {
+                if(item instanceof Map) {
+                    answer.add(freeze((Map) item, flag));
+                } else {
+                    answer.add(freezeValue(item, false));
+                }
+            }
+            return Collections.unmodifiableList(answer);
+        }
+        return value;
+    }
 
-            } else if(value instanceof ArrayList) {
-                mergeArrays((ArrayList) res.get(key), (ArrayList) value);
-            } else {
-                res.put(key, value);
+    /**
+     * Writes the merged page data to the given JSon Generator. If the page is not cached
+     * (cache disabled or a miss) the page data is merged with its template while it is
+     * written out so that the merged page data is never created in memory
+     *
+     * @param resource Page Resource
+     * @param generator JSon Generator the merged page data is written to
+     * @throws IOException If writing the JSon failed
+     */
+    public void writeMerged(Resource resource, JsonGenerator generator) throws IOException {
+        if(generator.getCodec() == null) {
+            generator.setCodec(PerJson.getMapper());
+        }
+        if(pageMergeCache != null && pageMergeCache.isEnabled()) {
+            Map cached = pageMergeCache.get(resource.getPath(), getRevision(resource, new ArrayList<String>()));
+            if(cached != null) {
+                generator.writeObject(cached);
+                return;
             }
         }
-//        res.putAll(page);
-        return res;
-    }
-
-    private void mergeArrays(ArrayList target, ArrayList value) {
-        for (Iterator it = value.iterator(); it.hasNext(); ) {
-            Object val = it.next();
-            log.debug("array megre: {}",val.getClass());
-            boolean merged = false;
-            if(val instanceof Map) {
-                Map map = (Map) val;
-                String path = (String) map.get("path");
-                if(path != null) {
-                    log.debug("find entry for {}", path);
-                    for (int i = 0; i < target.size(); i++) {
-                        Object t = target.get(i);
-                        if(((Map)t).get("path").equals(path)) {
-                            log.debug("found");
-                            target.set(i, merge((Map)t, map));
-                            log.debug("{}", target.get(i));
-                            merged = true;
-                        }
-                    }
-                }
+        try {
+            Map page = modelFactory.exportModelForResource(resource.getChild(JCR_CONTENT),
+                    "jackson", Map.class,
+                    Collections.<String, String> emptyMap());
+            String templatePath = (String) page.get(TEMPLATE);
+            if(templatePath == null) {
+                templatePath = getParentTemplatePath(resource);
             }
-
-            if(!target.contains(val) && !merged) {
-                target.add(val);
+            if(templatePath != null) {
+                Map template = getTemplateSnapshot(request.getResourceResolver().getResource(templatePath), new ArrayList<String>());
+                MergeEngine.write(generator, template, page);
+            } else {
+                generator.writeObject(page);
             }
+        } catch (ExportException e) {
+            log.error("not able to export model", e);
+            generator.writeObject(Collections.<String, String> emptyMap());
+        } catch (MissingExporterException e) {
+            log.error("not able to find exporter for model", e);
+            generator.writeObject(Collections.<String, String> emptyMap());
         }
     }
 
     private String toJSON(Map template) {
-        StringWriter writer = new StringWriter();
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            mapper.writeValue(writer, template);
-            writer.close();
+            return PerJson.writeValueAsString(template);
         } catch (IOException e) {
-            log.error("not able to create string writer", e);
+            log.error("not able to write the json", e);
         }
-        return writer.toString();
+        return "";
     }
 
     @Override
@@ -189,6 +360,7 @@ public class PageMerge implements Use {
         request = (SlingHttpServletRequest) bindings.get("request");
         SlingScriptHelper sling = (SlingScriptHelper) bindings.get("sling");
         modelFactory = sling.getService(ModelFactory.class);
+        pageMergeCache = sling.getService(PageMergeCache.class);
         renderContext.set(new RenderContext(request));
     }
 }
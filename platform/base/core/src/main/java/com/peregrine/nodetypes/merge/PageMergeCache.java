@@ -0,0 +1,114 @@
+package com.peregrine.nodetypes.merge;
+
+/*-
+ * #%L
+ * peregrine default node types - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache for the merged Page Data (page plus its template chain)
+ * created by the Page Merge.
+ *
+ * An entry is only returned if the given revision matches the one
+ * the entry was stored with. The revision is built from the path
+ * and last modification date of the page and all of its templates.
+ * Entries are also evicted when resources they depend on change.
+ *
+ * Beside the merged pages it also keeps the compiled templates (template
+ * merged with its own templates) which are shared by all pages of a site
+ * using them.
+ *
+ * Cached Maps are shared between requests and must not be modified.
+ */
+public interface PageMergeCache {
+
+    /** @return True if the cache is enabled. A disabled cache never returns an entry **/
+    boolean isEnabled();
+
+    /**
+     * Obtains the cached merged page data
+     * @param pagePath Path of the Page
+     * @param revision Revision of the page and its template chain
+     * @return The cached merged data or null if not found or outdated
+     */
+    Map get(String pagePath, String revision);
+
+    /**
+     * Stores the merged page data
+     * @param pagePath Path of the Page
+     * @param revision Revision of the page and its template chain
+     * @param dependencies Paths of the page and its templates as well as the site if the
+     *                     page data depends on the request. A change on or below any of
+     *                     them evicts this entry
+     * @param merged Merged Page Data
+     */
+    void put(String pagePath, String revision, List<String> dependencies, Map merged);
+
+    /**
+     * Obtains the cached template snapshot
+     * @param templatePath Path of the Template
+     * @param sitePath Path of the site of the requested page. Models like a navigation render
+     *                 site specific data and so a template has a snapshot for each site
+     * @param revision Revision of the template and its template chain
+     * @param dependencies If not null the dependencies of a found snapshot are added to it so that
+     *                     the pages using the snapshot can depend on them as well
+     * @return The immutable template snapshot or null if not found or outdated
+     */
+    Map getTemplateSnapshot(String templatePath, String sitePath, String revision, List<String> dependencies);
+
+    /**
+     * Stores the template snapshot
+     * @param templatePath Path of the Template
+     * @param sitePath Path of the site of the requested page
+     * @param revision Revision of the template and its template chain
+     * @param dependencies Paths of the template and its templates. A change on or below
+     *                     any of them evicts this entry
+     * @param snapshot Immutable Template Snapshot
+     */
+    void putTemplateSnapshot(String templatePath, String sitePath, String revision, List<String> dependencies, Map snapshot);
+
+    /**
+     * Evicts all entries (pages and templates) that depend on the given path
+     * @param path Path of the changed resource
+     * @return Number of evicted entries
+     */
+    int invalidate(String path);
+
+    /** Evicts all entries **/
+    void clear();
+
+    /** @return Number of requests answered from the cache **/
+    long getHitCount();
+
+    /** @return Number of requests that were not found or outdated **/
+    long getMissCount();
+
+    /** @return Number of entries evicted because of a change **/
+    long getEvictionCount();
+
+    /** @return Number of entries currently in the cache **/
+    long getSize();
+}
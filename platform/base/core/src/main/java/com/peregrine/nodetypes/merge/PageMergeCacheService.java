@@ -0,0 +1,325 @@
+package com.peregrine.nodetypes.merge;
+
+/*-
+ * #%L
+ * peregrine default node types - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static org.apache.sling.api.resource.observation.ResourceChangeListener.PATHS;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Page Merge Cache that evicts its entries when pages or
+ * templates are changed. The entries are indexed by their
+ * dependencies so that a change only visits the entries
+ * that depend on it.
+ */
+@Component(
+    configurationPolicy = ConfigurationPolicy.OPTIONAL,
+    service = { PageMergeCache.class, ResourceChangeListener.class },
+    immediate = true,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Page Merge Cache",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        PATHS + EQUALS + PageMergeCacheService.SITES_ROOT,
+        PATHS + EQUALS + PageMergeCacheService.TEMPLATES_ROOT
+    }
+)
+@Designate(ocd = PageMergeCacheService.Configuration.class)
+public class PageMergeCacheService
+    implements PageMergeCache, ResourceChangeListener
+{
+    public static final String SITES_ROOT = "/content/sites";
+    public static final String TEMPLATES_ROOT = "/content/templates";
+
+    @ObjectClassDefinition(
+        name = "Peregrine: Page Merge Cache",
+        description = "Caches the merged page data of pages and their templates"
+    )
+    @interface Configuration {
+        @AttributeDefinition(
+            name = "Enabled",
+            description = "If disabled the merged page data is never cached"
+        )
+        boolean enabled() default true;
+        @AttributeDefinition(
+            name = "Maximum Entries",
+            description = "Maximum number of pages kept in the cache"
+        )
+        int maxEntries() default 1000;
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private volatile boolean enabled = true;
+    /** Cached Entries by their Dependency Paths. Access must be synchronized on the index **/
+    private final TreeMap<String, Set<Entry>> index = new TreeMap<>();
+    private Cache<String, Entry> cache = createCache(1000);
+    private Cache<String, Entry> templates = createCache(1000);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Activate
+    @SuppressWarnings("unused")
+    void activate(Configuration configuration) { setup(configuration); }
+    @Modified
+    @SuppressWarnings("unused")
+    void modified(Configuration configuration) { setup(configuration); }
+
+    private void setup(Configuration configuration) {
+        enabled = configuration.enabled();
+        int maxEntries = configuration.maxEntries() > 0 ? configuration.maxEntries() : 1000;
+        logger.debug("Page Merge Cache enabled: '{}', maximum entries: '{}'", enabled, maxEntries);
+        synchronized(index) {
+            index.clear();
+        }
+        cache = createCache(maxEntries);
+        templates = createCache(maxEntries);
+    }
+
+    /** Entries removed by the cache itself (size limit, replaced or cleared) are removed from the index as well **/
+    private Cache<String, Entry> createCache(int maxEntries) {
+        return CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .removalListener(new RemovalListener<String, Entry>() {
+                @Override
+                public void onRemoval(RemovalNotification<String, Entry> notification) {
+                    removeFromIndex(notification.getValue());
+                }
+            })
+            .build();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public Map get(String pagePath, String revision) {
+        if(!enabled) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(pagePath);
+        if(entry != null && entry.revision.equals(revision)) {
+            hits.incrementAndGet();
+            return entry.merged;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public void put(String pagePath, String revision, List<String> dependencies, Map merged) {
+        if(enabled && pagePath != null && revision != null && merged != null) {
+            Entry entry = new Entry(pagePath, false, revision, dependencies, merged);
+            addToIndex(entry);
+            cache.put(pagePath, entry);
+        }
+    }
+
+    @Override
+    public Map getTemplateSnapshot(String templatePath, String sitePath, String revision, List<String> dependencies) {
+        if(!enabled) {
+            return null;
+        }
+        Entry entry = templates.getIfPresent(getTemplateKey(templatePath, sitePath));
+        if(entry == null || !entry.revision.equals(revision)) {
+            return null;
+        }
+        if(dependencies != null) {
+            for(String dependency: entry.dependencies) {
+                if(!dependencies.contains(dependency)) {
+                    dependencies.add(dependency);
+                }
+            }
+        }
+        return entry.merged;
+    }
+
+    @Override
+    public void putTemplateSnapshot(String templatePath, String sitePath, String revision, List<String> dependencies, Map snapshot) {
+        if(enabled && templatePath != null && revision != null && snapshot != null) {
+            String key = getTemplateKey(templatePath, sitePath);
+            Entry entry = new Entry(key, true, revision, dependencies, snapshot);
+            addToIndex(entry);
+            templates.put(key, entry);
+        }
+    }
+
+    /** '|' is not allowed in a JCR name and so it cannot be part of either path **/
+    private static String getTemplateKey(String templatePath, String sitePath) {
+        return sitePath == null ? templatePath : templatePath + '|' + sitePath;
+    }
+
+    @Override
+    public int invalidate(String path) {
+        int answer = 0;
+        for(Entry entry: findDependents(path)) {
+            Cache<String, Entry> target = entry.template ? templates : cache;
+            // Only remove the indexed entry and not one that replaced it in the meantime
+            if(target.asMap().remove(entry.key, entry)) {
+                logger.trace("Evict: '{}' because of change on: '{}'", entry.key, path);
+                answer++;
+            }
+        }
+        evictions.addAndGet(answer);
+        return answer;
+    }
+
+    /**
+     * Finds the entries with a dependency that is the same as, a child of or a parent of the given path.
+     * The children are a range in the sorted index ('0' follows '/') and the parents are looked up one by one
+     * @param path Path of the changed resource
+     * @return Entries depending on the given path
+     */
+    private Set<Entry> findDependents(String path) {
+        Set<Entry> answer = new HashSet<>();
+        synchronized(index) {
+            addAll(answer, index.get(path));
+            for(Set<Entry> entries: index.subMap(path + '/', path + '0').values()) {
+                answer.addAll(entries);
+            }
+            for(int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1)) {
+                addAll(answer, index.get(path.substring(0, i)));
+            }
+        }
+        return answer;
+    }
+
+    private static void addAll(Set<Entry> target, Set<Entry> entries) {
+        if(entries != null) {
+            target.addAll(entries);
+        }
+    }
+
+    private void addToIndex(Entry entry) {
+        synchronized(index) {
+            for(String dependency: entry.dependencies) {
+                Set<Entry> entries = index.get(dependency);
+                if(entries == null) {
+                    entries = new HashSet<>();
+                    index.put(dependency, entries);
+                }
+                entries.add(entry);
+            }
+        }
+    }
+
+    private void removeFromIndex(Entry entry) {
+        if(entry == null) {
+            return;
+        }
+        synchronized(index) {
+            for(String dependency: entry.dependencies) {
+                Set<Entry> entries = index.get(dependency);
+                if(entries != null && entries.remove(entry) && entries.isEmpty()) {
+                    index.remove(dependency);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        evictions.addAndGet(cache.size() + templates.size());
+        cache.invalidateAll();
+        templates.invalidateAll();
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        for(ResourceChange change: changes) {
+            invalidate(change.getPath());
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getSize() {
+        return cache.size();
+    }
+
+    private static class Entry {
+        private final String key;
+        private final boolean template;
+        private final String revision;
+        private final List<String> dependencies;
+        private final Map merged;
+
+        private Entry(String key, boolean template, String revision, List<String> dependencies, Map merged) {
+            this.key = key;
+            this.template = template;
+            this.revision = revision;
+            this.dependencies = dependencies == null ?
+                Collections.<String>emptyList() :
+                new ArrayList<>(dependencies);
+            this.merged = merged;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.peregrine.nodetypes.merge;
+
+/*-
+ * #%L
+ * peregrine default node types - Core
+ * %%
+ * Copyright (C) 2017 headwire inc.
+ * %%
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.peregrine.commons.servlets.AbstractBaseServlet;
+import com.peregrine.commons.util.PerJson;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.models.factory.ModelFactory;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.peregrine.commons.util.PerConstants.JCR_CONTENT;
+import static com.peregrine.commons.util.PerConstants.PAGE_PRIMARY_TYPE;
+import static com.peregrine.commons.util.PerUtil.EQUALS;
+import static com.peregrine.commons.util.PerUtil.GET;
+import static com.peregrine.commons.util.PerUtil.PER_PREFIX;
+import static com.peregrine.commons.util.PerUtil.PER_VENDOR;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_EXTENSIONS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_METHODS;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_RESOURCE_TYPES;
+import static org.apache.sling.api.servlets.ServletResolverConstants.SLING_SERVLET_SELECTORS;
+import static org.osgi.framework.Constants.SERVICE_DESCRIPTION;
+import static org.osgi.framework.Constants.SERVICE_VENDOR;
+
+/**
+ * Provides the merged Page Data (.data.json) of a Page
+ *
+ * The merged page is streamed to the response's output stream
+ * instead of being converted into a String by the HTL script first.
+ *
+ * It is invoked like this: curl -u admin:admin http://localhost:8080/content/sites/example.data.json
+ */
+@Component(
+    service = Servlet.class,
+    property = {
+        SERVICE_DESCRIPTION + EQUALS + PER_PREFIX + "Page Merge Servlet",
+        SERVICE_VENDOR + EQUALS + PER_VENDOR,
+        SLING_SERVLET_METHODS + EQUALS + GET,
+        SLING_SERVLET_RESOURCE_TYPES + EQUALS + PAGE_PRIMARY_TYPE,
+        SLING_SERVLET_SELECTORS + EQUALS + "data",
+        SLING_SERVLET_EXTENSIONS + EQUALS + "json"
+    }
+)
+@SuppressWarnings("serial")
+public class PageMergeServlet extends AbstractBaseServlet {
+
+    @Reference
+    ModelFactory modelFactory;
+
+    @Reference(
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    volatile PageMergeCache pageMergeCache;
+
+    @Override
+    protected Response handleRequest(Request request) throws IOException {
+        Resource resource = request.getResource();
+        if(JCR_CONTENT.equals(resource.getName())) {
+            resource = resource.getParent();
+        }
+        PageMerge pageMerge = new PageMerge(request.getRequest(), modelFactory, pageMergeCache);
+        return new MergedPageResponse(pageMerge, resource);
+    }
+
+    /** Response that streams the merged page data to the output stream **/
+    public static class MergedPageResponse
+        extends Response
+    {
+        private final PageMerge pageMerge;
+        private final Resource resource;
+
+        public MergedPageResponse(PageMerge pageMerge, Resource resource) {
+            super("json");
+            this.pageMerge = pageMerge;
+            this.resource = resource;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            JsonGenerator generator = PerJson.getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+            // The Output Stream is handled by the Servlet
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            try {
+                pageMerge.writeMerged(resource, generator);
+            } finally {
+                generator.close();
+            }
+        }
+
+        @Override
+        public String getMimeType() {
+            return "application/json";
+        }
+    }
+}
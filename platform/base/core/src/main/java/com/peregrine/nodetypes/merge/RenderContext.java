@@ -33,12 +33,26 @@ import org.apache.sling.api.SlingHttpServletRequest;
 public class RenderContext
 {
     private final SlingHttpServletRequest request;
+    private boolean requestRead;
 
     public RenderContext(SlingHttpServletRequest request) {
         this.request = request;
     }
 
     public SlingHttpServletRequest getRequest() {
+        requestRead = true;
         return request;
     }
+
+    /**
+     * Models that read the request render data that depends on the requested page
+     * and so the Page Merge tracks if the request was read while exporting a page
+     * @param requestRead New value of the flag
+     * @return Previous value of the flag
+     */
+    boolean setRequestRead(boolean requestRead) {
+        boolean answer = this.requestRead;
+        this.requestRead = requestRead;
+        return answer;
+    }
 }
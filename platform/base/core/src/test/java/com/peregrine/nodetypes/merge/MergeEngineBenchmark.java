@@ -0,0 +1,157 @@
+package com.peregrine.nodetypes.merge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the path indexed Merge Engine with the former linear
+ * array merge on synthetic pages with 10, 100 and 1000 components.
+ *
+ * Half of the components are placed in nested containers and the
+ * page overrides every second template component and adds as many
+ * new ones.
+ *
+ * Run it with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.peregrine.nodetypes.merge.MergeEngineBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeEngineBenchmark {
+
+    private static final int CONTAINER_SIZE = 10;
+
+    @Param({"10", "100", "1000"})
+    public int components;
+
+    private Map template;
+    private Map page;
+
+    @Setup
+    public void setup() {
+        template = createPage("/content/templates/example", components, "template");
+        page = createPage("/content/templates/example", components, "page");
+        // Add as many new components as the page overrides
+        List pageChildren = (List) page.get("children");
+        int added = pageChildren.size();
+        for(int i = 0; i < added; i++) {
+            pageChildren.add(component("/content/sites/example/jcr:content/new-" + i, "new"));
+        }
+    }
+
+    @Benchmark
+    public Map pathIndexedMerge() {
+        return MergeEngine.merge(template, page);
+    }
+
+    @Benchmark
+    public Map linearMerge() {
+        return LinearMerge.merge(template, page);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(
+            new OptionsBuilder().include(MergeEngineBenchmark.class.getSimpleName()).build()
+        ).run();
+    }
+
+    /** Creates a page with the given number of components where half of them are inside containers **/
+    private static Map createPage(String path, int components, String text) {
+        Map answer = component(path + "/jcr:content", text);
+        List children = new ArrayList();
+        int containers = components / 2 / CONTAINER_SIZE;
+        for(int i = 0; i < components - containers * CONTAINER_SIZE; i++) {
+            if(!"page".equals(text) || i % 2 == 0) {
+                children.add(component(path + "/jcr:content/component-" + i, text));
+            }
+        }
+        for(int i = 0; i < containers; i++) {
+            String containerPath = path + "/jcr:content/container-" + i;
+            Map container = component(containerPath, text);
+            List containerChildren = new ArrayList();
+            for(int j = 0; j < CONTAINER_SIZE; j++) {
+                if(!"page".equals(text) || j % 2 == 0) {
+                    containerChildren.add(component(containerPath + "/component-" + j, text));
+                }
+            }
+            container.put("children", containerChildren);
+            children.add(container);
+        }
+        answer.put("children", children);
+        return answer;
+    }
+
+    private static Map component(String path, String text) {
+        Map answer = new LinkedHashMap();
+        answer.put("path", path);
+        answer.put("component", "example-components-text");
+        answer.put("text", text + " text of " + path);
+        answer.put("title", text);
+        return answer;
+    }
+
+    /** The former merge with a linear scan of the template array for every page object **/
+    private static class LinearMerge {
+
+        static Map merge(Map template, Map page) {
+            TreeMap res = new TreeMap(template);
+            for(Object key: page.keySet()) {
+                Object value = page.get(key);
+                if(key.equals("component") && "nt:unstructured".equals(value)) continue;
+                if(value instanceof Map) {
+                    continue;
+                } else if(value instanceof List) {
+                    res.put(key, mergeArrays(new ArrayList((List) res.get(key)), (List) value));
+                } else {
+                    res.put(key, value);
+                }
+            }
+            return res;
+        }
+
+        static List mergeArrays(List target, List value) {
+            for(Iterator it = value.iterator(); it.hasNext(); ) {
+                Object val = it.next();
+                boolean merged = false;
+                if(val instanceof Map) {
+                    Object path = ((Map) val).get("path");
+                    if(path != null) {
+                        for(int i = 0; i < target.size(); i++) {
+                            Object t = target.get(i);
+                            if(path.equals(((Map) t).get("path"))) {
+                                target.set(i, merge((Map) t, (Map) val));
+                                merged = true;
+                            }
+                        }
+                    }
+                }
+                if(!target.contains(val) && !merged) {
+                    target.add(val);
+                }
+            }
+            return target;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.peregrine.nodetypes.merge;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class MergeEngineTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void testScalarOverlay() throws Exception {
+        Map template = object("/template", "title", "Template", "fromTemplate", true);
+        Map page = object("/page", "title", "Page", "component", "nt:unstructured");
+        Map merged = MergeEngine.merge(template, page);
+        assertEquals("Page value must replace the template value", "Page", merged.get("title"));
+        assertNull("nt:unstructured component must not be merged", merged.get("component"));
+        assertEquals("Template must not be modified", "Template", template.get("title"));
+    }
+
+    @Test
+    public void testArrayMergeKeepsOrder() throws Exception {
+        Map template = object("/t", "children", list(
+            object("/t/header", "text", "header"),
+            object("/t/main", "text", "main"),
+            object("/t/footer", "text", "footer")
+        ));
+        Map page = object("/p", "children", list(
+            object("/t/main", "text", "page main"),
+            object("/p/extra", "text", "extra")
+        ));
+        Map merged = MergeEngine.merge(template, page);
+        List children = (List) merged.get("children");
+        assertEquals("Unexpected number of children", 4, children.size());
+        assertEquals("Order of the template must be kept", "/t/header", ((Map) children.get(0)).get("path"));
+        assertEquals("Matching child not merged", "page main", ((Map) children.get(1)).get("text"));
+        assertEquals("New child not appended", "/p/extra", ((Map) children.get(3)).get("path"));
+        assertEquals("Template children must not be modified", 3, ((List) template.get("children")).size());
+    }
+
+    @Test
+    public void testNestedContainers() throws Exception {
+        Map template = object("/t", "children", list(
+            object("/t/container", "children", list(
+                object("/t/container/inner", "text", "inner")
+            ))
+        ));
+        Map page = object("/p", "children", list(
+            object("/t/container", "children", list(
+                object("/t/container/inner", "text", "page inner"),
+                object("/t/container/added", "text", "added")
+            ))
+        ));
+        Map merged = MergeEngine.merge(template, page);
+        Map container = (Map) ((List) merged.get("children")).get(0);
+        List inner = (List) container.get("children");
+        assertEquals("Nested child not appended", 2, inner.size());
+        assertEquals("Nested child not merged", "page inner", ((Map) inner.get(0)).get("text"));
+    }
+
+    @Test
+    public void testArrayOfValues() throws Exception {
+        Map template = object("/t", "tags", list("a", "b"));
+        Map page = object("/p", "tags", list("b", "c", "c"));
+        Map merged = MergeEngine.merge(template, page);
+        assertEquals("Values must be merged without duplicates", list("a", "b", "c"), merged.get("tags"));
+        assertFalse("Template must not be modified", ((List) template.get("tags")).contains("c"));
+    }
+
+    @Test
+    public void testWriteMatchesMerge() throws Exception {
+        Map template = object("/t", "fromTemplate", true, "children", list(
+            object("/t/header", "text", "header"),
+            object("/t/container", "children", list(
+                object("/t/container/inner", "text", "inner")
+            ))
+        ));
+        Map page = object("/p", "title", "Page", "children", list(
+            object("/t/container", "children", list(
+                object("/t/container/inner", "text", "page inner")
+            )),
+            object("/p/extra", "text", "extra"),
+            object("/p/extra", "more", "text")
+        ));
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = MAPPER.getFactory().createGenerator(writer);
+        MergeEngine.write(generator, template, page);
+        generator.close();
+        assertEquals("Streamed merge differs from merge", MAPPER.writeValueAsString(MergeEngine.merge(template, page)), writer.toString());
+    }
+
+    static Map object(String path, Object ... keyValues) {
+        Map answer = new LinkedHashMap();
+        answer.put("path", path);
+        for(int i = 0; i < keyValues.length; i += 2) {
+            answer.put(keyValues[i], keyValues[i + 1]);
+        }
+        return answer;
+    }
+
+    static List list(Object ... items) {
+        return new ArrayList(Arrays.asList(items));
+    }
+}
@@ -0,0 +1,96 @@
+package com.peregrine.nodetypes.merge;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PageMergeCacheServiceTest {
+
+    private static final String PAGE = "/content/sites/example/index";
+    private static final String TEMPLATE = "/content/templates/example";
+    private static final String SITE = "/content/sites/example";
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        PageMergeCacheService cache = new PageMergeCacheService();
+        Map merged = new TreeMap();
+        assertNull("Empty cache must not return an entry", cache.get(PAGE, "1"));
+        cache.put(PAGE, "1", Arrays.asList(PAGE, TEMPLATE), merged);
+        assertSame("Cached entry not returned", merged, cache.get(PAGE, "1"));
+        assertNull("Outdated revision must not return an entry", cache.get(PAGE, "2"));
+        assertEquals("Unexpected hit count", 1, cache.getHitCount());
+        assertEquals("Unexpected miss count", 2, cache.getMissCount());
+    }
+
+    @Test
+    public void testInvalidateOnTemplateChange() throws Exception {
+        PageMergeCacheService cache = new PageMergeCacheService();
+        cache.put(PAGE, "1", Arrays.asList(PAGE, TEMPLATE), new TreeMap());
+        cache.put("/content/sites/other/index", "1", Arrays.asList("/content/sites/other/index", "/content/templates/other"), new TreeMap());
+        assertEquals("Unrelated change must not evict", 0, cache.invalidate("/content/templates/examples"));
+        assertEquals("Template change must evict", 1, cache.invalidate(TEMPLATE + "/jcr:content/nav"));
+        assertNull("Evicted entry returned", cache.get(PAGE, "1"));
+        assertEquals("Unexpected cache size", 1, cache.getSize());
+        assertEquals("Unexpected eviction count", 1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testTemplateSnapshot() throws Exception {
+        PageMergeCacheService cache = new PageMergeCacheService();
+        Map snapshot = Collections.unmodifiableMap(new TreeMap());
+        cache.putTemplateSnapshot(TEMPLATE, SITE, "1", Collections.singletonList(TEMPLATE), snapshot);
+        List<String> dependencies = new ArrayList<>();
+        assertSame("Snapshot not returned", snapshot, cache.getTemplateSnapshot(TEMPLATE, SITE, "1", dependencies));
+        assertEquals("Snapshot dependencies not provided", Collections.singletonList(TEMPLATE), dependencies);
+        assertNull("Outdated snapshot returned", cache.getTemplateSnapshot(TEMPLATE, SITE, "2", null));
+        assertNull("Snapshot of another site returned", cache.getTemplateSnapshot(TEMPLATE, "/content/sites/other", "1", null));
+        assertEquals("Change inside the template must evict", 1, cache.invalidate(TEMPLATE + "/jcr:content"));
+        assertNull("Evicted snapshot returned", cache.getTemplateSnapshot(TEMPLATE, SITE, "1", null));
+    }
+
+    @Test
+    public void testInvalidateOnSiteChange() throws Exception {
+        PageMergeCacheService cache = new PageMergeCacheService();
+        // A page with a navigation depends on its site
+        cache.put(PAGE, "1", Arrays.asList(PAGE, TEMPLATE, SITE), new TreeMap());
+        assertEquals("Page added to another site must not evict", 0, cache.invalidate("/content/sites/examples/new"));
+        assertEquals("Page added to the site must evict", 1, cache.invalidate("/content/sites/example/new"));
+    }
+
+    @Test
+    public void testInvalidateByDependencyIndex() throws Exception {
+        PageMergeCacheService cache = new PageMergeCacheService();
+        cache.put(PAGE, "1", Arrays.asList(PAGE, TEMPLATE), new TreeMap());
+        cache.put(PAGE + "-2", "1", Collections.singletonList(PAGE + "-2"), new TreeMap());
+        cache.put(PAGE + "/child", "1", Collections.singletonList(PAGE + "/child"), new TreeMap());
+        assertEquals("Sibling with the same prefix must not evict", 0, cache.invalidate(PAGE + "-1"));
+        assertEquals("Change below a dependency must only evict its dependents", 1, cache.invalidate(PAGE + "-2/jcr:content"));
+        assertEquals("Change above a dependency must evict all dependents below it", 2, cache.invalidate("/content/sites/example"));
+        assertEquals("Unexpected cache size", 0, cache.getSize());
+        cache.put(PAGE, "2", Arrays.asList(PAGE, TEMPLATE), new TreeMap());
+        cache.put(PAGE, "3", Collections.singletonList(PAGE), new TreeMap());
+        assertEquals("Replaced entry must not stay indexed", 0, cache.invalidate(TEMPLATE));
+    }
+
+    @Test
+    public void testInvalidateOnChangeEvent() throws Exception {
+        PageMergeCacheService cache = new PageMergeCacheService();
+        cache.put(PAGE, "1", Collections.singletonList(PAGE), new TreeMap());
+        ResourceChange change = mock(ResourceChange.class);
+        when(change.getPath()).thenReturn("/content/sites/example");
+        cache.onChange(Collections.singletonList(change));
+        assertEquals("Removal of a parent must evict", 0, cache.getSize());
+    }
+}
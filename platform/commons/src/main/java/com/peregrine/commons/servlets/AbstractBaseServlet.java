@@ -1,11 +1,16 @@
 package com.peregrine.commons.servlets;
 
-import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.peregrine.commons.servlets.ResponseCompression.CompressingOutputStream;
+import com.peregrine.commons.servlets.ServletMetrics.CountingOutputStream;
+import com.peregrine.commons.servlets.ServletMetrics.Sample;
+import com.peregrine.commons.util.PerJson;
+import com.peregrine.commons.util.PerUtil;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.request.RequestDispatcherOptions;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.servlets.SlingAllMethodsServlet;
@@ -19,10 +24,14 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.RejectedExecutionException;
+
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
 
 /**
  * Base Class for Peregrine Servlets
@@ -39,6 +48,8 @@ public abstract class AbstractBaseServlet
 {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private transient volatile ServletMetrics metrics;
+
 //    private boolean allowAll = false;
 
     public AbstractBaseServlet() {
@@ -58,7 +69,35 @@ public abstract class AbstractBaseServlet
         doRequest(request, response);
     }
 
+    @Override
+    public void destroy() {
+        ServletMetrics.remove(getClass().getName());
+        super.destroy();
+    }
+
     private void doRequest(SlingHttpServletRequest request, SlingHttpServletResponse response) throws IOException, ServletException {
+        ServletMetrics metrics = this.metrics;
+        if(metrics == null) {
+            metrics = this.metrics = ServletMetrics.obtain(getClass().getName());
+        }
+        Sample sample = new Sample();
+        // Any failure that is not handled is reported as internal server error
+        sample.setErrorCode(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        try {
+            Response out = handle(request, response);
+            sample.handled();
+            if("error".equals(out.getType())) {
+                sample.setErrorCode(((ErrorResponse) out).getHttpErrorCode(), ((ErrorResponse) out).getErrorCode());
+            } else {
+                sample.setErrorCode(0);
+            }
+            writeResponse(request, response, out, sample);
+        } finally {
+            metrics.record(sample);
+        }
+    }
+
+    private Response handle(SlingHttpServletRequest request, SlingHttpServletResponse response) throws IOException, ServletException {
         Response out = null;
         try {
             out = handleRequest(new Request(request, response));
@@ -74,7 +113,14 @@ public abstract class AbstractBaseServlet
             logger.debug("Servlet Request failed with Error", e);
             throw e;
         }
+        return out;
+    }
+
+    private void writeResponse(SlingHttpServletRequest request, SlingHttpServletResponse response, Response out, Sample sample) throws IOException, ServletException {
         if(!"alreadyHandled".equals(out.getType())) {
+            if(isNotModified(request, response, out)) {
+                return;
+            }
             response.setContentType(out.getMimeType());
             String output = out.getContent();
             if("direct".equals(out.getType())) {
@@ -84,19 +130,171 @@ public abstract class AbstractBaseServlet
                     ErrorResponse error = (ErrorResponse) out;
                     response.setStatus(error.getHttpErrorCode());
                 }
+                String encoding = null;
+                if(ResponseCompression.isCompressible(out.getMimeType())) {
+                    response.addHeader("Vary", "Accept-Encoding");
+                    encoding = ResponseCompression.negotiate(request);
+                }
                 if(output == null) {
-                    out.writeTo(response.getOutputStream());
+                    if(out instanceof StreamingJsonResponse && "true".equals(request.getParameter("pretty"))) {
+                        ((StreamingJsonResponse) out).setPrettyPrint(true);
+                    }
+                    CompressingOutputStream compressing = null;
+                    // The bytes are counted as they are sent so compressed responses count their compressed size
+                    CountingOutputStream counting = new CountingOutputStream(response.getOutputStream());
+                    try {
+                        if(encoding == null) {
+                            out.writeTo(counting);
+                        } else {
+                            compressing = new CompressingOutputStream(response, counting);
+                            out.writeTo(compressing);
+                            compressing.finish();
+                        }
+                        sample.setSize(counting.getCount());
+                    } catch(IOException | RuntimeException e) {
+                        sample.setErrorCode(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        if(compressing != null) {
+                            compressing.release();
+                        }
+                        if(response.isCommitted()) {
+                            // Parts of the response were already sent so we cannot report the error anymore
+                            logger.error("Streaming the Response failed after it was committed", e);
+                            throw e;
+                        }
+                        response.reset();
+                        ErrorResponse error = new ErrorResponse().setHttpErrorCode(HttpServletResponse.SC_INTERNAL_SERVER_ERROR).setErrorCode(-126).setErrorMessage("Failed to stream the response").setException(e);
+                        response.setStatus(error.getHttpErrorCode());
+                        response.setContentType(error.getMimeType());
+                        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+                        response.getOutputStream().write(error.getContent().getBytes(StandardCharsets.UTF_8));
+                    }
                 } else {
                     logger.trace("Servlet Response: '{}'", output);
-                    response.getWriter().write(output);
+                    // Encoded once and counted as sent so compressed responses count their compressed size
+                    byte[] data = output.getBytes(response.getCharacterEncoding());
+                    CountingOutputStream counting = new CountingOutputStream(response.getOutputStream());
+                    if(encoding != null && output.length() >= ResponseCompression.MIN_SIZE) {
+                        ResponseCompression.write(data, response, counting);
+                    } else {
+                        counting.write(data);
+                    }
+                    sample.setSize(counting.getCount());
                 }
                 response.flushBuffer();
             }
         }
     }
 
+    /**
+     * Sets the validator headers (ETag, Last-Modified) of a response with validators and
+     * checks the conditional headers of a GET / HEAD request against them
+     * @return True if the client's copy is up to date and a Not Modified status was sent
+     */
+    private boolean isNotModified(SlingHttpServletRequest request, SlingHttpServletResponse response, Response out) {
+        String method = request.getMethod();
+        if(!out.hasValidators() || !("GET".equals(method) || "HEAD".equals(method))) {
+            return false;
+        }
+        String type = out.getType();
+        if("error".equals(type) || "direct".equals(type)) {
+            return false;
+        }
+        String eTag = out.getETag();
+        long lastModified = out.getLastModified();
+        response.setHeader("ETag", eTag);
+        response.setHeader("Cache-Control", "private, no-cache");
+        if(lastModified > 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        boolean answer = false;
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if(ifNoneMatch != null) {
+            for(String tag: ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if("*".equals(tag) || eTag.equals(tag)) {
+                    answer = true;
+                    break;
+                }
+            }
+        } else if(lastModified > 0) {
+            try {
+                long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+                // HTTP Dates only have a precision of seconds
+                answer = ifModifiedSince >= 0 && ifModifiedSince >= lastModified / 1000 * 1000;
+            } catch(IllegalArgumentException e) {
+                logger.debug("Ignore invalid If-Modified-Since header", e);
+            }
+        }
+        if(answer) {
+            logger.trace("Resource not modified, ETag: '{}', Last Modified: '{}'", eTag, lastModified);
+            response.setStatus(SC_NOT_MODIFIED);
+        }
+        return answer;
+    }
+
     protected abstract Response handleRequest(Request request) throws IOException, ServletException;
 
+    /**
+     * Executes the given handler outside of the request thread if the 'async' parameter is 'true'
+     * otherwise it is executed right away.
+     *
+     * The handler is executed with a clone of the request's resource resolver so that it has the
+     * same permissions. It must not use the Request as it is gone by then. An async request is
+     * answered with Accepted and the job id whose status is available through AsyncJobs.getJob().
+     * Servlets that support it must provide the Async Jobs with getAsyncJobs().
+     *
+     * @param request Request to be handled
+     * @param name Name of the operation
+     * @param handler Handler that executes the operation
+     * @return The Handler's response or the response with the job id and status
+     * @throws IOException If the handler failed or the response could not be created
+     */
+    protected Response handleAsync(Request request, String name, AsyncHandler handler) throws IOException {
+        if(!"true".equals(request.getParameter("async"))) {
+            return handler.handle(request.getResourceResolver());
+        }
+        AsyncJobs asyncJobs = getAsyncJobs();
+        if(asyncJobs == null) {
+            return new ErrorResponse().setHttpErrorCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE).setErrorMessage("Async operations are not available: " + name);
+        }
+        ResourceResolver resourceResolver;
+        try {
+            resourceResolver = request.getResourceResolver().clone(null);
+        } catch(LoginException e) {
+            return new ErrorResponse().setHttpErrorCode(HttpServletResponse.SC_INTERNAL_SERVER_ERROR).setErrorMessage("Failed to obtain a Resource Resolver for: " + name).setException(e);
+        }
+        AsyncJobs.Job job;
+        try {
+            job = asyncJobs.submit(name, resourceResolver, handler);
+        } catch(RejectedExecutionException e) {
+            resourceResolver.close();
+            return new ErrorResponse().setHttpErrorCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE).setErrorMessage("Too many async operations, try again later: " + name);
+        }
+        logger.debug("Submitted Async Job: '{}', id: '{}'", name, job.getId());
+        request.getResponse().setStatus(HttpServletResponse.SC_ACCEPTED);
+        return new JsonResponse()
+            .writeAttribute("jobId", job.getId())
+            .writeAttribute("name", job.getName())
+            .writeAttribute("status", job.getState().name());
+    }
+
+    /** @return Async Jobs that execute the async operations or null if this servlet has none **/
+    protected AsyncJobs getAsyncJobs() {
+        return null;
+    }
+
+    /**
+     * Operation of a Servlet that can be executed outside of the request thread
+     */
+    public interface AsyncHandler {
+        /**
+         * @param resourceResolver Resource Resolver to work with
+         * @return Response of the operation
+         * @throws IOException If the response could not be created
+         */
+        Response handle(ResourceResolver resourceResolver) throws IOException;
+    }
+
     /**
      * Wrapper Object for the Request which contains the Sling Http Servlet Request and Response
      * as well as parameters
@@ -166,7 +364,13 @@ public abstract class AbstractBaseServlet
      * Response Object which contains the type and provides the content
      */
     public static abstract class Response {
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
         private String type;
+        private boolean validated = false;
+        private long validatorHash = FNV_OFFSET;
+        private long lastModified = 0;
 
         public Response(String type) {
             this.type = type;
@@ -175,6 +379,65 @@ public abstract class AbstractBaseServlet
         /** @return Type of the response **/
         public String getType() { return type; }
 
+        /**
+         * Adds the given resource to the validators of this response. If any validators
+         * are added the response is sent with an ETag and Last-Modified header and a
+         * conditional GET is answered with Not Modified if they did not change.
+         *
+         * A handler should add all the resources the response is built from.
+         *
+         * @param resource Resource the response is built from. It is ignored if null
+         * @return This instance for method chaining
+         */
+        public Response addValidator(Resource resource) {
+            if(resource != null) {
+                addValidator(resource.getPath(), PerUtil.getLastModified(resource));
+            }
+            return this;
+        }
+
+        /**
+         * Adds a validator to this response
+         * @param key Key of the validator like a path. Any change of the keys changes the ETag
+         * @param lastModified Last Modification of the validator. If it is negative the response
+         *                     will not provide a Last Modified header
+         * @return This instance for method chaining
+         */
+        public Response addValidator(String key, long lastModified) {
+            validated = true;
+            validatorHash = hash(validatorHash, key);
+            validatorHash = hash(validatorHash, Long.toString(lastModified));
+            if(lastModified < 0 || this.lastModified < 0) {
+                this.lastModified = -1;
+            } else {
+                this.lastModified = Math.max(this.lastModified, lastModified);
+            }
+            return this;
+        }
+
+        private static long hash(long hash, String text) {
+            for(int i = 0; i < text.length(); i++) {
+                hash ^= text.charAt(i);
+                hash *= FNV_PRIME;
+            }
+            // Separator so that 'ab' + 'c' differs from 'a' + 'bc'
+            hash ^= 0xff;
+            return hash * FNV_PRIME;
+        }
+
+        /** @return True if validators were added to this response **/
+        public boolean hasValidators() { return validated; }
+
+        /** @return The weak ETag of the validators or null if there are none **/
+        public String getETag() {
+            return validated ? "W/\"" + Long.toHexString(validatorHash) + "\"" : null;
+        }
+
+        /** @return The latest modification time of the validators or -1 if unknown **/
+        public long getLastModified() {
+            return validated ? lastModified : -1;
+        }
+
         /** @return Response Content as text **/
         public String getContent() throws IOException {
             return null;
@@ -233,33 +496,43 @@ public abstract class AbstractBaseServlet
 
         public JsonResponse(String type) throws IOException {
             super(type);
-            init();
+            writer = new StringWriter();
+            init(PerJson.getFactory().createGenerator(writer), true);
         }
 
-        private void init() throws IOException {
-            JsonFactory jf = new JsonFactory();
-            writer = new StringWriter();
-            json = jf.createGenerator(writer);
-            json.useDefaultPrettyPrinter();
+        /** Constructor for subclasses that provide the generator with init() later **/
+        protected JsonResponse(String type, boolean deferred) {
+            super(type);
+        }
+
+        /**
+         * Binds this response to the given generator and starts the root object
+         * @param generator JSon Generator to write to. It must have a Codec
+         * @param pretty If true the output is pretty printed
+         * @throws IOException If starting the root object failed
+         */
+        protected void init(JsonGenerator generator, boolean pretty) throws IOException {
+            json = generator;
+            if(pretty) {
+                json.useDefaultPrettyPrinter();
+            }
             json.writeStartObject();
             states.push(STATE.object);
         }
 
         /**
-         * Adds the given map as child. This requires that a
-         * field for that map was already created
+         * Writes the entries of the given map as fields
+         * of the current object
          *
-         * @param object Map to be serialized into JSon field value
+         * @param object Map whose entries are serialized into JSon fields
          * @return This instance for method chaining
-         * @throws IOException If creating the JSon representation of the Map failed or adding the value
+         * @throws IOException If writing the JSon representation of an entry failed
          */
-        public JsonResponse writeMap(Map object) throws IOException {
-            StringWriter writer = new StringWriter();
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.writeValue(writer, object);
-            writer.close();
-            String data = writer.toString();
-            json.writeRaw(data.substring(1, data.length()-1));
+        public JsonResponse writeMap(Map<String, Object> object) throws IOException {
+            for(Map.Entry<String, Object> entry: object.entrySet()) {
+                json.writeFieldName(entry.getKey());
+                json.writeObject(entry.getValue());
+            }
             return this;
         }
 
@@ -286,6 +559,17 @@ public abstract class AbstractBaseServlet
             json.writeNumberField(name, value);
             return this;
         }
+        /**
+         * Write a long number field
+         * @param name Name of the field
+         * @param value Number value
+         * @return This instance for method chaining
+         * @throws IOException If writing the number field failed
+         */
+        public JsonResponse writeAttribute(String name, long value) throws IOException {
+            json.writeNumberField(name, value);
+            return this;
+        }
         /**
          * Write a text field
          * @param name Name of the field
@@ -382,6 +666,58 @@ public abstract class AbstractBaseServlet
         }
     }
 
+    /**
+     * A JSon Response that is written directly to the response output
+     * stream rather than buffered. The content is provided by writeContent()
+     * which is called after the Servlet returned this response and can use all
+     * the helper methods of the JSon Response.
+     *
+     * The output is compact unless pretty printing is requested with
+     * the 'pretty=true' parameter or setPrettyPrint(). If writing the
+     * content fails before the response is committed an Error Response
+     * is returned instead.
+     */
+    public static abstract class StreamingJsonResponse
+        extends JsonResponse
+    {
+        private boolean prettyPrint = false;
+
+        public StreamingJsonResponse() {
+            this("json");
+        }
+
+        public StreamingJsonResponse(String type) {
+            super(type, true);
+        }
+
+        /** Sets if the output is pretty printed (false is default) **/
+        public StreamingJsonResponse setPrettyPrint(boolean prettyPrint) {
+            this.prettyPrint = prettyPrint;
+            return this;
+        }
+
+        /**
+         * Writes the content of the root object
+         * @throws IOException If writing failed
+         */
+        protected abstract void writeContent() throws IOException;
+
+        @Override
+        public String getContent() {
+            return null;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            JsonGenerator generator = PerJson.getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+            // The Servlet Container closes the stream
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            init(generator, prettyPrint);
+            writeContent();
+            writeCloseAll();
+        }
+    }
+
     /**
      * JSon based Error Response
      */
@@ -389,6 +725,7 @@ public abstract class AbstractBaseServlet
         extends JsonResponse {
 
         private int httpErrorCode = HttpServletResponse.SC_BAD_REQUEST;
+        private int errorCode = 0;
 
         public ErrorResponse() throws IOException {
             super("error");
@@ -403,8 +740,14 @@ public abstract class AbstractBaseServlet
             this.httpErrorCode = httpErrorCode;
             return this;
         }
+        /** @return Error Code set or 0 if none was set **/
+        public int getErrorCode() {
+            return errorCode;
+        }
+
         /** Sets the Error Code which is returned as 'code' number field **/
         public ErrorResponse setErrorCode(int code) throws IOException {
+            this.errorCode = code;
             return (ErrorResponse) writeAttribute("code", code);
         }
         /** Sets the Error Message which is returned as 'message' text field **/
@@ -430,7 +773,7 @@ public abstract class AbstractBaseServlet
     public static class TextResponse
         extends Response {
 
-        private StringBuffer content;
+        private StringBuffer content = new StringBuffer();
         private String mimeType = "plain/text";
 
         public TextResponse(String type) {
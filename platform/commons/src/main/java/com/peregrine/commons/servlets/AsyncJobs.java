@@ -0,0 +1,206 @@
+package com.peregrine.commons.servlets;
+
+import com.peregrine.commons.servlets.AbstractBaseServlet.AsyncHandler;
+import com.peregrine.commons.servlets.AbstractBaseServlet.ErrorResponse;
+import com.peregrine.commons.servlets.AbstractBaseServlet.Response;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes long running Servlet Handlers outside of the request thread
+ * on a small bounded thread pool and keeps their status and result so
+ * that the client can poll for it.
+ *
+ * Finished jobs are kept for an hour. The pool threads end when idle.
+ * The owner of an instance, usually an OSGi Component, must shut it down
+ * when it is deactivated.
+ */
+public class AsyncJobs {
+
+    public enum State { queued, running, finished, failed }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncJobs.class);
+
+    private static final int MAX_THREADS = 4;
+    private static final int MAX_QUEUED = 50;
+    private static final long RETENTION = TimeUnit.HOURS.toMillis(1);
+
+    private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor = createExecutor();
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor answer = new ThreadPoolExecutor(
+            MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+            new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread answer = new Thread(runnable, "peregrine-async-" + counter.incrementAndGet());
+                    answer.setDaemon(true);
+                    return answer;
+                }
+            }
+        );
+        answer.allowCoreThreadTimeOut(true);
+        return answer;
+    }
+
+    /**
+     * Submits a handler for execution
+     * @param name Name of the operation
+     * @param resourceResolver Resource Resolver the handler works with. It is closed when the handler is done
+     * @param handler Handler to be executed
+     * @return The queued Job
+     * @throws RejectedExecutionException If too many jobs are queued already or this instance is shut down
+     */
+    public Job submit(String name, ResourceResolver resourceResolver, AsyncHandler handler) {
+        removeExpired();
+        Job answer = new Job(name, resourceResolver, handler);
+        jobs.put(answer.getId(), answer);
+        try {
+            executor.execute(answer);
+        } catch(RejectedExecutionException e) {
+            jobs.remove(answer.getId());
+            throw e;
+        }
+        return answer;
+    }
+
+    /**
+     * @param id Id of the job
+     * @return The job or null if not found or already expired
+     */
+    public Job getJob(String id) {
+        return id == null ? null : jobs.get(id);
+    }
+
+    /** Interrupts the running jobs and fails the queued ones. No jobs can be submitted afterwards **/
+    public void shutdown() {
+        for(Runnable queued: executor.shutdownNow()) {
+            ((Job) queued).cancel();
+        }
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        for(Iterator<Job> i = jobs.values().iterator(); i.hasNext(); ) {
+            Job job = i.next();
+            if(job.getFinished() > 0 && now - job.getFinished() > RETENTION) {
+                i.remove();
+            }
+        }
+    }
+
+    /** Execution of a Handler **/
+    public static class Job
+        implements Runnable
+    {
+        private final String id = UUID.randomUUID().toString();
+        private final String name;
+        private final String userId;
+        private final long created = System.currentTimeMillis();
+        private final ResourceResolver resourceResolver;
+        private final AsyncHandler handler;
+        private volatile State state = State.queued;
+        private volatile long started;
+        private volatile long finished;
+        private volatile int httpStatus;
+        private volatile String result;
+
+        private Job(String name, ResourceResolver resourceResolver, AsyncHandler handler) {
+            this.name = name;
+            this.userId = resourceResolver.getUserID();
+            this.resourceResolver = resourceResolver;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            started = System.currentTimeMillis();
+            state = State.running;
+            try {
+                Response response = handler.handle(resourceResolver);
+                String content = response.getContent();
+                if(content == null) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    response.writeTo(out);
+                    content = out.toString(StandardCharsets.UTF_8.name());
+                }
+                result = content;
+                if("error".equals(response.getType())) {
+                    httpStatus = ((ErrorResponse) response).getHttpErrorCode();
+                    state = State.failed;
+                } else {
+                    httpStatus = HttpServletResponse.SC_OK;
+                    state = State.finished;
+                }
+            } catch(IOException | RuntimeException e) {
+                LOGGER.warn("Async Job: '" + name + "' (" + id + ") failed", e);
+                httpStatus = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+                try {
+                    result = new ErrorResponse().setHttpErrorCode(httpStatus).setErrorMessage("Async Job failed").setException(e).getContent();
+                } catch(IOException e2) {
+                    LOGGER.warn("Failed to create the Error Response", e2);
+                }
+                state = State.failed;
+            } finally {
+                resourceResolver.close();
+                finished = System.currentTimeMillis();
+            }
+        }
+
+        /** Fails a job that was not started before the shutdown **/
+        private void cancel() {
+            httpStatus = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+            try {
+                result = new ErrorResponse().setHttpErrorCode(httpStatus).setErrorMessage("Async Job was cancelled by a shutdown").getContent();
+            } catch(IOException e) {
+                LOGGER.warn("Failed to create the Error Response", e);
+            }
+            state = State.failed;
+            resourceResolver.close();
+            finished = System.currentTimeMillis();
+        }
+
+        public String getId() { return id; }
+
+        public String getName() { return name; }
+
+        /** @return User that submitted this job **/
+        public String getUserId() { return userId; }
+
+        public State getState() { return state; }
+
+        public long getCreated() { return created; }
+
+        /** @return Start time or 0 if not started yet **/
+        public long getStarted() { return started; }
+
+        /** @return End time or 0 if not finished yet **/
+        public long getFinished() { return finished; }
+
+        /** @return HTTP Status of the Handler's response or 0 if not finished yet **/
+        public int getHttpStatus() { return httpStatus; }
+
+        /** @return JSon Content of the Handler's response or null if not finished yet **/
+        public String getResult() { return result; }
+    }
+}
@@ -0,0 +1,267 @@
+package com.peregrine.commons.servlets;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Negotiates and applies the compression of Servlet Responses.
+ *
+ * Only gzip is supported as the platform does not provide a Brotli encoder.
+ * Responses smaller than the threshold or with an already compressed mime type
+ * are sent as is. The Deflaters and their buffers are pooled as creating
+ * them allocates native memory.
+ */
+final class ResponseCompression {
+
+    public static final String GZIP = "gzip";
+
+    /** Responses smaller than this are not compressed as the overhead is not worth it **/
+    public static final int MIN_SIZE = 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int POOL_SIZE = 32;
+
+    private static final Set<String> COMPRESSED_MIME_TYPES = new HashSet<>(Arrays.asList(
+        "image/jpeg", "image/jpg", "image/png", "image/gif", "image/webp",
+        "application/zip", "application/gzip", "application/x-gzip", "font/woff", "font/woff2"
+    ));
+
+    private static final byte[] GZIP_HEADER = new byte[] {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final BlockingQueue<Compressor> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private ResponseCompression() {
+    }
+
+    /**
+     * @param mimeType Mime Type of the response
+     * @return True if the content of this mime type benefits from compression
+     */
+    public static boolean isCompressible(String mimeType) {
+        if(mimeType == null || mimeType.isEmpty()) {
+            return false;
+        }
+        String type = mimeType.toLowerCase();
+        int index = type.indexOf(';');
+        if(index > 0) {
+            type = type.substring(0, index).trim();
+        }
+        return !COMPRESSED_MIME_TYPES.contains(type) && !type.startsWith("video/") && !type.startsWith("audio/");
+    }
+
+    /**
+     * Obtains the encoding accepted by the client
+     * @param request Request with the Accept-Encoding header
+     * @return Gzip if the client accepts it otherwise null
+     */
+    public static String negotiate(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if(acceptEncoding == null) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean wildcard = false;
+        for(String token: acceptEncoding.split(",")) {
+            String[] parts = token.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            boolean accepted = true;
+            for(int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if(parameter.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch(NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if(GZIP.equals(coding) || "x-gzip".equals(coding)) {
+                if(!accepted) {
+                    // Explicitly refused
+                    return null;
+                }
+                gzip = true;
+            } else if("*".equals(coding)) {
+                wildcard = accepted;
+            }
+        }
+        return gzip || wildcard ? GZIP : null;
+    }
+
+    /**
+     * Compresses the given data in one go
+     * @param data Data to be compressed
+     * @param response Response which obtains the Content Encoding header
+     * @param outputStream Output Stream to write to
+     * @throws IOException If writing failed
+     */
+    public static void write(byte[] data, HttpServletResponse response, OutputStream outputStream) throws IOException {
+        CompressingOutputStream compressing = new CompressingOutputStream(response, outputStream);
+        try {
+            compressing.write(data, 0, data.length);
+            compressing.finish();
+        } finally {
+            compressing.release();
+        }
+    }
+
+    private static Compressor borrow() {
+        Compressor answer = POOL.poll();
+        return answer == null ? new Compressor() : answer;
+    }
+
+    private static void release(Compressor compressor) {
+        compressor.deflater.reset();
+        if(!POOL.offer(compressor)) {
+            compressor.deflater.end();
+        }
+    }
+
+    /** Pooled Deflater (raw deflate as the gzip header and trailer are written separately) and its buffer **/
+    private static class Compressor {
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Output Stream that holds back the first bytes up to the threshold. If the
+     * content stays below it is written uncompressed otherwise the gzip content
+     * encoding is set on the response and the content is compressed.
+     *
+     * The pooled Deflater is returned with finish(), close() or release().
+     */
+    static class CompressingOutputStream extends OutputStream {
+
+        private final HttpServletResponse response;
+        private final OutputStream target;
+        private byte[] pending = new byte[MIN_SIZE];
+        private int count = 0;
+        private Compressor compressor;
+        private CRC32 crc;
+        private boolean finished = false;
+
+        CompressingOutputStream(HttpServletResponse response, OutputStream target) {
+            this.response = response;
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if(finished) {
+                throw new IOException("Compressed Stream is already finished");
+            }
+            if(compressor == null) {
+                if(count + length <= pending.length) {
+                    System.arraycopy(data, offset, pending, count, length);
+                    count += length;
+                    return;
+                }
+                start();
+            }
+            deflate(data, offset, length);
+        }
+
+        private void start() throws IOException {
+            response.setHeader("Content-Encoding", GZIP);
+            compressor = borrow();
+            crc = new CRC32();
+            target.write(GZIP_HEADER);
+            deflate(pending, 0, count);
+            pending = null;
+        }
+
+        private void deflate(byte[] data, int offset, int length) throws IOException {
+            if(length == 0) {
+                return;
+            }
+            crc.update(data, offset, length);
+            Deflater deflater = compressor.deflater;
+            deflater.setInput(data, offset, length);
+            while(!deflater.needsInput()) {
+                int size = deflater.deflate(compressor.buffer, 0, compressor.buffer.length);
+                if(size > 0) {
+                    target.write(compressor.buffer, 0, size);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Content below the threshold is held back until it is finished
+            if(compressor != null && !finished) {
+                int size;
+                do {
+                    size = compressor.deflater.deflate(compressor.buffer, 0, compressor.buffer.length, Deflater.SYNC_FLUSH);
+                    target.write(compressor.buffer, 0, size);
+                } while(size == compressor.buffer.length);
+                target.flush();
+            }
+        }
+
+        /** Writes the remaining content and the gzip trailer but does not close the target **/
+        public void finish() throws IOException {
+            if(finished) {
+                return;
+            }
+            finished = true;
+            try {
+                if(compressor == null) {
+                    target.write(pending, 0, count);
+                } else {
+                    Deflater deflater = compressor.deflater;
+                    deflater.finish();
+                    while(!deflater.finished()) {
+                        int size = deflater.deflate(compressor.buffer, 0, compressor.buffer.length);
+                        target.write(compressor.buffer, 0, size);
+                    }
+                    writeInt((int) crc.getValue());
+                    writeInt((int) deflater.getBytesRead());
+                }
+            } finally {
+                release();
+            }
+        }
+
+        private void writeInt(int value) throws IOException {
+            // Gzip uses little endian
+            target.write(value & 0xff);
+            target.write((value >> 8) & 0xff);
+            target.write((value >> 16) & 0xff);
+            target.write((value >> 24) & 0xff);
+        }
+
+        /** Returns the Deflater to the pool without finishing the stream (in case of a failure) **/
+        public void release() {
+            if(compressor != null) {
+                ResponseCompression.release(compressor);
+                compressor = null;
+            }
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                target.close();
+            }
+        }
+    }
+}
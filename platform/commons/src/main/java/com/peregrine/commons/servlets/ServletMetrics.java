@@ -0,0 +1,330 @@
+package com.peregrine.commons.servlets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request Metrics of a Peregrine Servlet which are recorded
+ * with atomic counters only so that they do not block requests.
+ *
+ * Each instance is registered as MX Bean in the platform MBean Server
+ * so that the metrics of all bundles can be found with findAll() as
+ * the commons classes are embedded in each bundle.
+ */
+public class ServletMetrics
+    implements ServletMetricsMXBean
+{
+    public static final String DOMAIN = "com.peregrine";
+    public static final String TYPE = "ServletMetrics";
+
+    /** Time bounds in micro seconds from 100us to 10s **/
+    private static final long[] TIME_BOUNDS = new long[] {
+        100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+        100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000
+    };
+    /** Size Bounds in bytes from 1KB to 4MB **/
+    private static final long[] SIZE_BOUNDS = new long[] {
+        1024, 4096, 16384, 65536, 262144, 1048576, 4194304
+    };
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServletMetrics.class);
+
+    private static final ConcurrentMap<String, ServletMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private final String servletName;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    /** Errors by their HTTP Status Code and, if set, Error Code like '500/-125' **/
+    private final ConcurrentMap<String, AtomicLong> errorsByCode = new ConcurrentHashMap<>();
+    private final Histogram handlerTimes = new Histogram(TIME_BOUNDS);
+    private final Histogram serializationTimes = new Histogram(TIME_BOUNDS);
+    private final Histogram responseSizes = new Histogram(SIZE_BOUNDS);
+
+    ServletMetrics(String servletName) {
+        this.servletName = servletName;
+    }
+
+    /**
+     * Obtains the metrics of a servlet and registers them with JMX when they are created
+     * @param servletName Name of the servlet (class name)
+     * @return Metrics of the servlet
+     */
+    public static ServletMetrics obtain(String servletName) {
+        ServletMetrics answer = METRICS.get(servletName);
+        if(answer == null) {
+            ServletMetrics metrics = new ServletMetrics(servletName);
+            answer = METRICS.putIfAbsent(servletName, metrics);
+            if(answer == null) {
+                answer = metrics;
+                try {
+                    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                    ObjectName name = getObjectName(servletName);
+                    if(!server.isRegistered(name)) {
+                        server.registerMBean(metrics, name);
+                    }
+                } catch(JMException | RuntimeException e) {
+                    LOGGER.warn("Failed to register the Metrics MBean of Servlet: '" + servletName + "' -> ignored", e);
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Removes the metrics of a servlet and its MBean
+     * @param servletName Name of the servlet (class name)
+     */
+    public static void remove(String servletName) {
+        if(METRICS.remove(servletName) != null) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = getObjectName(servletName);
+                if(server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch(JMException | RuntimeException e) {
+                LOGGER.warn("Failed to unregister the Metrics MBean of Servlet: '" + servletName + "' -> ignored", e);
+            }
+        }
+    }
+
+    /** @return Metrics of all the Peregrine Servlets registered with JMX ordered by their name **/
+    public static List<ServletMetricsMXBean> findAll() {
+        List<ServletMetricsMXBean> answer = new ArrayList<>();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            TreeMap<String, ObjectName> names = new TreeMap<>();
+            for(ObjectName name: server.queryNames(new ObjectName(DOMAIN + ":type=" + TYPE + ",*"), null)) {
+                names.put(name.getCanonicalName(), name);
+            }
+            for(ObjectName name: names.values()) {
+                answer.add(JMX.newMXBeanProxy(server, name, ServletMetricsMXBean.class));
+            }
+        } catch(JMException e) {
+            LOGGER.warn("Failed to query the Servlet Metrics", e);
+        }
+        return answer;
+    }
+
+    private static ObjectName getObjectName(String servletName) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + TYPE + ",name=" + ObjectName.quote(servletName));
+    }
+
+    /** Records a finished request **/
+    void record(Sample sample) {
+        long end = System.nanoTime();
+        requests.incrementAndGet();
+        handlerTimes.record((sample.handled - sample.start) / 1000);
+        serializationTimes.record((end - sample.handled) / 1000);
+        if(sample.size >= 0) {
+            responseSizes.record(sample.size);
+        }
+        if(sample.errorCode > 0) {
+            errors.incrementAndGet();
+            String key = sample.code == 0 ? Integer.toString(sample.errorCode) : sample.errorCode + "/" + sample.code;
+            AtomicLong counter = errorsByCode.get(key);
+            if(counter == null) {
+                AtomicLong created = new AtomicLong();
+                counter = errorsByCode.putIfAbsent(key, created);
+                if(counter == null) {
+                    counter = created;
+                }
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String getServletName() {
+        return servletName;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> answer = new TreeMap<>();
+        for(Map.Entry<String, AtomicLong> entry: errorsByCode.entrySet()) {
+            answer.put(entry.getKey(), entry.getValue().get());
+        }
+        return answer;
+    }
+
+    @Override
+    public long[] getTimeBounds() {
+        return TIME_BOUNDS.clone();
+    }
+
+    @Override
+    public long[] getHandlerTimes() {
+        return handlerTimes.getCounts();
+    }
+
+    @Override
+    public long getHandlerTimeTotal() {
+        return handlerTimes.getTotal();
+    }
+
+    @Override
+    public long[] getSerializationTimes() {
+        return serializationTimes.getCounts();
+    }
+
+    @Override
+    public long getSerializationTimeTotal() {
+        return serializationTimes.getTotal();
+    }
+
+    @Override
+    public long[] getSizeBounds() {
+        return SIZE_BOUNDS.clone();
+    }
+
+    @Override
+    public long[] getResponseSizes() {
+        return responseSizes.getCounts();
+    }
+
+    @Override
+    public long getResponseSizeTotal() {
+        return responseSizes.getTotal();
+    }
+
+    @Override
+    public void reset() {
+        requests.set(0);
+        errors.set(0);
+        errorsByCode.clear();
+        handlerTimes.reset();
+        serializationTimes.reset();
+        responseSizes.reset();
+    }
+
+    /** Measurements of a single request **/
+    static class Sample {
+        private final long start = System.nanoTime();
+        private long handled = start;
+        private long size = -1;
+        private int errorCode = 0;
+        private int code = 0;
+
+        /** Marks the end of the handler **/
+        void handled() {
+            handled = System.nanoTime();
+        }
+
+        void setSize(long size) {
+            this.size = size;
+        }
+
+        void setErrorCode(int errorCode) {
+            setErrorCode(errorCode, 0);
+        }
+
+        /** Sets the HTTP Status Code and the Error Code of an Error Response (0 if none) **/
+        void setErrorCode(int errorCode, int code) {
+            this.errorCode = errorCode;
+            this.code = code;
+        }
+    }
+
+    /** Histogram with fixed bounds **/
+    private static class Histogram {
+        private final long[] bounds;
+        private final AtomicLongArray counts;
+        private final AtomicLong total = new AtomicLong();
+
+        private Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.counts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        private void record(long value) {
+            int index = 0;
+            while(index < bounds.length && value > bounds[index]) {
+                index++;
+            }
+            counts.incrementAndGet(index);
+            total.addAndGet(value);
+        }
+
+        private long[] getCounts() {
+            long[] answer = new long[counts.length()];
+            for(int i = 0; i < answer.length; i++) {
+                answer[i] = counts.get(i);
+            }
+            return answer;
+        }
+
+        private long getTotal() {
+            return total.get();
+        }
+
+        private void reset() {
+            for(int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            total.set(0);
+        }
+    }
+
+    /** Output Stream that counts the bytes written through it **/
+    static class CountingOutputStream extends OutputStream {
+        private final OutputStream target;
+        private long count = 0;
+
+        CountingOutputStream(OutputStream target) {
+            this.target = target;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            target.write(data, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.peregrine.commons.servlets;
+
+import java.util.Map;
+
+/**
+ * JMX View on the Metrics of a Peregrine Servlet.
+ *
+ * Times are in micro seconds and sizes in bytes. The histograms contain
+ * the number of samples that are less than or equal to the bound with the
+ * same index and the last entry contains the ones above the largest bound.
+ */
+public interface ServletMetricsMXBean {
+
+    /** @return Class Name of the Servlet **/
+    String getServletName();
+
+    /** @return Number of handled requests **/
+    long getRequestCount();
+
+    /** @return Number of requests that ended with an error **/
+    long getErrorCount();
+
+    /** @return Number of errors by their HTTP Status Code followed by the Error Response's code if set like '500/-125' **/
+    Map<String, Long> getErrorCounts();
+
+    /** @return Upper bounds of the time histograms **/
+    long[] getTimeBounds();
+
+    /** @return Histogram of the time spent in the servlet's handler **/
+    long[] getHandlerTimes();
+
+    /** @return Total time spent in the servlet's handler **/
+    long getHandlerTimeTotal();
+
+    /** @return Histogram of the time spent writing the response **/
+    long[] getSerializationTimes();
+
+    /** @return Total time spent writing the responses **/
+    long getSerializationTimeTotal();
+
+    /** @return Upper bounds of the size histogram **/
+    long[] getSizeBounds();
+
+    /** @return Histogram of the bytes sent (compressed if the response was compressed) **/
+    long[] getResponseSizes();
+
+    /** @return Total bytes sent **/
+    long getResponseSizeTotal();
+
+    /** Resets all the metrics **/
+    void reset();
+}
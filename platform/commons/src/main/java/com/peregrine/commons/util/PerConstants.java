@@ -43,6 +43,9 @@ public class PerConstants {
     public static final String ALLOWED_OBJECTS = "allowedObjects";
 
     public static final String DISTRIBUTION_SUB_SERVICE = "peregrine-distribution-sub-service";
+    public static final String SEARCH_SUB_SERVICE = "peregrine-search-sub-service";
+    public static final String REGISTRY_SUB_SERVICE = "peregrine-registry-sub-service";
+    public static final String REPLICATION_SUB_SERVICE = "peregrine-replication-sub-service";
 
     public static final String ECMA_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSX";
     public static final Locale ECMA_DATE_FORMAT_LOCALE = Locale.US;
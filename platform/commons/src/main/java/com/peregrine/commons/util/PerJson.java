@@ -0,0 +1,113 @@
+package com.peregrine.commons.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shared and pre-configured JSon Object Mapper, Readers and Writers.
+ *
+ * Creating an Object Mapper is expensive as it has to introspect the
+ * classes and warm up its serializer caches every time. These instances
+ * are thread-safe, share one set of caches and are warmed up when this
+ * class is loaded. The mapper must not be reconfigured by the callers.
+ */
+public final class PerJson {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PerJson.class);
+
+    private static final ObjectMapper MAPPER = createMapper();
+    private static final ObjectReader MAP_READER = MAPPER.readerFor(new TypeReference<LinkedHashMap<String, Object>>() {});
+    private static final ObjectWriter WRITER = MAPPER.writer();
+    private static final ObjectWriter PRETTY_WRITER = MAPPER.writerWithDefaultPrettyPrinter();
+
+    static {
+        warmUp();
+    }
+
+    private PerJson() {
+    }
+
+    private static ObjectMapper createMapper() {
+        ObjectMapper answer = new ObjectMapper();
+        // Content and Model data is loosely typed so missing or unknown fields are not an error
+        answer.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        answer.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        return answer;
+    }
+
+    /** Creates the serializers / deserializers of the most common types (maps, lists and values) upfront **/
+    private static void warmUp() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("text", "text");
+        map.put("number", 1);
+        map.put("flag", true);
+        map.put("list", new ArrayList<Object>(Arrays.<Object>asList("a", 1L, 1.0d)));
+        map.put("object", new LinkedHashMap<>(map));
+        try {
+            readMap(WRITER.writeValueAsString(map));
+        } catch(IOException e) {
+            LOGGER.warn("Failed to warm up the JSon Object Mapper -> ignored", e);
+        }
+    }
+
+    /** @return The shared Object Mapper. It must not be reconfigured **/
+    public static ObjectMapper getMapper() {
+        return MAPPER;
+    }
+
+    /** @return The JSon Factory of the shared mapper. Its generators and parsers have the mapper as codec **/
+    public static JsonFactory getFactory() {
+        return MAPPER.getFactory();
+    }
+
+    /** @return Reader that reads a JSon Object into a Linked Hash Map **/
+    public static ObjectReader getMapReader() {
+        return MAP_READER;
+    }
+
+    /** @return Writer that writes compact JSon **/
+    public static ObjectWriter getWriter() {
+        return WRITER;
+    }
+
+    /** @return Writer that writes pretty printed JSon **/
+    public static ObjectWriter getPrettyWriter() {
+        return PRETTY_WRITER;
+    }
+
+    /**
+     * Reads a JSon Object
+     * @param json JSon text of an Object
+     * @return Map of the JSon Object keeping the order of its fields or an empty map if the json is null
+     * @throws IOException If the text is not a valid JSon Object
+     */
+    public static Map<String, Object> readMap(String json) throws IOException {
+        if(json == null) {
+            return new LinkedHashMap<>();
+        }
+        return MAP_READER.readValue(json);
+    }
+
+    /**
+     * Writes the given value as compact JSon
+     * @param value Value to be written
+     * @return JSon text of the value
+     * @throws IOException If the value could not be written
+     */
+    public static String writeValueAsString(Object value) throws IOException {
+        return WRITER.writeValueAsString(value);
+    }
+}
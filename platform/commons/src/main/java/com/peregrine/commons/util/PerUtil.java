@@ -45,6 +45,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import static com.peregrine.commons.util.PerConstants.JCR_CREATED;
+import static com.peregrine.commons.util.PerConstants.JCR_LAST_MODIFIED;
 import static com.peregrine.commons.util.PerConstants.JCR_MIME_TYPE;
 import static com.peregrine.commons.util.PerConstants.JCR_PRIMARY_TYPE;
 import static com.peregrine.commons.util.PerConstants.SLING_RESOURCE_TYPE;
@@ -566,6 +568,31 @@ public class PerUtil {
         return answer;
     }
 
+    /**
+     * Obtains the last modification time of a resource which is the JCR Last Modified
+     * property of the resource or its JCR Content. If neither has one the JCR Created
+     * property is used.
+     *
+     * @param resource Resource to check
+     * @return Last Modification time in milliseconds or -1 if resource is null or no time was found
+     */
+    public static long getLastModified(Resource resource) {
+        if(resource == null) {
+            return -1;
+        }
+        Calendar answer = resource.getValueMap().get(JCR_LAST_MODIFIED, Calendar.class);
+        if(answer == null) {
+            ValueMap properties = getProperties(resource, true);
+            if(properties != null) {
+                answer = properties.get(JCR_LAST_MODIFIED, Calendar.class);
+            }
+        }
+        if(answer == null) {
+            answer = resource.getValueMap().get(JCR_CREATED, Calendar.class);
+        }
+        return answer == null ? -1 : answer.getTimeInMillis();
+    }
+
     /** Resource Check interface **/
     public static interface ResourceChecker {
         /** @return True if the resource checks out **/
@@ -0,0 +1,96 @@
+package com.peregrine.commons.servlets;
+
+import com.peregrine.commons.servlets.AbstractBaseServlet.JsonResponse;
+import com.peregrine.commons.servlets.AbstractBaseServlet.Response;
+import com.peregrine.commons.servlets.AbstractBaseServlet.StreamingJsonResponse;
+import com.peregrine.commons.servlets.AbstractBaseServlet.TextResponse;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AbstractBaseServletTest {
+
+    @Test
+    public void testValidators() throws Exception {
+        Response response = new JsonResponse();
+        assertFalse("New response must not have validators", response.hasValidators());
+        assertNull("New response must not have an ETag", response.getETag());
+        response.addValidator("/content/a", 1000).addValidator("/content/b", 2000);
+        assertTrue("Validators not recorded", response.hasValidators());
+        assertEquals("Unexpected Last Modified", 2000, response.getLastModified());
+        String eTag = response.getETag();
+        assertTrue("ETag must be weak", eTag.startsWith("W/\""));
+        Response same = new JsonResponse().addValidator("/content/a", 1000).addValidator("/content/b", 2000);
+        assertEquals("Same validators must yield the same ETag", eTag, same.getETag());
+        Response changed = new JsonResponse().addValidator("/content/a", 1000).addValidator("/content/b", 3000);
+        assertNotEquals("Changed validator must change the ETag", eTag, changed.getETag());
+        response.addValidator("/content/c", -1);
+        assertEquals("Unknown modification must remove Last Modified", -1, response.getLastModified());
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        final Response out = new TextResponse("text", "text/plain").write("content").addValidator("/content/a", 5000);
+        AbstractBaseServlet servlet = new AbstractBaseServlet() {
+            @Override
+            protected Response handleRequest(Request request) throws IOException {
+                return out;
+            }
+        };
+        SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getHeader("If-None-Match")).thenReturn("W/\"other\", " + out.getETag());
+        servlet.doGet(request, response);
+        verify(response).setStatus(SlingHttpServletResponse.SC_NOT_MODIFIED);
+        verify(response, never()).getWriter();
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void testWriteMap() throws Exception {
+        Map map = new LinkedHashMap();
+        map.put("title", "Title");
+        map.put("tags", Arrays.asList("a", "b"));
+        JsonResponse response = new JsonResponse();
+        response.writeAttribute("path", "/content/a");
+        response.writeMap(map);
+        assertEquals(
+            "Map entries must be written as fields",
+            "{\"path\":\"/content/a\",\"title\":\"Title\",\"tags\":[\"a\",\"b\"]}",
+            response.getContent().replaceAll("\\s", "")
+        );
+    }
+
+    @Test
+    public void testStreamingResponse() throws Exception {
+        StreamingJsonResponse response = new StreamingJsonResponse() {
+            @Override
+            protected void writeContent() throws IOException {
+                writeAttribute("name", "a");
+                writeArray("children");
+                writeObject().writeAttribute("name", "b").writeClose();
+            }
+        };
+        assertNull("Streaming response must not buffer its content", response.getContent());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.writeTo(out);
+        assertEquals("Unexpected compact output", "{\"name\":\"a\",\"children\":[{\"name\":\"b\"}]}", out.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,52 @@
+package com.peregrine.commons.servlets;
+
+import com.peregrine.commons.servlets.AbstractBaseServlet.AsyncHandler;
+import com.peregrine.commons.servlets.AbstractBaseServlet.Response;
+import com.peregrine.commons.servlets.AbstractBaseServlet.TextResponse;
+import com.peregrine.commons.servlets.AsyncJobs.Job;
+import com.peregrine.commons.servlets.AsyncJobs.State;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncJobsTest {
+
+    @Test
+    public void testExecution() throws Exception {
+        ResourceResolver resourceResolver = mock(ResourceResolver.class);
+        when(resourceResolver.getUserID()).thenReturn("admin");
+        AsyncJobs asyncJobs = new AsyncJobs();
+        Job job = asyncJobs.submit("test", resourceResolver, new AsyncHandler() {
+            @Override
+            public Response handle(ResourceResolver resourceResolver) throws IOException {
+                return new TextResponse("text", "application/json").write("{\"done\":true}");
+            }
+        });
+        assertSame("Job not registered", job, asyncJobs.getJob(job.getId()));
+        assertEquals("Unexpected user", "admin", job.getUserId());
+        for(int i = 0; i < 100 && job.getFinished() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals("Job did not finish", State.finished, job.getState());
+        assertEquals("Unexpected http status", 200, job.getHttpStatus());
+        assertEquals("Unexpected result", "{\"done\":true}", job.getResult());
+        verify(resourceResolver).close();
+
+        asyncJobs.shutdown();
+        try {
+            asyncJobs.submit("test", resourceResolver, null);
+            fail("No job must be accepted after the shutdown");
+        } catch(RejectedExecutionException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.peregrine.commons.servlets;
+
+import com.peregrine.commons.servlets.ResponseCompression.CompressingOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResponseCompressionTest {
+
+    @Test
+    public void testNegotiate() throws Exception {
+        assertEquals("Gzip not accepted", "gzip", negotiate("deflate, gzip;q=0.8"));
+        assertEquals("Wildcard not accepted", "gzip", negotiate("*"));
+        assertNull("Refused gzip must not be used", negotiate("gzip;q=0, *"));
+        assertNull("Unsupported encoding must not be used", negotiate("br"));
+        assertNull("Missing header must not be compressed", negotiate(null));
+    }
+
+    @Test
+    public void testCompressible() throws Exception {
+        assertTrue("JSon must be compressed", ResponseCompression.isCompressible("application/json;charset=UTF-8"));
+        assertFalse("PNG must not be compressed", ResponseCompression.isCompressible("image/png"));
+        assertFalse("Video must not be compressed", ResponseCompression.isCompressible("video/mp4"));
+    }
+
+    @Test
+    public void testCompress() throws Exception {
+        byte[] data = new byte[ResponseCompression.MIN_SIZE * 20];
+        for(int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 7);
+        }
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CompressingOutputStream out = new CompressingOutputStream(response, target);
+        // Write in small chunks to cross the threshold inside a write
+        for(int i = 0; i < data.length; i += 100) {
+            out.write(data, i, Math.min(100, data.length - i));
+        }
+        out.finish();
+        verify(response).setHeader("Content-Encoding", "gzip");
+        assertTrue("Content not compressed", target.size() < data.length);
+        byte[] inflated = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(target.toByteArray())));
+        assertArrayEquals("Inflated content differs", data, inflated);
+    }
+
+    @Test
+    public void testBelowThreshold() throws Exception {
+        byte[] data = new byte[ResponseCompression.MIN_SIZE / 2];
+        Arrays.fill(data, (byte) 'a');
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CompressingOutputStream out = new CompressingOutputStream(response, target);
+        out.write(data);
+        out.close();
+        verify(response, never()).setHeader("Content-Encoding", "gzip");
+        assertArrayEquals("Small content must be sent as is", data, target.toByteArray());
+    }
+
+    private String negotiate(String acceptEncoding) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Accept-Encoding")).thenReturn(acceptEncoding);
+        return ResponseCompression.negotiate(request);
+    }
+}
@@ -0,0 +1,58 @@
+package com.peregrine.commons.servlets;
+
+import com.peregrine.commons.servlets.ServletMetrics.Sample;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ServletMetricsTest {
+
+    @Test
+    public void testRecord() throws Exception {
+        ServletMetrics metrics = new ServletMetrics("test");
+        Sample sample = new Sample();
+        sample.handled();
+        sample.setSize(2000);
+        metrics.record(sample);
+        sample = new Sample();
+        sample.setErrorCode(400);
+        metrics.record(sample);
+        sample = new Sample();
+        sample.setErrorCode(500, -125);
+        metrics.record(sample);
+        assertEquals("Unexpected request count", 3, metrics.getRequestCount());
+        assertEquals("Unexpected error count", 2, metrics.getErrorCount());
+        assertEquals("Unexpected errors by code", Long.valueOf(1), metrics.getErrorCounts().get("400"));
+        assertEquals("Error Code must be broken out", Long.valueOf(1), metrics.getErrorCounts().get("500/-125"));
+        long[] sizes = metrics.getResponseSizes();
+        assertEquals("Size must be counted in the 4KB bucket", 1, sizes[1]);
+        assertEquals("Unexpected total size", 2000, metrics.getResponseSizeTotal());
+        long handled = 0;
+        for(long count: metrics.getHandlerTimes()) {
+            handled += count;
+        }
+        assertEquals("Every request must have a handler time", 3, handled);
+        metrics.reset();
+        assertEquals("Reset did not clear the requests", 0, metrics.getRequestCount());
+    }
+
+    @Test
+    public void testFindAll() throws Exception {
+        String name = ServletMetricsTest.class.getName();
+        ServletMetrics metrics = ServletMetrics.obtain(name);
+        try {
+            metrics.record(new Sample());
+            boolean found = false;
+            for(ServletMetricsMXBean bean: ServletMetrics.findAll()) {
+                if(name.equals(bean.getServletName())) {
+                    found = true;
+                    assertEquals("MBean must show the recorded request", 1, bean.getRequestCount());
+                }
+            }
+            assertTrue("Metrics not registered with JMX", found);
+        } finally {
+            ServletMetrics.remove(name);
+        }
+    }
+}
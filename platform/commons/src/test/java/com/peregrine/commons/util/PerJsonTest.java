@@ -0,0 +1,31 @@
+package com.peregrine.commons.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PerJsonTest {
+
+    @Test
+    public void testReadMap() throws Exception {
+        Map map = PerJson.readMap("{\"b\":1,\"a\":[\"x\",\"y\"],\"c\":{\"d\":true}}");
+        Iterator keys = map.keySet().iterator();
+        assertEquals("Order of the fields must be kept", "b", keys.next());
+        assertEquals("Order of the fields must be kept", "a", keys.next());
+        assertEquals("Unexpected array", Arrays.asList("x", "y"), map.get("a"));
+        assertTrue("Null must yield an empty map", PerJson.readMap(null).isEmpty());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String json = "{\"title\":\"Title\",\"children\":[{\"path\":\"/a\"}]}";
+        assertEquals("Compact output expected", json, PerJson.writeValueAsString(PerJson.readMap(json)));
+        assertSame("Factory must belong to the shared mapper", PerJson.getMapper(), PerJson.getFactory().getCodec());
+    }
+}
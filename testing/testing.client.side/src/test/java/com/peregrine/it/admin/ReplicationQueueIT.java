@@ -0,0 +1,145 @@
+package com.peregrine.it.admin;
+
+import com.peregrine.commons.test.AbstractTest;
+import org.apache.sling.testing.clients.ClientException;
+import org.apache.sling.testing.clients.SlingClient;
+import org.apache.sling.testing.clients.SlingHttpResponse;
+import org.apache.sling.testing.clients.util.FormEntityBuilder;
+import org.apache.sling.testing.junit.rules.SlingInstanceRule;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+import static com.peregrine.it.basic.BasicTestHelpers.convertToMap;
+import static com.peregrine.it.basic.BasicTestHelpers.createFolderStructure;
+import static com.peregrine.it.basic.BasicTestHelpers.listResourceAsJson;
+import static com.peregrine.it.util.TestHarness.deleteLeafFolder;
+import static com.peregrine.it.util.TestHarness.executeQueuedReplication;
+import static com.peregrine.it.util.TestHarness.getReplicationStatus;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The queued replication runs with the Replication Service User and
+ * so it must check that the user that queued it can write to the target
+ */
+public class ReplicationQueueIT
+    extends AbstractTest
+{
+    public static final String ROOT_PATH = "/content/tests/replication-queue";
+    public static final String LIVE_ROOT_PATH = "/live/tests/replication-queue";
+    public static final String USER_ID = "replication-queue-it";
+    public static final String USER_PASSWORD = "replication-queue-it";
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationQueueIT.class.getName());
+
+    @ClassRule
+    public static SlingInstanceRule slingInstanceRule = new SlingInstanceRule();
+
+    @BeforeClass
+    public static void setUpAll() throws Exception {
+        SlingClient client = slingInstanceRule.getAdminClient();
+        if(!deleteLeafFolder(client, ROOT_PATH)) {
+            fail("Could not delete Leaf Root Folder: " + ROOT_PATH);
+        }
+        if(!deleteLeafFolder(client, LIVE_ROOT_PATH)) {
+            fail("Could not delete Leaf Live Root Folder: " + LIVE_ROOT_PATH);
+        }
+        deleteUser(client);
+        client.doPost(
+            "/system/userManager/user.create.html",
+            FormEntityBuilder.create().addParameter(":name", USER_ID).addParameter("pwd", USER_PASSWORD).addParameter("pwdConfirm", USER_PASSWORD).build(),
+            200, 201
+        );
+    }
+
+    @AfterClass
+    public static void tearDownAll() {
+        SlingClient client = slingInstanceRule.getAdminClient();
+        try {
+            client.doPost("/.deleteAce.html", FormEntityBuilder.create().addParameter(":applyTo", USER_ID).build(), 200);
+        } catch(ClientException e) {
+            logger.warn("Could not remove the root access of user: '{}' -> ignore", USER_ID, e);
+        }
+        deleteUser(client);
+    }
+
+    @Test
+    public void testQueuedReplicationWithoutTargetPermission() throws Exception {
+        SlingClient client = slingInstanceRule.getAdminClient();
+        String folderName = "denied";
+        createFolderStructure(client, ROOT_PATH + "/" + folderName);
+        createFolderStructure(client, LIVE_ROOT_PATH + "/" + folderName);
+        setUpPermissions(client, ROOT_PATH + "/" + folderName, LIVE_ROOT_PATH + "/" + folderName, "denied");
+
+        Map job = queueAndWait(ROOT_PATH + "/" + folderName);
+        assertEquals("Replication without write access to the target was not cancelled: " + job, "ERROR", job.get("status"));
+        String message = (String) job.get("message");
+        assertTrue("Cancelled Job does not name the target: " + job, message != null && message.contains(LIVE_ROOT_PATH + "/" + folderName));
+    }
+
+    @Test
+    public void testQueuedReplicationWithTargetPermission() throws Exception {
+        SlingClient client = slingInstanceRule.getAdminClient();
+        String folderName = "granted";
+        createFolderStructure(client, ROOT_PATH + "/" + folderName);
+        createFolderStructure(client, LIVE_ROOT_PATH + "/" + folderName);
+        setUpPermissions(client, ROOT_PATH + "/" + folderName, LIVE_ROOT_PATH + "/" + folderName, "granted");
+
+        Map job = queueAndWait(ROOT_PATH + "/" + folderName);
+        assertEquals("Replication with write access to the target did not succeed: " + job, "SUCCEEDED", job.get("status"));
+        Map liveFolder = listResourceAsJson(client, LIVE_ROOT_PATH, 1);
+        assertFalse("Replicated Folder is missing", liveFolder.get(folderName) == null);
+    }
+
+    /** The user can read everything and modify the source but its write access on the target is given by the test **/
+    private static void setUpPermissions(SlingClient client, String sourcePath, String targetPath, String targetWrite) throws ClientException {
+        client.doPost(
+            "/.modifyAce.html",
+            FormEntityBuilder.create().addParameter("principalId", USER_ID).addParameter("privilege@jcr:read", "granted").build(),
+            200
+        );
+        client.doPost(
+            sourcePath + ".modifyAce.html",
+            FormEntityBuilder.create().addParameter("principalId", USER_ID).addParameter("privilege@jcr:all", "granted").build(),
+            200
+        );
+        client.doPost(
+            targetPath + ".modifyAce.html",
+            FormEntityBuilder.create().addParameter("principalId", USER_ID).addParameter("privilege@jcr:write", targetWrite).build(),
+            200
+        );
+    }
+
+    /** Queues the replication as the test user and waits until the job is finished **/
+    private static Map queueAndWait(String path) throws Exception {
+        SlingClient userClient = new SlingClient(slingInstanceRule.getAdminClient().getUrl(), USER_ID, USER_PASSWORD);
+        SlingHttpResponse response = executeQueuedReplication(userClient, path, "local", 202);
+        String jobId = (String) convertToMap(response).get("jobId");
+        for(int i = 0; i < 60; i++) {
+            Map job = convertToMap(getReplicationStatus(userClient, jobId, 200));
+            String status = (String) job.get("status");
+            if(!"QUEUED".equals(status) && !"ACTIVE".equals(status)) {
+                return job;
+            }
+            Thread.sleep(500);
+        }
+        fail("Replication Job: " + jobId + " did not finish");
+        return null;
+    }
+
+    private static void deleteUser(SlingClient client) {
+        try {
+            client.doPost("/system/userManager/user/" + USER_ID + ".delete.html", FormEntityBuilder.create().build(), 200);
+        } catch(ClientException e) {
+            logger.warn("Could not delete user: '{}' -> ignore", USER_ID, e);
+        }
+    }
+}
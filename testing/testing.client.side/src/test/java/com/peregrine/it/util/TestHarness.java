@@ -1,8 +1,10 @@
 package com.peregrine.it.util;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.message.BasicNameValuePair;
 import org.apache.sling.testing.clients.ClientException;
 import org.apache.sling.testing.clients.SlingClient;
 import org.apache.sling.testing.clients.SlingHttpResponse;
@@ -11,6 +13,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.peregrine.commons.util.PerUtil.isEmpty;
 import static com.peregrine.commons.util.PerUtil.isNotEmpty;
@@ -178,6 +182,19 @@ public class TestHarness {
         return client.doPost(url, formEntry, expectedStatus);
     }
 
+    public static SlingHttpResponse executeQueuedReplication(SlingClient client, String path, String name, int expectedStatus) throws ClientException, IOException {
+        String url = ADMIN_PREFIX_URL + "repl.json" + path;
+        HttpEntity formEntry = FormEntityBuilder.create().addParameter("name", name).addParameter("queue", "true").build();
+        return client.doPost(url, formEntry, expectedStatus);
+    }
+
+    public static SlingHttpResponse getReplicationStatus(SlingClient client, String jobId, int expectedStatus) throws ClientException, IOException {
+        String url = ADMIN_PREFIX_URL + "replStatus.json";
+        List<NameValuePair> parameters = new ArrayList<>();
+        parameters.add(new BasicNameValuePair("id", jobId));
+        return client.doGet(url, parameters, expectedStatus);
+    }
+
     public static SlingHttpResponse uploadFile(SlingClient client, String path, String name, byte[] content, int expectedStatus) throws ClientException, IOException {
         return uploadFile(client, path, name, content, "application/octet-stream", expectedStatus);
     }
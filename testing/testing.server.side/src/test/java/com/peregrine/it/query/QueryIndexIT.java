@@ -0,0 +1,94 @@
+package com.peregrine.it.query;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.junit.rules.TeleporterRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.RowIterator;
+
+import static com.peregrine.admin.servlets.RestrictedSearchServlet.COMPONENTS_QUERY;
+import static com.peregrine.admin.servlets.RestrictedSearchServlet.OBJECTS_QUERY;
+import static com.peregrine.admin.servlets.RestrictedSearchServlet.TEMPLATES_QUERY;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Makes sure that the queries Peregrine ships are served by
+ * an index and do not traverse the repository.
+ *
+ * The Peregrine Index is updated asynchronously and so the
+ * plan is checked until an index is used or the time is up.
+ */
+public class QueryIndexIT {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryIndexIT.class.getName());
+
+    private static final long INDEX_TIMEOUT = 60000;
+
+    /** Statement and Language of the shipped queries **/
+    private static final String[][] QUERIES = new String[][] {
+        { COMPONENTS_QUERY, Query.SQL },
+        { OBJECTS_QUERY, Query.SQL },
+        { TEMPLATES_QUERY, Query.SQL },
+        // Default Keyset Paging of the Search Servlet
+        { "SELECT * FROM [per:Page] AS s WHERE s.[jcr:created] IS NOT NULL ORDER BY s.[jcr:created]", Query.JCR_SQL2 },
+        { "SELECT * FROM [per:Asset] AS s WHERE s.[jcr:created] IS NOT NULL ORDER BY s.[jcr:created]", Query.JCR_SQL2 },
+        { "SELECT * FROM [per:Page] AS s WHERE s.[jcr:content/template] = '/content/templates/example'", Query.JCR_SQL2 },
+        { "SELECT * FROM [per:Component] AS s WHERE s.[group] = 'Text'", Query.JCR_SQL2 }
+    };
+
+    @Rule
+    public final TeleporterRule teleporter = TeleporterRule.forClass(getClass(), "PeregrineTeleporter");
+
+    @Test
+    public void testQueriesDoNotTraverse() throws Exception {
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = getResourceResolver();
+            Session session = resourceResolver.adaptTo(Session.class);
+            assertNotNull("No JCR Session available", session);
+            QueryManager queryManager = session.getWorkspace().getQueryManager();
+            for(String[] query: QUERIES) {
+                String plan = getPlan(queryManager, query[0], query[1]);
+                long end = System.currentTimeMillis() + INDEX_TIMEOUT;
+                while(isTraversing(plan) && System.currentTimeMillis() < end) {
+                    Thread.sleep(1000);
+                    plan = getPlan(queryManager, query[0], query[1]);
+                }
+                logger.info("Query: '{}', Plan: '{}'", query[0], plan);
+                if(isTraversing(plan)) {
+                    fail("Query: '" + query[0] + "' traverses the repository, Plan: '" + plan + "'");
+                }
+            }
+        } finally {
+            if(resourceResolver != null) {
+                resourceResolver.close();
+            }
+        }
+    }
+
+    private String getPlan(QueryManager queryManager, String statement, String language) throws Exception {
+        RowIterator rows = queryManager.createQuery("explain " + statement, language).execute().getRows();
+        return rows.hasNext() ? rows.nextRow().getValue("plan").getString() : "";
+    }
+
+    private boolean isTraversing(String plan) {
+        return plan.contains("/* traverse ");
+    }
+
+    private ResourceResolver getResourceResolver() throws LoginException {
+        final ResourceResolverFactory resourceResolverFactory = teleporter.getService(ResourceResolverFactory.class);
+        assertNotNull("Teleporter should provide a Resource Resolver Factory", resourceResolverFactory);
+        ResourceResolver resourceResolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+        assertNotNull("Wasn't able to create an Admin Resource Resolver", resourceResolver);
+        return resourceResolver;
+    }
+}